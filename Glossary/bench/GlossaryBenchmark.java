@@ -0,0 +1,272 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import components.map.Map;
+import components.map.Map1L;
+import components.queue.Queue;
+import components.queue.Queue1L;
+import components.simplereader.SimpleReader;
+import components.simplereader.SimpleReader1L;
+import components.simplewriter.SimpleWriter;
+import components.simplewriter.SimpleWriter1L;
+
+/**
+ * JMH benchmarks for each phase of {@code Glossary.main}: parse, sort, link,
+ * render and index, plus the term lookups the server does per request. Every
+ * benchmark runs on a {@link SyntheticGlossary}, so results are comparable
+ * from run to run. Sizes can be overridden from the command line, e.g.
+ * {@code -p termCount=10000000}.
+ *
+ * @author Elijah Paulman
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx8g" })
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class GlossaryBenchmark {
+
+    /**
+     * Seed of the synthetic glossary.
+     */
+    private static final long SEED = 2221L;
+
+    /**
+     * Number of terms in the glossary.
+     */
+    @Param({ "10", "1000", "100000" })
+    private int termCount;
+
+    /**
+     * Number of words in each definition.
+     */
+    @Param({ "12" })
+    private int definitionWords;
+
+    /**
+     * Probability that a word of a definition is another term.
+     */
+    @Param({ "0.1" })
+    private double linkDensity;
+
+    /**
+     * The generated glossary.
+     */
+    private SyntheticGlossary glossary;
+
+    /**
+     * Scratch directory holding the input file and output pages.
+     */
+    private Path workDir;
+
+    /**
+     * The glossary in the input format.
+     */
+    private String inputFile;
+
+    /**
+     * Folder term pages are written to.
+     */
+    private String outputDir;
+
+    /**
+     * Map handed to the phase being measured.
+     */
+    private Map<String, String> definitionMap;
+
+    /**
+     * Queue handed to the phase being measured.
+     */
+    private Queue<String> terms;
+
+    /**
+     * Page names looked up by the lookup benchmarks; every other one is not
+     * the page of a term.
+     */
+    private String[] pageNames;
+
+    /**
+     * Every term, as a component map.
+     */
+    private Map<String, String> lookupMap;
+
+    /**
+     * Every term, as a perfect-hash dictionary.
+     */
+    private TermDictionary dictionary;
+
+    /**
+     * Generates the glossary and writes the input file.
+     *
+     * @throws IOException
+     *             if the scratch directory cannot be created
+     */
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        this.glossary = new SyntheticGlossary(SEED, this.termCount,
+                this.definitionWords, this.linkDensity);
+        this.workDir = Files.createTempDirectory("glossary-bench");
+        this.inputFile = this.workDir.resolve("terms.txt").toString();
+        this.glossary.writeTo(this.workDir.resolve("terms.txt"));
+        File out = this.workDir.resolve("out").toFile();
+        out.mkdir();
+        this.outputDir = out.getPath();
+
+        this.lookupMap = new Map1L<>();
+        Queue<String> all = new Queue1L<>();
+        this.glossary.fill(this.lookupMap, all);
+        this.dictionary = new TermDictionary(all);
+        this.pageNames = new String[2 * this.glossary.size()];
+        for (int i = 0; i < this.glossary.size(); i++) {
+            this.pageNames[2 * i] = this.glossary.term(i) + ".html";
+            this.pageNames[2 * i + 1] = this.glossary.term(i) + "s.html";
+        }
+    }
+
+    /**
+     * Resets the map and queue to the freshly parsed, unsorted and unlinked
+     * glossary, since the phases update them.
+     */
+    @Setup(Level.Invocation)
+    public void reset() {
+        this.definitionMap = new Map1L<>();
+        this.terms = new Queue1L<>();
+        this.glossary.fill(this.definitionMap, this.terms);
+    }
+
+    /**
+     * Deletes the scratch directory.
+     *
+     * @throws IOException
+     *             if a file cannot be deleted
+     */
+    @TearDown(Level.Trial)
+    public void cleanUp() throws IOException {
+        File[] pages = new File(this.outputDir).listFiles();
+        if (pages != null) {
+            for (File page : pages) {
+                Files.delete(page.toPath());
+            }
+        }
+        Files.delete(new File(this.outputDir).toPath());
+        Files.delete(this.workDir.resolve("terms.txt"));
+        Files.delete(this.workDir);
+    }
+
+    /**
+     * Parse phase.
+     *
+     * @return the parsed terms
+     */
+    @Benchmark
+    public Queue<String> parse() {
+        Map<String, String> map = new Map1L<>();
+        SimpleReader in = new SimpleReader1L(this.inputFile);
+        Queue<String> parsed = Glossary.getTermsAndDefs(map, in);
+        in.close();
+        return parsed;
+    }
+
+    /**
+     * Sort phase.
+     *
+     * @return the sorted terms
+     */
+    @Benchmark
+    public Queue<String> sort() {
+        Comparator<String> alphabetical = new Glossary.AlphabeticalSort();
+        this.terms.sort(alphabetical);
+        return this.terms;
+    }
+
+    /**
+     * Link phase.
+     *
+     * @return the linked definitions
+     */
+    @Benchmark
+    public Map<String, String> link() {
+        Glossary.updateDefinitions(this.definitionMap, this.terms,
+                this.outputDir);
+        return this.definitionMap;
+    }
+
+    /**
+     * Render phase, writing every term page.
+     *
+     * @return the terms rendered
+     */
+    @Benchmark
+    public Queue<String> render() {
+        Glossary.addLinks(this.definitionMap, this.terms, this.outputDir);
+        return this.terms;
+    }
+
+    /**
+     * Index phase.
+     *
+     * @return the terms indexed
+     */
+    @Benchmark
+    public Queue<String> index() {
+        SimpleWriter out = new SimpleWriter1L(this.outputDir + "/index.html");
+        Glossary.createIndex(this.terms, this.outputDir, out);
+        out.close();
+        return this.terms;
+    }
+
+    /**
+     * Looks up every page name in the component map, as the server did
+     * before it had a dictionary.
+     *
+     * @return the number of page names that are terms
+     */
+    @Benchmark
+    public int lookupMap() {
+        int found = 0;
+        for (String name : this.pageNames) {
+            String term = name.substring(0, name.length() - ".html".length());
+            if (this.lookupMap.hasKey(term)) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Looks up every page name in the perfect-hash dictionary.
+     *
+     * @return the number of page names that are terms
+     */
+    @Benchmark
+    public int lookupDictionary() {
+        int found = 0;
+        for (String name : this.pageNames) {
+            if (this.dictionary.id(name, 0,
+                    name.length() - ".html".length()) >= 0) {
+                found++;
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,297 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+/**
+ * Regression suite on large synthetic glossaries. Each size is generated
+ * from a fixed seed, built with the phased generator and with the pipelined
+ * one, and checked against a golden fingerprint of its output. Every phase
+ * must also stay within its time and heap budget. Like the benchmarks in
+ * {@code bench}, the suite is kept out of {@code test} so the unit tests stay
+ * fast; it runs from the {@code Glossary} folder.
+ *
+ * <p>
+ * The sizes default to 10000 terms; bigger runs are opted into with
+ * {@code -Dglossary.regression.sizes=10000,100000,1000000}. Budgets are read
+ * from {@code regression/budgets.properties} as
+ * {@code <terms>.<phase>.millis} and {@code <terms>.<phase>.heapMB}, and each
+ * can be overridden with a system property of the same name prefixed by
+ * {@code glossary.budget.}. The golden fingerprints in
+ * {@code regression/golden.txt} are rewritten by running with
+ * {@code -Dglossary.regression.update=true}. The term dictionary is also
+ * built alone over {@code -Dglossary.regression.dictionary} terms (4000000
+ * by default), with a {@code term-dictionary} budget.
+ * </p>
+ *
+ * <p>
+ * On a mismatch the full manifest of the site is saved to the temporary
+ * folder. If {@code -Dglossary.regression.manifests=DIR} names a folder of
+ * manifests saved from a good build, the failure lists the files that
+ * changed.
+ * </p>
+ *
+ * @author Elijah Paulman
+ *
+ */
+public class GlossaryRegressionTest {
+
+    /**
+     * Seed of every generated glossary.
+     */
+    private static final long SEED = 2221L;
+
+    /**
+     * Words in each generated definition.
+     */
+    private static final int DEFINITION_WORDS = 8;
+
+    /**
+     * Probability that a word of a definition is a term.
+     */
+    private static final double LINK_DENSITY = 0.1;
+
+    /**
+     * Folder of the golden fingerprints and budgets.
+     */
+    private static final String REGRESSION_DIR = "regression";
+
+    /**
+     * Golden fingerprints, one line per size: terms, file count and
+     * fingerprint.
+     */
+    private static final String GOLDEN = REGRESSION_DIR + "/golden.txt";
+
+    /**
+     * Time and heap budgets of the phases.
+     */
+    private static final String BUDGETS = REGRESSION_DIR
+            + "/budgets.properties";
+
+    /**
+     * Bytes per megabyte.
+     */
+    private static final long MEGABYTE = 1L << 20;
+
+    /**
+     * Builds every configured size both ways and checks the outputs and
+     * budgets.
+     *
+     * @throws IOException
+     *             if the scratch files cannot be used
+     */
+    @Test
+    public void testLargeGlossariesMatchGoldenOutput() throws IOException {
+        Properties budgets = new Properties();
+        try (InputStream in = Files.newInputStream(Paths.get(BUDGETS))) {
+            budgets.load(in);
+        }
+        List<String> golden = Files.readAllLines(Paths.get(GOLDEN));
+        boolean update = Boolean.getBoolean("glossary.regression.update");
+        List<String> failures = new ArrayList<>();
+
+        for (String size : System
+                .getProperty("glossary.regression.sizes", "10000")
+                .split(",")) {
+            int count = Integer.parseInt(size.trim());
+            Path work = Files.createTempDirectory("regression-" + count);
+            try {
+                Path input = work.resolve("terms.txt");
+                new SyntheticGlossary(SEED, count, DEFINITION_WORDS,
+                        LINK_DENSITY).writeTo(input);
+
+                String phased = work.resolve("phased").toString();
+                RunStats stats = new RunStats(true);
+                assertEquals(count, GlossaryBatch.build(input.toString(),
+                        phased, GlossaryOptions.parse(new String[] {
+                                "--search" }),
+                        stats));
+                checkBudgets(count, stats, budgets, failures);
+                OutputManifest expected = OutputManifest.of(phased);
+                deleteTree(Paths.get(phased));
+
+                String pipelined = work.resolve("pipelined").toString();
+                Files.createDirectories(Paths.get(pipelined));
+                stats = new RunStats(true);
+                GlossaryPipeline.build(input.toString(), pipelined,
+                        new Glossary.AlphabeticalSort(),
+                        Runtime.getRuntime().availableProcessors(),
+                        GlossaryPipeline.DEFAULT_QUEUE_CAPACITY,
+                        PageTemplates.DEFAULT, 0, true, stats);
+                checkBudgets(count, stats, budgets, failures);
+                OutputManifest actual = OutputManifest.of(pipelined);
+                for (String difference : actual.differences(expected)) {
+                    failures.add(count + " terms: pipelined build "
+                            + difference);
+                }
+
+                String line = count + " " + expected.size() + " "
+                        + expected.fingerprint();
+                if (update) {
+                    golden.removeIf(g -> g.startsWith(count + " "));
+                    golden.add(line);
+                } else if (!golden.contains(line)) {
+                    failures.add(count + " terms: output differs from "
+                            + GOLDEN + ", " + explain(count, expected));
+                }
+            } finally {
+                deleteTree(work);
+            }
+        }
+
+        if (update) {
+            golden.sort(Comparator.comparingInt(
+                    g -> Integer.parseInt(g.substring(0, g.indexOf(' ')))));
+            Files.write(Paths.get(GOLDEN), golden);
+        }
+        assertTrue(String.join(System.lineSeparator(), failures),
+                failures.isEmpty());
+    }
+
+    /**
+     * Builds the term dictionary of millions of terms, which must finish
+     * within its budget and find every term.
+     *
+     * @throws IOException
+     *             if the budgets cannot be read
+     */
+    @Test
+    public void testTermDictionaryBuildsMillionsOfTerms() throws IOException {
+        Properties budgets = new Properties();
+        try (InputStream in = Files.newInputStream(Paths.get(BUDGETS))) {
+            budgets.load(in);
+        }
+        int count = Integer.getInteger("glossary.regression.dictionary",
+                4000000);
+        SyntheticGlossary glossary = new SyntheticGlossary(SEED, count,
+                DEFINITION_WORDS, LINK_DENSITY);
+        List<String> terms = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            terms.add(glossary.term(i));
+        }
+
+        RunStats stats = new RunStats();
+        RunStats.Phase phase = stats.begin("term-dictionary");
+        TermDictionary dictionary = new TermDictionary(terms);
+        phase.end(count);
+        assertEquals(count, dictionary.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, dictionary.id(terms.get(i)));
+        }
+        List<String> failures = new ArrayList<>();
+        checkBudgets(count, stats, budgets, failures);
+        assertTrue(String.join(System.lineSeparator(), failures),
+                failures.isEmpty());
+    }
+
+    /**
+     * Records in {@code failures} every phase of {@code stats} over its
+     * budget.
+     *
+     * @param count
+     *            number of terms
+     * @param stats
+     *            the phases of the run
+     * @param budgets
+     *            the budgets from the properties file
+     * @param failures
+     *            receives the phases over budget
+     */
+    private static void checkBudgets(int count, RunStats stats,
+            Properties budgets, List<String> failures) {
+        for (RunStats.Phase phase : stats.phases()) {
+            String key = count + "." + phase.name();
+            String millis = budget(key + ".millis", budgets);
+            if (millis != null && phase.millis() > Double.parseDouble(millis)) {
+                failures.add(String.format(Locale.ROOT,
+                        "%d terms: %s took %.0f ms, budget %s ms", count,
+                        phase.name(), phase.millis(), millis));
+            }
+            String heap = budget(key + ".heapMB", budgets);
+            if (heap != null && phase.peakHeapBytes() > Long.parseLong(heap)
+                    * MEGABYTE) {
+                failures.add(String.format(Locale.ROOT,
+                        "%d terms: %s peaked at %d MB of heap, budget %s MB",
+                        count, phase.name(),
+                        phase.peakHeapBytes() / MEGABYTE, heap));
+            }
+        }
+    }
+
+    /**
+     * Returns the budget {@code key}, from a system property if one is set.
+     *
+     * @param key
+     *            the budget
+     * @param budgets
+     *            the budgets from the properties file
+     * @return the budget, or null if there is none
+     */
+    private static String budget(String key, Properties budgets) {
+        return System.getProperty("glossary.budget." + key,
+                budgets.getProperty(key));
+    }
+
+    /**
+     * Saves the manifest of a mismatched site and describes which files
+     * differ from a manifest saved from a good build, if there is one.
+     *
+     * @param count
+     *            number of terms
+     * @param actual
+     *            the manifest of the site
+     * @return the description of the mismatch
+     */
+    private static String explain(int count, OutputManifest actual) {
+        String name = "synthetic-" + count + ".sha256";
+        File saved = new File(System.getProperty("java.io.tmpdir"), name);
+        actual.write(saved.getPath());
+        StringBuilder message = new StringBuilder("manifest saved to ")
+                .append(saved);
+        String dir = System.getProperty("glossary.regression.manifests");
+        if (dir != null && new File(dir, name).isFile()) {
+            OutputManifest good = OutputManifest
+                    .read(new File(dir, name).getPath());
+            for (String difference : actual.differences(good)) {
+                message.append(System.lineSeparator()).append("    ")
+                        .append(difference);
+            }
+        }
+        return message.toString();
+    }
+
+    /**
+     * Deletes {@code root} and everything under it.
+     *
+     * @param root
+     *            the folder
+     * @throws IOException
+     *             if a file cannot be deleted
+     */
+    private static void deleteTree(Path root) throws IOException {
+        if (!Files.exists(root)) {
+            return;
+        }
+        List<Path> paths = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(root)) {
+            walk.forEach(paths::add);
+        }
+        // Children come after their parents in a walk
+        for (int i = paths.size() - 1; i >= 0; i--) {
+            Files.delete(paths.get(i));
+        }
+    }
+}
@@ -0,0 +1,245 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * Inverted index of the links between terms: for every term, the terms whose
+ * definitions link to it. The links are recorded while
+ * {@code Glossary.updateDefinitions} creates them, so building the index
+ * costs no extra pass over the definitions. Once linking is done, the links
+ * are grouped by target with a counting sort into two flat {@code int}
+ * arrays.
+ *
+ * @author Elijah Paulman
+ *
+ */
+public final class BacklinkIndex {
+
+    /**
+     * Line separator used in the generated section, as
+     * {@code SimpleWriter.println} does.
+     */
+    private static final String NL = System.lineSeparator();
+
+    /**
+     * Linker whose term ids are the link targets, or null before
+     * {@link #start(TermLinker)}.
+     */
+    private TermLinker linker = null;
+
+    /**
+     * Source terms by id, in the order they were linked.
+     */
+    private String[] sources = new String[16];
+
+    /**
+     * Number of source terms.
+     */
+    private int sourceCount = 0;
+
+    /**
+     * Source id of each recorded link, until {@link #finish()}.
+     */
+    private int[] linkSources = new int[16];
+
+    /**
+     * Target id of each recorded link, until {@link #finish()}.
+     */
+    private int[] linkTargets = new int[16];
+
+    /**
+     * Number of recorded links.
+     */
+    private int linkCount = 0;
+
+    /**
+     * Last source that linked to each target, so a definition linking to the
+     * same term twice is recorded once.
+     */
+    private int[] lastSource = null;
+
+    /**
+     * Start of the referrers of each target in {@link #referrers}, plus one
+     * final entry; null until {@link #finish()}.
+     */
+    private int[] offsets = null;
+
+    /**
+     * Source ids of all links, grouped by target and in link order within a
+     * group; null until {@link #finish()}.
+     */
+    private int[] referrers = null;
+
+    /**
+     * Target id of each term, null until {@link #finish()}.
+     */
+    private TermDictionary targetIds = null;
+
+    /**
+     * Prepares the index for the links created with {@code termLinker}.
+     *
+     * @param termLinker
+     *            the linker whose term ids are reported as link targets
+     * @requires the index has not been started yet
+     */
+    void start(TermLinker termLinker) {
+        assert this.linker == null : "Violation of: index is not started";
+
+        this.linker = termLinker;
+        this.lastSource = new int[termLinker.termCount()];
+        Arrays.fill(this.lastSource, -1);
+    }
+
+    /**
+     * Adds {@code term} as the source of the links that follow, and returns
+     * the consumer to report their target ids to.
+     *
+     * @param term
+     *            the term whose definition is being linked
+     * @return receives the target id of each link in the definition of term
+     * @requires the index is started and not finished
+     */
+    IntConsumer linksFrom(String term) {
+        assert this.linker != null : "Violation of: index is started";
+        assert this.offsets == null : "Violation of: index is not finished";
+
+        if (this.sourceCount == this.sources.length) {
+            this.sources = Arrays.copyOf(this.sources, 2 * this.sourceCount);
+        }
+        int source = this.sourceCount;
+        this.sources[source] = term;
+        this.sourceCount++;
+        return target -> this.add(source, target);
+    }
+
+    /**
+     * Records a link from source {@code source} to target {@code target},
+     * unless it is already recorded or links a term to itself.
+     *
+     * @param source
+     *            the source id
+     * @param target
+     *            the target id
+     */
+    private void add(int source, int target) {
+        if (this.lastSource[target] == source
+                || this.linker.term(target).equals(this.sources[source])) {
+            return;
+        }
+        this.lastSource[target] = source;
+        if (this.linkCount == this.linkSources.length) {
+            this.linkSources = Arrays.copyOf(this.linkSources,
+                    2 * this.linkCount);
+            this.linkTargets = Arrays.copyOf(this.linkTargets,
+                    2 * this.linkCount);
+        }
+        this.linkSources[this.linkCount] = source;
+        this.linkTargets[this.linkCount] = target;
+        this.linkCount++;
+    }
+
+    /**
+     * Groups the recorded links by target. No links can be recorded after
+     * this.
+     *
+     * @requires the index is started and not finished
+     */
+    void finish() {
+        assert this.linker != null : "Violation of: index is started";
+        assert this.offsets == null : "Violation of: index is not finished";
+
+        int targetCount = this.linker.termCount();
+        // Counts the links to each target, then turns counts into offsets
+        int[] start = new int[targetCount + 1];
+        for (int i = 0; i < this.linkCount; i++) {
+            start[this.linkTargets[i] + 1]++;
+        }
+        for (int t = 0; t < targetCount; t++) {
+            start[t + 1] += start[t];
+        }
+        // Places each source, keeping the order links were recorded in
+        int[] grouped = new int[this.linkCount];
+        int[] next = Arrays.copyOf(start, targetCount);
+        for (int i = 0; i < this.linkCount; i++) {
+            int target = this.linkTargets[i];
+            grouped[next[target]] = this.linkSources[i];
+            next[target]++;
+        }
+        List<String> targets = new ArrayList<>(targetCount);
+        for (int t = 0; t < targetCount; t++) {
+            targets.add(this.linker.term(t));
+        }
+        this.targetIds = new TermDictionary(targets);
+        this.offsets = start;
+        this.referrers = grouped;
+        // Only the grouped links are needed from now on
+        this.linkSources = null;
+        this.linkTargets = null;
+        this.lastSource = null;
+    }
+
+    /**
+     * Returns the number of distinct links between different terms.
+     *
+     * @return the number of links
+     */
+    public int linkCount() {
+        return this.linkCount;
+    }
+
+    /**
+     * Returns the terms whose definitions link to {@code term}, in the order
+     * their definitions were linked.
+     *
+     * @param term
+     *            the term
+     * @return the referring terms (empty if there are none)
+     * @requires the index is finished
+     */
+    public List<String> referrers(String term) {
+        assert this.offsets != null : "Violation of: index is finished";
+
+        int target = this.targetIds.id(term);
+        if (target < 0) {
+            return Collections.emptyList();
+        }
+        int from = this.offsets[target];
+        int to = this.offsets[target + 1];
+        List<String> result = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            result.add(this.sources[this.referrers[i]]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the "Referenced by" section of the page of {@code term}: a
+     * heading and a list of links to the terms that link to it, or the empty
+     * string if no term does.
+     *
+     * @param term
+     *            the term
+     * @return the html of the section
+     * @requires the index is finished
+     */
+    public String section(String term) {
+        List<String> from = this.referrers(term);
+        if (from.isEmpty()) {
+            return "";
+        }
+        StringBuilder html = new StringBuilder(64 + 32 * from.size());
+        html.append("<h3>Referenced by</h3>").append(NL);
+        html.append("<ul>").append(NL);
+        for (String source : from) {
+            html.append("<li><a href=\"");
+            HtmlEscaper.appendPageUrl(html, source, 0, source.length());
+            html.append(".html\">");
+            HtmlEscaper.appendText(html, source, 0, source.length());
+            html.append("</a></li>").append(NL);
+        }
+        html.append("</ul>").append(NL);
+        return html.toString();
+    }
+}
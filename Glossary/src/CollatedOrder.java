@@ -0,0 +1,241 @@
+import java.io.Serializable;
+import java.text.Collator;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import components.queue.Queue;
+
+/**
+ * Orders terms the way a reader of a given language expects, using a
+ * {@link Collator} for a locale and strength: case and accents no longer push
+ * terms to the front or the back of the index. Ties between terms the
+ * collator considers equal are broken by {@code String.compareTo}, so the
+ * order is total.
+ *
+ * <p>
+ * {@link #sort(Queue, int)} computes each term's collation key once, in
+ * parallel, and sorts by comparing the keys' bytes, instead of collating the
+ * two strings again on every comparison.
+ * </p>
+ *
+ * @author Elijah Paulman
+ *
+ */
+public final class CollatedOrder implements Comparator<String>, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The locale terms are collated for.
+     */
+    private final Locale locale;
+
+    /**
+     * The collator strength (one of the {@link Collator} strength constants).
+     */
+    private final int strength;
+
+    /**
+     * Collator used by {@link #compare}; not serialized, since collators are
+     * not serializable.
+     */
+    private transient Collator collator;
+
+    /**
+     * A term and its collation key.
+     */
+    private static final class Keyed {
+
+        /**
+         * The term.
+         */
+        private final String term;
+
+        /**
+         * Bytes of the term's collation key.
+         */
+        private final byte[] key;
+
+        /**
+         * Pairs a term with its key.
+         *
+         * @param term
+         *            the term
+         * @param key
+         *            bytes of its collation key
+         */
+        Keyed(String term, byte[] key) {
+            this.term = term;
+            this.key = key;
+        }
+    }
+
+    /**
+     * Creates the order of {@code locale} at {@code strength}.
+     *
+     * @param locale
+     *            the locale terms are collated for
+     * @param strength
+     *            one of {@code Collator.PRIMARY}, {@code SECONDARY},
+     *            {@code TERTIARY} or {@code IDENTICAL}
+     */
+    public CollatedOrder(Locale locale, int strength) {
+        this.locale = locale;
+        this.strength = strength;
+    }
+
+    /**
+     * Returns a new collator for this order. Collators are not safe to share
+     * between threads while computing keys, so each thread uses its own.
+     *
+     * @return the collator
+     */
+    private Collator newCollator() {
+        Collator c = Collator.getInstance(this.locale);
+        c.setStrength(this.strength);
+        return c;
+    }
+
+    /**
+     * Returns a name identifying this order, such as {@code "de-DE/2"} (the
+     * locale's language tag and the strength).
+     *
+     * @return the name of the order
+     */
+    public String name() {
+        return this.locale.toLanguageTag() + "/" + this.strength;
+    }
+
+    @Override
+    public synchronized int compare(String str1, String str2) {
+        if (this.collator == null) {
+            this.collator = this.newCollator();
+        }
+        int result = this.collator.compare(str1, str2);
+        return result != 0 ? result : str1.compareTo(str2);
+    }
+
+    /**
+     * Sorts {@code terms} in this order, computing collation keys and sorting
+     * on {@code parallelism} threads.
+     *
+     * @param terms
+     *            the terms
+     * @param parallelism
+     *            number of threads computing keys and sorting
+     * @updates terms
+     * @requires parallelism >= 1
+     * @ensures terms = [#terms sorted by this order]
+     */
+    public void sort(Queue<String> terms, int parallelism) {
+        assert parallelism >= 1 : "Violation of: parallelism >= 1";
+
+        String[] items = new String[terms.length()];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = terms.dequeue();
+        }
+        for (String term : this.sort(items, parallelism)) {
+            terms.enqueue(term);
+        }
+    }
+
+    /**
+     * Returns {@code terms} sorted in this order, computing collation keys and
+     * sorting on {@code parallelism} threads.
+     *
+     * @param terms
+     *            the terms
+     * @param parallelism
+     *            number of threads computing keys and sorting
+     * @return a sorted copy of terms
+     * @requires parallelism >= 1
+     */
+    public String[] sort(String[] terms, int parallelism) {
+        assert parallelism >= 1 : "Violation of: parallelism >= 1";
+
+        Keyed[] keyed = new Keyed[terms.length];
+        Comparator<Keyed> byKey = (a, b) -> {
+            int result = compareUnsigned(a.key, b.key);
+            return result != 0 ? result : a.term.compareTo(b.term);
+        };
+        if (parallelism == 1) {
+            Collator c = this.newCollator();
+            for (int i = 0; i < terms.length; i++) {
+                keyed[i] = new Keyed(terms[i],
+                        c.getCollationKey(terms[i]).toByteArray());
+            }
+            Arrays.sort(keyed, byKey);
+        } else {
+            // Each worker thread computes keys with its own collator
+            ThreadLocal<Collator> collators = ThreadLocal
+                    .withInitial(this::newCollator);
+            ForkJoinPool pool = RunStats.newPool(parallelism);
+            try {
+                pool.submit(() -> {
+                    IntStream.range(0, terms.length).parallel()
+                            .forEach(i -> keyed[i] = new Keyed(terms[i],
+                                    collators.get().getCollationKey(terms[i])
+                                            .toByteArray()));
+                    // Runs the parallel sort's tasks in this pool too
+                    Arrays.parallelSort(keyed, byKey);
+                }).join();
+            } finally {
+                pool.shutdown();
+            }
+        }
+
+        String[] sorted = new String[keyed.length];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = keyed[i].term;
+        }
+        return sorted;
+    }
+
+    /**
+     * Compares two byte arrays lexicographically as unsigned bytes.
+     *
+     * @param a
+     *            the first array
+     * @param b
+     *            the second array
+     * @return negative, zero, or positive as a is before, equal to, or after b
+     */
+    private static int compareUnsigned(byte[] a, byte[] b) {
+        int limit = Math.min(a.length, b.length);
+        for (int i = 0; i < limit; i++) {
+            int difference = (a[i] & 0xff) - (b[i] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    /**
+     * Parses a strength name: primary, secondary, tertiary or identical.
+     *
+     * @param name
+     *            the strength name, in any case
+     * @return the matching {@link Collator} strength
+     * @throws IllegalArgumentException
+     *             if name is not a strength
+     */
+    public static int strength(String name) {
+        switch (name.toLowerCase(Locale.ROOT)) {
+            case "primary":
+                return Collator.PRIMARY;
+            case "secondary":
+                return Collator.SECONDARY;
+            case "tertiary":
+                return Collator.TERTIARY;
+            case "identical":
+                return Collator.IDENTICAL;
+            default:
+                throw new IllegalArgumentException("Unknown strength \"" + name
+                        + "\", expected primary, secondary, tertiary or identical");
+        }
+    }
+}
@@ -0,0 +1,530 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts the entries of a glossary by term without holding them all in memory.
+ * Entries are collected until their estimated size reaches a memory budget,
+ * then sorted and written to a temporary file as a run. The sorted entries are
+ * read back with a k-way merge of the runs. At most {@value #MAX_FAN_IN} runs
+ * are open at once: beyond that, consecutive groups of runs are first merged
+ * into longer runs, as many passes as it takes. The file buffers are sized
+ * from the budget, so merging stays within it too. The sort is stable:
+ * entries with equal terms come out in the order they were added.
+ *
+ * @author Elijah Paulman
+ *
+ */
+public final class ExternalTermSort implements AutoCloseable {
+
+    /**
+     * Estimated bytes an entry costs in memory beyond its characters.
+     */
+    private static final int ENTRY_OVERHEAD = 96;
+
+    /**
+     * Largest size of the buffer of each run file.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Smallest size of the buffer of each run file.
+     */
+    private static final int MIN_BUFFER_SIZE = 512;
+
+    /**
+     * Most runs merged at once.
+     */
+    private static final int MAX_FAN_IN = 64;
+
+    /**
+     * One entry: a term and its definition.
+     */
+    private static final class Entry {
+
+        /**
+         * The term.
+         */
+        private final String term;
+
+        /**
+         * Its definition.
+         */
+        private final String definition;
+
+        /**
+         * Creates an entry.
+         *
+         * @param term
+         *            the term
+         * @param definition
+         *            its definition
+         */
+        Entry(String term, String definition) {
+            this.term = term;
+            this.definition = definition;
+        }
+    }
+
+    /**
+     * The order of the terms.
+     */
+    private final Comparator<String> order;
+
+    /**
+     * Estimated memory the collected entries may use before they are
+     * written out as a run.
+     */
+    private final long memoryBudget;
+
+    /**
+     * Size of the buffer of each run file: a merge reads
+     * {@value #MAX_FAN_IN} runs and writes one within the budget.
+     */
+    private final int bufferSize;
+
+    /**
+     * Entries not written to a run yet.
+     */
+    private final List<Entry> buffer = new ArrayList<>();
+
+    /**
+     * Estimated memory used by the entries in {@link #buffer}.
+     */
+    private long buffered = 0;
+
+    /**
+     * The run files, in the order they were written.
+     */
+    private final List<Path> runs = new ArrayList<>();
+
+    /**
+     * Number of entries added.
+     */
+    private int size = 0;
+
+    /**
+     * Whether {@link #merge()} has been called.
+     */
+    private boolean merging = false;
+
+    /**
+     * Creates an empty sort.
+     *
+     * @param order
+     *            the order of the terms
+     * @param memoryBudget
+     *            estimated bytes of entries held in memory at once
+     * @requires memoryBudget > 0
+     */
+    public ExternalTermSort(Comparator<String> order, long memoryBudget) {
+        assert memoryBudget > 0 : "Violation of: memoryBudget > 0";
+
+        this.order = order;
+        this.memoryBudget = memoryBudget;
+        this.bufferSize = (int) Math.max(MIN_BUFFER_SIZE,
+                Math.min(BUFFER_SIZE, memoryBudget / (MAX_FAN_IN + 1)));
+    }
+
+    /**
+     * Adds the entry of {@code term}.
+     *
+     * @param term
+     *            the term
+     * @param definition
+     *            its definition
+     * @requires merge() has not been called
+     */
+    public void add(String term, String definition) {
+        assert !this.merging : "Violation of: merge() has not been called";
+
+        this.buffer.add(new Entry(term, definition));
+        this.buffered += 2L * (term.length() + definition.length())
+                + ENTRY_OVERHEAD;
+        this.size++;
+        if (this.buffered >= this.memoryBudget) {
+            this.spill();
+        }
+    }
+
+    /**
+     * Returns the number of entries added.
+     *
+     * @return the number of entries
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns the number of runs written to disk so far.
+     *
+     * @return the number of runs
+     */
+    public int runCount() {
+        return this.runs.size();
+    }
+
+    /**
+     * Sorts the buffered entries and writes them to a new run file.
+     */
+    private void spill() {
+        this.buffer.sort((a, b) -> this.order.compare(a.term, b.term));
+        Path run = newRun();
+        this.runs.add(run);
+        try (DataOutputStream data = this.openRun(run)) {
+            for (Entry entry : this.buffer) {
+                writeString(data, entry.term);
+                writeString(data, entry.definition);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write " + run, e);
+        }
+        this.buffer.clear();
+        this.buffered = 0;
+    }
+
+    /**
+     * Creates an empty run file.
+     *
+     * @return the run file
+     */
+    private static Path newRun() {
+        try {
+            return Files.createTempFile("glossary-run", ".bin");
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create a sort run", e);
+        }
+    }
+
+    /**
+     * Opens {@code run} for writing.
+     *
+     * @param run
+     *            the run file
+     * @return the output
+     * @throws IOException
+     *             if the run cannot be opened
+     */
+    private DataOutputStream openRun(Path run) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(run), this.bufferSize));
+    }
+
+    /**
+     * Merges consecutive groups of at most {@value #MAX_FAN_IN} runs into
+     * single runs, pass after pass, until no more than
+     * {@value #MAX_FAN_IN} runs are left. Groups keep the order of the runs,
+     * so the sort stays stable.
+     */
+    private void reduceRuns() {
+        while (this.runs.size() > MAX_FAN_IN) {
+            List<Path> merged = new ArrayList<>();
+            int from = 0;
+            try {
+                while (from < this.runs.size()) {
+                    int to = Math.min(from + MAX_FAN_IN, this.runs.size());
+                    List<Path> group = this.runs.subList(from, to);
+                    if (group.size() == 1) {
+                        merged.add(group.get(0));
+                    } else {
+                        Path run = newRun();
+                        merged.add(run);
+                        this.mergeInto(group, run);
+                    }
+                    from = to;
+                }
+            } finally {
+                // Runs not merged yet are kept, so close() deletes them all
+                merged.addAll(this.runs.subList(from, this.runs.size()));
+                this.runs.clear();
+                this.runs.addAll(merged);
+            }
+        }
+    }
+
+    /**
+     * Merges {@code group} into {@code run}, then deletes the runs of group.
+     *
+     * @param group
+     *            the runs, in the order they were written
+     * @param run
+     *            the new run file
+     */
+    private void mergeInto(List<Path> group, Path run) {
+        try (Merge merge = new Merge(group);
+                DataOutputStream data = this.openRun(run)) {
+            while (merge.next()) {
+                writeString(data, merge.term());
+                writeString(data, merge.definition());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write " + run, e);
+        }
+        for (Path done : group) {
+            try {
+                Files.deleteIfExists(done);
+            } catch (IOException e) {
+                // A leftover temporary file is harmless
+                done.toFile().deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * Writes {@code text} as its UTF-8 length and bytes.
+     *
+     * @param data
+     *            where to write
+     * @param text
+     *            the text
+     * @throws IOException
+     *             if writing fails
+     */
+    private static void writeString(DataOutputStream data, String text)
+            throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        data.writeInt(bytes.length);
+        data.write(bytes);
+    }
+
+    /**
+     * Reads a string written by {@link #writeString}.
+     *
+     * @param data
+     *            where to read
+     * @return the text
+     * @throws IOException
+     *             if reading fails
+     */
+    private static String readString(DataInputStream data) throws IOException {
+        byte[] bytes = new byte[data.readInt()];
+        data.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns a cursor over all entries in sorted order. No entries can be
+     * added afterwards.
+     *
+     * @return the sorted entries
+     * @requires merge() has not been called
+     */
+    public Merge merge() {
+        assert !this.merging : "Violation of: merge() has not been called";
+
+        this.merging = true;
+        if (!this.runs.isEmpty() && !this.buffer.isEmpty()) {
+            // The last entries become a run too, so every source is a file
+            this.spill();
+        } else {
+            this.buffer.sort((a, b) -> this.order.compare(a.term, b.term));
+        }
+        this.reduceRuns();
+        return new Merge(this.runs);
+    }
+
+    /**
+     * Deletes the run files.
+     */
+    @Override
+    public void close() {
+        for (Path run : this.runs) {
+            try {
+                Files.deleteIfExists(run);
+            } catch (IOException e) {
+                // A leftover temporary file is harmless
+                run.toFile().deleteOnExit();
+            }
+        }
+        this.runs.clear();
+        this.buffer.clear();
+    }
+
+    /**
+     * Cursor over the sorted entries, merging the runs as it goes.
+     */
+    public final class Merge implements AutoCloseable {
+
+        /**
+         * One open run and its current entry.
+         */
+        private final class Head {
+
+            /**
+             * The open run.
+             */
+            private final DataInputStream data;
+
+            /**
+             * Position of the run, which breaks ties between runs.
+             */
+            private final int run;
+
+            /**
+             * The current entry of the run.
+             */
+            private Entry entry;
+
+            /**
+             * Opens run {@code run}.
+             *
+             * @param run
+             *            position of the run
+             * @throws IOException
+             *             if the run cannot be opened
+             */
+            Head(int run) throws IOException {
+                this.run = run;
+                this.data = new DataInputStream(new BufferedInputStream(
+                        Files.newInputStream(Merge.this.sources.get(run)),
+                        ExternalTermSort.this.bufferSize));
+            }
+
+            /**
+             * Reads the next entry of the run.
+             *
+             * @return whether there was one
+             * @throws IOException
+             *             if reading fails
+             */
+            boolean advance() throws IOException {
+                String term;
+                try {
+                    term = readString(this.data);
+                } catch (EOFException e) {
+                    this.data.close();
+                    return false;
+                }
+                this.entry = new Entry(term, readString(this.data));
+                return true;
+            }
+        }
+
+        /**
+         * The runs merged, or none to read the in-memory buffer.
+         */
+        private final List<Path> sources;
+
+        /**
+         * Runs that still have entries, by their current entry.
+         */
+        private final PriorityQueue<Head> heads;
+
+        /**
+         * Position of the next entry in the in-memory buffer, when there are
+         * no runs.
+         */
+        private int position = 0;
+
+        /**
+         * The current entry, or null before the first call to next().
+         */
+        private Entry current = null;
+
+        /**
+         * Opens every run of {@code sources}.
+         *
+         * @param sources
+         *            the runs, in the order they were written
+         */
+        Merge(List<Path> sources) {
+            this.sources = sources;
+            Comparator<String> order = ExternalTermSort.this.order;
+            this.heads = new PriorityQueue<>(Math.max(1, sources.size()),
+                    (a, b) -> {
+                        int result = order.compare(a.entry.term,
+                                b.entry.term);
+                        return result != 0 ? result
+                                : Integer.compare(a.run, b.run);
+                    });
+            try {
+                for (int i = 0; i < sources.size(); i++) {
+                    Head head = new Head(i);
+                    if (head.advance()) {
+                        this.heads.add(head);
+                    }
+                }
+            } catch (IOException e) {
+                this.close();
+                throw new UncheckedIOException("Could not open sort runs", e);
+            }
+        }
+
+        /**
+         * Moves to the next entry in sorted order.
+         *
+         * @return whether there was one
+         */
+        public boolean next() {
+            List<Entry> memory = ExternalTermSort.this.buffer;
+            if (this.sources.isEmpty()) {
+                if (this.position == memory.size()) {
+                    return false;
+                }
+                this.current = memory.get(this.position);
+                this.position++;
+                return true;
+            }
+            Head head = this.heads.poll();
+            if (head == null) {
+                return false;
+            }
+            this.current = head.entry;
+            try {
+                if (head.advance()) {
+                    this.heads.add(head);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not read a sort run", e);
+            }
+            return true;
+        }
+
+        /**
+         * Returns the term of the current entry.
+         *
+         * @return the term
+         * @requires next() returned true
+         */
+        public String term() {
+            return this.current.term;
+        }
+
+        /**
+         * Returns the definition of the current entry.
+         *
+         * @return the definition
+         * @requires next() returned true
+         */
+        public String definition() {
+            return this.current.definition;
+        }
+
+        /**
+         * Closes the runs that are still open.
+         */
+        @Override
+        public void close() {
+            for (Head head : this.heads) {
+                try {
+                    head.data.close();
+                } catch (IOException e) {
+                    // Nothing more is read from it
+                }
+            }
+            this.heads.clear();
+        }
+    }
+}
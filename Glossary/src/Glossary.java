@@ -1,12 +1,15 @@
+import java.io.IOException;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
 import java.util.Comparator;
+import java.util.List;
+import java.util.function.IntFunction;
 
 import components.map.Map;
 import components.map.Map1L;
 import components.queue.Queue;
 import components.queue.Queue1L;
 import components.set.Set;
-import components.set.Set1L;
 import components.simplereader.SimpleReader;
 import components.simplereader.SimpleReader1L;
 import components.simplewriter.SimpleWriter;
@@ -84,6 +87,7 @@ public final class Glossary {
      *    entries(text[position, position + |nextWordOrSeparator| + 1))
      *      is not subset of separators)
      * </pre>
+     * @see WordTokenizer#tokenEnd(CharSequence, int)
      */
     public static String nextWordOrSeparator(String text, int position,
             Set<Character> separators) {
@@ -92,40 +96,12 @@ public final class Glossary {
         assert 0 <= position : "Violation of: 0 <= position";
         assert position < text.length() : "Violation of: position < |text|";
 
-        // Initializes count, returnedCh and returnedStr (empty string for now)
-        int count = 0;
-        char returnedCh = 'a';
-        String returnedStr = "";
-
-        // If the character at the given position is a separator
-        if (separators.contains(text.charAt(position))) {
-            /*
-             * Iterates through the characters in the text string, starting from
-             * the given position, until a non-separator character is found
-             */
-            while (position + count < text.length()
-                    && separators.contains(text.charAt(position + count))) {
-                // Sets returnedCh to the current character and appends it to returnedStr
-                returnedCh = text.charAt(position + count);
-                returnedStr += returnedCh;
-                count++;
-            }
-        } else {
-            /*
-             * If the character at the given position is not a separator,
-             * iterates through the characters in the text string starting from
-             * the given position, until a separator character is found
-             */
-            while (position + count < text.length()
-                    && !separators.contains(text.charAt(position + count))) {
-                // Sets returnedCh to the current character and appends it to returnedStr
-                returnedCh = text.charAt(position + count);
-                returnedStr += returnedCh;
-                count++;
-            }
-        }
-        // Returns accumulated characters as a string
-        return returnedStr;
+        // Finds the end of the token without building it character by
+        // character, with the tokenizer of the last call if it still fits
+        WordTokenizer tokenizer = WordTokenizer.of(separators);
+        int end = tokenizer.tokenEnd(text, position);
+        // Returns the token as a string
+        return text.substring(position, end);
     }
 
     /**
@@ -175,7 +151,8 @@ public final class Glossary {
 
     /**
      * Updates the definitions of terms in a given map with links to other
-     * terms, if applicable.
+     * terms, if applicable. Terms made of several words are linked as well,
+     * and where two terms overlap the longest one starting first is linked.
      *
      * @param definitionMap
      *            the map containing the terms and their definitions
@@ -186,57 +163,81 @@ public final class Glossary {
      */
     public static void updateDefinitions(Map<String, String> definitionMap,
             Queue<String> terms, String out) {
+        updateDefinitions(definitionMap, terms, out, null);
+    }
 
-        // Makes temporary queue
-        Queue<String> temp = new Queue1L<>();
-
-        // Creates set of all possible separators
-        Set<Character> separators = new Set1L<>();
-        separators.add(' ');
-        separators.add('!');
-        separators.add('\'');
-        separators.add('.');
-        separators.add(',');
-        separators.add('/');
-        separators.add(':');
-        separators.add(';');
-        separators.add('?');
-
-        // For all terms starting at position 0
-        int position = 0;
-        while (terms.length() > 0) {
-            // Gets first term from terms queue
-            String term = terms.dequeue();
-            // Adds removed term to temporary queue
-            temp.enqueue(term);
-            // Gets definition from map
-            String definition = definitionMap.value(term);
-            // Initializes final definition as blank string
-            String fullDefinition = " ";
-            //the position can not be larger than the string
-            while (position < definition.length()) {
-                // Gets current word
-                String word = nextWordOrSeparator(definition, position,
-                        separators);
-                // If the word is another term
-                if (definitionMap.hasKey(word)) {
-                    // Word is linked in definition
-                    fullDefinition += "<a href=\"" + word + ".html\">" + word
-                            + "</a>";
-                    // If word is not another term, add word to definition as regular text
-                } else {
-                    fullDefinition += word;
-                }
-                // Moves to position after word
-                position = position + word.length();
+    /**
+     * Same as {@link #updateDefinitions(Map, Queue, String)}, but also records
+     * every link created into {@code backlinks}, in the same pass.
+     *
+     * @param definitionMap
+     *            the map containing the terms and their definitions
+     * @param terms
+     *            the queue of terms to be checked and updated
+     * @param out
+     *            the output file to write to (not used in this method)
+     * @param backlinks
+     *            a new index receiving the links, or null to record none
+     * @ensures backlinks (if not null) lists, for every term, the terms
+     *          whose linked definitions link to it
+     */
+    public static void updateDefinitions(Map<String, String> definitionMap,
+            Queue<String> terms, String out, BacklinkIndex backlinks) {
+        updateDefinitions(definitionMap, terms, out, backlinks, 1);
+    }
+
+    /**
+     * Same as {@link #updateDefinitions(Map, Queue, String, BacklinkIndex)},
+     * but links the definitions on {@code parallelism} threads when no links
+     * are recorded.
+     *
+     * @param definitionMap
+     *            the map containing the terms and their definitions
+     * @param terms
+     *            the queue of terms to be checked and updated
+     * @param out
+     *            the output file to write to (not used in this method)
+     * @param backlinks
+     *            a new index receiving the links, or null to record none
+     * @param parallelism
+     *            number of threads linking definitions (1 means sequential)
+     * @requires parallelism >= 1
+     * @ensures backlinks (if not null) lists, for every term, the terms
+     *          whose linked definitions link to it
+     */
+    public static void updateDefinitions(Map<String, String> definitionMap,
+            Queue<String> terms, String out, BacklinkIndex backlinks,
+            int parallelism) {
+        assert parallelism >= 1 : "Violation of: parallelism >= 1";
+
+        // Snapshots the terms once instead of rotating the queue
+        GlossaryModel model = GlossaryModel.of(definitionMap, terms);
+
+        // Collects every term that can be linked to
+        Queue<String> linkable = new Queue1L<>();
+        for (Map.Pair<String, String> pair : definitionMap) {
+            linkable.enqueue(pair.key());
+        }
+        // Builds the linking automaton once over all terms
+        TermLinker linker = new TermLinker(linkable,
+                WordTokenizer.GLOSSARY);
+
+        if (backlinks == null) {
+            // Links every definition in a single scan, each into its own slot
+            model.link(linker, parallelism).copyDefinitionsTo(definitionMap);
+        } else {
+            backlinks.start(linker);
+            for (int i = 0; i < model.size(); i++) {
+                String term = model.term(i);
+                String definition = model.definition(i);
+                // Reports the target of every link as it is created
+                StringBuilder linked = new StringBuilder(
+                        definition.length() + 16);
+                linker.link(definition, linked, backlinks.linksFrom(term));
+                definitionMap.replaceValue(term, linked.toString());
             }
-            // Updates definition with link to another term if applicable
-            definitionMap.replaceValue(term, fullDefinition.substring(1));
-            // Reset position
-            position = 0;
+            backlinks.finish();
         }
-        // Restores terms from temp queue
-        terms.transferFrom(temp);
     }
 
     /**
@@ -257,49 +258,186 @@ public final class Glossary {
      */
     public static void addLinks(Map<String, String> definitionMap,
             Queue<String> terms, String out) {
-        // Makes temporary queue
-        Queue<String> temp = new Queue1L<>();
-
-        // For each item in the queue
-        while (terms.length() > 0) {
-            // Gets term from terms queue
-            String term = terms.dequeue();
-            // Gets corresponding definition from map
-            String definition = definitionMap.value(term);
-            // Adds term to temp queue
-            temp.enqueue(term);
-
-            // New writer to output html elements
-            SimpleWriter linkOut = new SimpleWriter1L(
-                    out + "/" + term + ".html");
-            // Creates html page for each term
-            linkOut.println("<html>");
-            linkOut.println("<head>");
-            // Term is title
-            linkOut.println("<title>" + term + "</title>");
-            linkOut.println("</head>");
-            linkOut.println("<body>");
-            // Adds formatting to term
-            linkOut.print("<h2><b><i><font color = \"red\">");
-            linkOut.print(term);
-            linkOut.println("</font></i></b></h2>");
-            linkOut.print("<blockquote>");
-            // Prints definition to corresponding term
-            linkOut.print(definition);
-            linkOut.println("</blockquote>");
-            // Adds horizontal line
-            linkOut.println("<hr />");
-            // Adds option to return to index home page
-            linkOut.println(
-                    "<p>Return to <a href=\"index.html\">index</a></p>");
-            linkOut.println("</body>");
-            linkOut.println("</html>");
-
-            // Closes SimpleWriter
-            linkOut.close();
+        // Snapshots the terms once instead of rotating the queue
+        GlossaryModel model = GlossaryModel.of(definitionMap, terms);
+
+        // For each term, in order
+        for (int i = 0; i < model.size(); i++) {
+            String term = model.term(i);
+            String definition = model.definition(i);
+
+            // Creates html page for each term, laid out as the parallel
+            // version does
+            PageTemplates.DEFAULT.writeTermPage(out, term, definition);
+        }
+    }
+
+    /**
+     * Same as {@link #addLinks(Map, Queue, String)}, but renders and writes the
+     * term pages on {@code parallelism} threads. The files written are
+     * byte-for-byte the same as with the sequential version.
+     *
+     * @param definitionMap
+     *            map of <term, definition> as strings
+     * @param terms
+     *            queue of all terms
+     * @param out
+     *            output directory where html files will be saved
+     * @param parallelism
+     *            number of threads writing pages (1 means sequential)
+     * @requires definitionMap and terms are not empty, out is a valid
+     *           directory, parallelism >= 1
+     * @ensures an html file is created for each term in definitionMap with
+     *          linkOuts to the index file
+     */
+    public static void addLinks(Map<String, String> definitionMap,
+            Queue<String> terms, String out, int parallelism) {
+        assert parallelism >= 1 : "Violation of: parallelism >= 1";
+
+        if (parallelism == 1) {
+            addLinks(definitionMap, terms, out);
+        } else {
+            addLinks(definitionMap, terms, out, parallelism,
+                    PageTemplates.DEFAULT);
         }
-        // Restores terms from temp
-        terms.transferFrom(temp);
+    }
+
+    /**
+     * Same as {@link #addLinks(Map, Queue, String, int)}, but lays the pages
+     * out with {@code templates} and writes each one with a single gathering
+     * write of pre-encoded fragments.
+     *
+     * @param definitionMap
+     *            map of <term, definition> as strings
+     * @param terms
+     *            queue of all terms
+     * @param out
+     *            output directory where html files will be saved
+     * @param parallelism
+     *            number of threads writing pages
+     * @param templates
+     *            the page layouts
+     * @requires definitionMap and terms are not empty, out is a valid
+     *           directory, parallelism >= 1
+     * @ensures an html file is created for each term in definitionMap
+     */
+    public static void addLinks(Map<String, String> definitionMap,
+            Queue<String> terms, String out, int parallelism,
+            PageTemplates templates) {
+        addLinks(definitionMap, terms, out, parallelism, templates, null);
+    }
+
+    /**
+     * Same as {@link #addLinks(Map, Queue, String, int, PageTemplates)}, but
+     * each term page links back to the page of {@code index} that lists it.
+     *
+     * @param definitionMap
+     *            map of <term, definition> as strings
+     * @param terms
+     *            queue of all terms
+     * @param out
+     *            output directory where html files will be saved
+     * @param parallelism
+     *            number of threads writing pages
+     * @param templates
+     *            the page layouts
+     * @param index
+     *            the sharded index the pages link back to, or null to link
+     *            back to index.html
+     * @requires definitionMap and terms are not empty, out is a valid
+     *           directory, parallelism >= 1, index (if not null) lists every
+     *           term
+     * @ensures an html file is created for each term in definitionMap
+     */
+    public static void addLinks(Map<String, String> definitionMap,
+            Queue<String> terms, String out, int parallelism,
+            PageTemplates templates, ShardedIndex index) {
+        addLinks(definitionMap, terms, out, parallelism, templates, index,
+                null);
+    }
+
+    /**
+     * Same as
+     * {@link #addLinks(Map, Queue, String, int, PageTemplates, ShardedIndex)},
+     * but each term page also lists the terms that link to it.
+     *
+     * @param definitionMap
+     *            map of <term, definition> as strings
+     * @param terms
+     *            queue of all terms
+     * @param out
+     *            output directory where html files will be saved
+     * @param parallelism
+     *            number of threads writing pages
+     * @param templates
+     *            the page layouts
+     * @param index
+     *            the sharded index the pages link back to, or null to link
+     *            back to index.html
+     * @param backlinks
+     *            the links recorded by
+     *            {@link #updateDefinitions(Map, Queue, String, BacklinkIndex)},
+     *            or null for no "Referenced by" sections
+     * @requires definitionMap and terms are not empty, out is a valid
+     *           directory, parallelism >= 1, index (if not null) lists every
+     *           term
+     * @ensures an html file is created for each term in definitionMap
+     */
+    public static void addLinks(Map<String, String> definitionMap,
+            Queue<String> terms, String out, int parallelism,
+            PageTemplates templates, ShardedIndex index,
+            BacklinkIndex backlinks) {
+        // Worker threads never touch the map or queue
+        addLinks(GlossaryModel.of(definitionMap, terms), out, parallelism,
+                templates, index, backlinks);
+    }
+
+    /**
+     * Same as
+     * {@link #addLinks(Map, Queue, String, int, PageTemplates, ShardedIndex, BacklinkIndex)},
+     * for the terms and definitions of {@code model}.
+     *
+     * @param model
+     *            the glossary
+     * @param out
+     *            output directory where html files will be saved
+     * @param parallelism
+     *            number of threads writing pages
+     * @param templates
+     *            the page layouts
+     * @param index
+     *            the sharded index the pages link back to, or null to link
+     *            back to index.html
+     * @param backlinks
+     *            the links recorded by
+     *            {@link #updateDefinitions(Map, Queue, String, BacklinkIndex)},
+     *            or null for no "Referenced by" sections
+     * @requires model is not empty, out is a valid directory, parallelism >=
+     *           1, index (if not null) lists every term
+     * @ensures an html file is created for each term of model
+     */
+    public static void addLinks(GlossaryModel model, String out,
+            int parallelism, PageTemplates templates, ShardedIndex index,
+            BacklinkIndex backlinks) {
+        assert parallelism >= 1 : "Violation of: parallelism >= 1";
+
+        // A duplicate would race on the same file
+        GlossaryModel pages = model.distinct();
+        // The index order may not be safe to use from several threads
+        String[] indexPages = new String[pages.size()];
+        for (int i = 0; i < indexPages.length; i++) {
+            indexPages[i] = index == null ? PageTemplates.INDEX_PAGE
+                    : index.pageOf(pages.term(i));
+        }
+        IntFunction<String> referrers;
+        if (backlinks == null) {
+            referrers = i -> "";
+        } else {
+            referrers = i -> backlinks.section(pages.term(i));
+        }
+        ParallelPageWriter.writeAll(pages.size(), pages::term,
+                pages::definition, i -> indexPages[i], referrers, out,
+                parallelism, templates);
     }
 
     /**
@@ -320,6 +458,22 @@ public final class Glossary {
      */
     public static void createIndex(Queue<String> terms, String output,
             SimpleWriter out) {
+        createIndex((Iterable<String>) terms, out);
+    }
+
+    /**
+     * Creates an index for the glossary, the same as
+     * {@link #createIndex(Queue, String, SimpleWriter)}, from any sequence of
+     * terms (for example one that is not held in memory all at once).
+     *
+     * @param terms
+     *            the terms to be included in the index, in index order
+     * @param out
+     *            a SimpleWriter object used to write the HTML file
+     * @requires terms is not null and out is not null
+     * @modifies out
+     */
+    public static void createIndex(Iterable<String> terms, SimpleWriter out) {
         // Prints html elements for index page
         out.println("<html>");
         out.println("<head>");
@@ -333,8 +487,8 @@ public final class Glossary {
         out.println("<ul>");
         // For all terms, creates a clickable linkOut with term as text
         for (String term : terms) {
-            out.println(
-                    "<li><a href=\"" + term + ".html\">" + term + "</a></li>");
+            out.println("<li><a href=\"" + HtmlEscaper.pageUrl(term)
+                    + ".html\">" + HtmlEscaper.text(term) + "</a></li>");
         }
         // Closes html elements
         out.println("</ul>");
@@ -348,9 +502,12 @@ public final class Glossary {
      * file, extracts the terms and their definitions, and creates an HTML file
      * with an index of all terms and definitions sorted alphabetically. It also
      * adds links to each term that point to their individual definition pages.
+     * With {@code --batch=FILE}, builds every glossary the manifest lists
+     * instead of prompting, and exits with status 1 if any of them failed;
+     * with {@code --federate} as well, the glossaries link to each other.
      *
      * @param args
-     *            the command line arguments
+     *            the command line arguments, see {@link GlossaryOptions}
      *
      * @requires args is not null
      *
@@ -359,9 +516,29 @@ public final class Glossary {
      *           definitions sorted alphabetically
      */
     public static void main(String[] args) {
-        SimpleReader in = new SimpleReader1L();
+        GlossaryOptions options = GlossaryOptions.parse(args);
         SimpleWriter out = new SimpleWriter1L();
 
+        if (options.batch() != null) {
+            // Builds every glossary of the manifest without prompting
+            List<GlossaryBatch.Job> jobs = GlossaryBatch
+                    .readManifest(options.batch());
+            GlossaryFederation federation = null;
+            if (options.federate()) {
+                federation = GlossaryFederation.load(jobs,
+                        options.parallelism());
+            }
+            int failed = GlossaryBatch.run(jobs, options.parallelism(),
+                    options, out, federation);
+            out.close();
+            if (failed > 0) {
+                System.exit(1);
+            }
+            return;
+        }
+
+        SimpleReader in = new SimpleReader1L();
+
         // Prompts user for input file
         out.print("Enter input file (.txt): ");
         String input = in.nextLine();
@@ -369,36 +546,226 @@ public final class Glossary {
         out.print("Enter folder name for save: ");
         String output = in.nextLine();
 
-        // Makes new reader and writer for input and output files
-        SimpleReader fileIn = new SimpleReader1L(input);
-        SimpleWriter fileOut = new SimpleWriter1L(output + "/index.html");
+        // Times each phase of the run
+        RunStats stats = new RunStats();
+        RunStats.Phase phase;
+
+        if (options.arena()) {
+            // Runs every phase on the compact store
+            phase = stats.begin("parse");
+            GlossaryArena arena = GlossaryArena.read(input, options.offHeap());
+            phase.end(arena.size());
+            phase = stats.begin("sort");
+            arena.sort();
+            phase.end(arena.size());
+            phase = stats.begin("link");
+            arena.link();
+            phase.end(arena.size());
+            phase = stats.begin("render");
+            arena.writePages(output, options.parallelism(),
+                    options.templates());
+            phase.end(arena.size());
+            phase = stats.begin("index");
+            arena.writeIndex(output, options.templates());
+            phase.end(arena.size());
+            if (options.statsFile() != null) {
+                stats.writeJson(options.statsFile(), arena.size(),
+                        options.parallelism());
+            }
+            in.close();
+            out.close();
+            return;
+        }
+
+        if (options.watch()) {
+            // Builds once, then rewrites only what each edit affects
+            GlossaryWatcher watcher = new GlossaryWatcher(input, output,
+                    options.parallelism(), options.templates());
+            out.println("Wrote " + watcher.update() + " pages, watching "
+                    + input + " for changes");
+            watcher.watch(out);
+            in.close();
+            out.close();
+            return;
+        }
 
         // Empty map for words and definitions both as strings
         Map<String, String> definitionMap = new Map1L<>();
         // Empty queue for terms
         Queue<String> terms = new Queue1L<>();
 
-        // Adds terms to terms queue made above and adds term and definitions to map
-        terms.append(getTermsAndDefs(definitionMap, fileIn));
+        // The order terms are sorted in
+        Comparator<String> alphabetical;
+        CollatedOrder collation = options.collation();
+        if (collation != null) {
+            alphabetical = collation;
+        } else {
+            // New comparator to sort alphabetically
+            alphabetical = new AlphabeticalSort();
+        }
 
-        // New comparator to sort alphabetically
-        Comparator<String> alphabetical = new AlphabeticalSort();
-        // Sorts terms queue alphabetically
-        terms.sort(alphabetical);
+        if (options.pipeline() > 0) {
+            // Streams the entries through bounded stages instead of phases
+            int written = GlossaryPipeline.build(input, output, alphabetical,
+                    options.parallelism(), options.pipeline(),
+                    options.templates(), options.shardSize(),
+                    options.search(), options.sortBudget(), stats);
+            if (options.statsFile() != null) {
+                stats.writeJson(options.statsFile(), written,
+                        options.parallelism());
+            }
+            in.close();
+            out.close();
+            return;
+        }
 
-        // Checks for definitions within a definition
-        updateDefinitions(definitionMap, terms, output);
+        // A snapshot of the same input replaces parsing, sorting and linking
+        GlossarySnapshot.Key snapshotKey = null;
+        GlossarySnapshot snapshot = null;
+        if (options.snapshot() != null) {
+            phase = stats.begin("snapshot");
+            snapshotKey = GlossarySnapshot.Key.of(input,
+                    collation == null ? "code-unit" : collation.name());
+            snapshot = GlossarySnapshot.load(options.snapshot(), snapshotKey);
+            if (snapshot != null) {
+                snapshot.fill(definitionMap, terms);
+            }
+            phase.end(terms.length());
+        }
+        boolean linked = snapshot != null;
+
+        if (!linked) {
+            // Adds terms to terms queue made above and adds term and definitions to map
+            phase = stats.begin("parse");
+            if (options.parallelism() > 1) {
+                // Large inputs are memory-mapped and parsed in parallel chunks
+                terms.append(MappedGlossaryParser.getTermsAndDefs(
+                        definitionMap, input, options.parallelism()));
+            } else {
+                SimpleReader fileIn = new SimpleReader1L(input);
+                terms.append(getTermsAndDefs(definitionMap, fileIn));
+                fileIn.close();
+            }
+            phase.end(terms.length());
+
+            phase = stats.begin("sort");
+            if (collation != null) {
+                // Sorts by collation keys computed once per term, in parallel
+                collation.sort(terms, options.parallelism());
+            } else {
+                // Sorts terms queue alphabetically
+                terms.sort(alphabetical);
+            }
+            phase.end(terms.length());
+        }
 
-        // Adds linkOuts to all terms
-        addLinks(definitionMap, terms, output);
+        // Links between terms, for the "Referenced by" sections
+        BacklinkIndex backlinks = null;
+        if (options.backlinks()) {
+            backlinks = new BacklinkIndex();
+        }
 
-        // Creates index
-        createIndex(terms, output, fileOut);
+        if (!linked && !options.incremental()) {
+            // Checks for definitions within a definition
+            phase = stats.begin("link");
+            updateDefinitions(definitionMap, terms, output, backlinks,
+                    options.parallelism());
+            phase.end(terms.length());
+
+            if (snapshotKey != null) {
+                // Saves the linked glossary for the next run
+                phase = stats.begin("save-snapshot");
+                GlossarySnapshot.save(options.snapshot(), snapshotKey,
+                        definitionMap, terms);
+                phase.end(terms.length());
+            }
+        }
+
+        if (options.servePort() >= 0) {
+            // Renders pages on request instead of writing them
+            ShardedIndex index = null;
+            if (options.shardSize() > 0) {
+                index = new ShardedIndex(terms, alphabetical,
+                        options.shardSize());
+            }
+            GlossaryServer server = new GlossaryServer(definitionMap, terms,
+                    index, options.templates(),
+                    GlossaryServer.DEFAULT_CACHE_BYTES);
+            try {
+                int port = server.start(options.servePort(),
+                        options.parallelism());
+                out.println("Serving at http://localhost:" + port + "/");
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not start server", e);
+            }
+            in.close();
+            out.close();
+            return;
+        }
+
+        if (options.incremental()) {
+            // Rewrites only the pages affected since the last build
+            phase = stats.begin("incremental");
+            int written = IncrementalBuild.build(definitionMap, terms, output,
+                    options.parallelism(), options.templates(),
+                    collation == null ? "code-unit" : collation.name());
+            phase.end(written);
+            out.println("Updated " + written + " of " + terms.length()
+                    + " pages");
+        } else if (options.archive() != null) {
+            // Packs every page into one archive instead of many files
+            ShardedIndex index = null;
+            if (options.shardSize() > 0) {
+                index = new ShardedIndex(terms, alphabetical,
+                        options.shardSize());
+            }
+            phase = stats.begin("archive");
+            SiteArchive.write(options.archive(), definitionMap, terms,
+                    index, options.parallelism(), options.templates());
+            phase.end(terms.length());
+        } else if (options.shardSize() > 0) {
+            // Splits the index into shards the term pages link back to
+            ShardedIndex index = new ShardedIndex(terms, alphabetical,
+                    options.shardSize());
+            phase = stats.begin("render");
+            addLinks(GlossaryModel.of(definitionMap, terms), output,
+                    options.parallelism(), options.templates(), index,
+                    backlinks);
+            phase.end(terms.length());
+            phase = stats.begin("index");
+            index.write(output, options.parallelism(),
+                    options.templates());
+            phase.end(terms.length());
+        } else {
+            // Every phase from here on reads the same snapshot
+            GlossaryModel model = GlossaryModel.of(definitionMap, terms);
+
+            // Adds linkOuts to all terms
+            phase = stats.begin("render");
+            addLinks(model, output, options.parallelism(),
+                    options.templates(), null, backlinks);
+            phase.end(model.size());
+
+            // Creates index
+            phase = stats.begin("index");
+            options.templates().writeIndex(output, model);
+            phase.end(model.size());
+        }
+
+        if (options.search()) {
+            // Lets browsers look terms up without loading the whole index
+            phase = stats.begin("search");
+            SearchIndex.write(output, terms);
+            phase.end(terms.length());
+        }
+
+        if (options.statsFile() != null) {
+            stats.writeJson(options.statsFile(), terms.length(),
+                    options.parallelism());
+        }
 
         // Close all open readers and writers
         in.close();
         out.close();
-        fileIn.close();
-        fileOut.close();
     }
 }
@@ -0,0 +1,656 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+
+/**
+ * Compact store for very large glossaries. Instead of one {@code String} per
+ * term and per definition, all terms and all definitions are packed as UTF-8
+ * into large byte pages (optionally allocated off-heap), and each entry is
+ * located through primitive offset and length arrays. Strings are only decoded
+ * for the entry being worked on.
+ *
+ * <p>
+ * Every phase of {@code Glossary.main} can run on the store: {@link #read}
+ * parses the input, {@link #sort} orders the terms, {@link #link} links the
+ * definitions, {@link #writePages} renders the term pages, and
+ * {@link #writeIndex} writes the index.
+ * </p>
+ *
+ * @author Elijah Paulman
+ *
+ */
+public final class GlossaryArena {
+
+    /**
+     * Size of the first arena page.
+     */
+    private static final int FIRST_PAGE_SIZE = 1 << 16;
+
+    /**
+     * Largest size of an arena page; pages double in size up to this.
+     */
+    private static final int PAGE_SIZE = 1 << 24;
+
+    /**
+     * Bits of a reference holding the offset within a page.
+     */
+    private static final int OFFSET_BITS = 32;
+
+    /**
+     * Initial capacity of the entry arrays.
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * Whether pages are allocated outside the Java heap.
+     */
+    private final boolean offHeap;
+
+    /**
+     * Arena holding the UTF-8 bytes of the terms.
+     */
+    private final Arena terms;
+
+    /**
+     * Arena holding the UTF-8 bytes of the definitions.
+     */
+    private Arena definitions;
+
+    /**
+     * Reference (page and offset) of each term, by input position.
+     */
+    private long[] termRef = new long[INITIAL_CAPACITY];
+
+    /**
+     * Byte length of each term, by input position.
+     */
+    private int[] termLength = new int[INITIAL_CAPACITY];
+
+    /**
+     * Reference of each definition, by input position.
+     */
+    private long[] definitionRef = new long[INITIAL_CAPACITY];
+
+    /**
+     * Byte length of each definition, by input position.
+     */
+    private int[] definitionLength = new int[INITIAL_CAPACITY];
+
+    /**
+     * Hash of the bytes of each term, by input position.
+     */
+    private int[] termHash = new int[INITIAL_CAPACITY];
+
+    /**
+     * Open-addressing table of input positions plus one, by term hash (0 for
+     * an empty slot), kept at most half full.
+     */
+    private int[] slots = new int[2 * INITIAL_CAPACITY];
+
+    /**
+     * Number of entries.
+     */
+    private int size;
+
+    /**
+     * Input positions of the entries in index order.
+     */
+    private int[] order = new int[0];
+
+    /**
+     * Creates an empty store.
+     *
+     * @param offHeap
+     *            whether to allocate the pages outside the Java heap
+     */
+    public GlossaryArena(boolean offHeap) {
+        this.offHeap = offHeap;
+        this.terms = new Arena(offHeap);
+        this.definitions = new Arena(offHeap);
+    }
+
+    /**
+     * Growable list of byte pages. Each string is stored within one page.
+     */
+    private static final class Arena {
+
+        /**
+         * Whether pages are allocated outside the Java heap.
+         */
+        private final boolean offHeap;
+
+        /**
+         * The pages.
+         */
+        private final List<ByteBuffer> pages = new ArrayList<>();
+
+        /**
+         * Page being filled, or null before the first string.
+         */
+        private ByteBuffer current;
+
+        /**
+         * Creates an empty arena.
+         *
+         * @param offHeap
+         *            whether to allocate the pages outside the Java heap
+         */
+        Arena(boolean offHeap) {
+            this.offHeap = offHeap;
+        }
+
+        /**
+         * Appends {@code bytes} and returns where they were stored.
+         *
+         * @param bytes
+         *            the bytes to store
+         * @return reference to the stored bytes
+         */
+        long append(byte[] bytes) {
+            if (this.current == null
+                    || this.current.remaining() < bytes.length) {
+                // Pages grow so small glossaries stay small, and strings
+                // longer than a page get a page of their own
+                int capacity = this.current == null ? FIRST_PAGE_SIZE
+                        : Math.min(PAGE_SIZE, this.current.capacity() * 2);
+                capacity = Math.max(capacity, bytes.length);
+                this.current = this.offHeap ? ByteBuffer.allocateDirect(capacity)
+                        : ByteBuffer.allocate(capacity);
+                this.pages.add(this.current);
+            }
+            long ref = ((long) (this.pages.size() - 1) << OFFSET_BITS)
+                    | this.current.position();
+            this.current.put(bytes);
+            return ref;
+        }
+
+        /**
+         * Returns the byte at {@code index} of the string at {@code ref}.
+         *
+         * @param ref
+         *            reference to the string
+         * @param index
+         *            index within the string
+         * @return the byte
+         */
+        byte byteAt(long ref, int index) {
+            ByteBuffer page = this.pages.get((int) (ref >>> OFFSET_BITS));
+            return page.get((int) ref + index);
+        }
+
+        /**
+         * Decodes the string of {@code length} bytes at {@code ref}.
+         *
+         * @param ref
+         *            reference to the string
+         * @param length
+         *            byte length of the string
+         * @return the decoded string
+         */
+        String decode(long ref, int length) {
+            ByteBuffer page = this.pages.get((int) (ref >>> OFFSET_BITS))
+                    .duplicate();
+            page.limit((int) ref + length);
+            page.position((int) ref);
+            return StandardCharsets.UTF_8.decode(page).toString();
+        }
+
+        /**
+         * Decodes the string of {@code length} bytes at {@code ref} into
+         * {@code chars}, replacing malformed input as {@link #decode} does.
+         *
+         * @param ref
+         *            reference to the string
+         * @param length
+         *            byte length of the string
+         * @param decoder
+         *            UTF-8 decoder that replaces malformed input
+         * @param chars
+         *            buffer of at least {@code length} chars
+         * @updates chars
+         * @ensures chars holds the decoded string, ready to be read
+         */
+        void decode(long ref, int length, CharsetDecoder decoder,
+                CharBuffer chars) {
+            ByteBuffer page = this.pages.get((int) (ref >>> OFFSET_BITS))
+                    .duplicate();
+            page.limit((int) ref + length);
+            page.position((int) ref);
+            chars.clear();
+            decoder.reset();
+            decoder.decode(page, chars, true);
+            decoder.flush(chars);
+            chars.flip();
+        }
+
+        /**
+         * Returns the number of bytes reserved by the arena.
+         *
+         * @return bytes reserved
+         */
+        long capacity() {
+            long capacity = 0;
+            for (ByteBuffer page : this.pages) {
+                capacity += page.capacity();
+            }
+            return capacity;
+        }
+    }
+
+    /**
+     * Reads a glossary input file into a new store, parsing it the same way
+     * {@code Glossary.getTermsAndDefs} does. Of a term listed more than once,
+     * only the first definition is kept (see {@link #add}).
+     *
+     * @param file
+     *            name of the UTF-8 input .txt file
+     * @param offHeap
+     *            whether to allocate the pages outside the Java heap
+     * @return the store, with terms in input order
+     * @requires the input file contains pairs of lines in the format
+     *           "term\n definition\n"
+     */
+    public static GlossaryArena read(String file, boolean offHeap) {
+        GlossaryArena arena = new GlossaryArena(offHeap);
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(file),
+                StandardCharsets.UTF_8)) {
+            StringBuilder definition = new StringBuilder();
+            String term = in.readLine();
+            while (term != null) {
+                // Gets one line of definition
+                String line = in.readLine();
+                definition.setLength(0);
+                definition.append(line == null ? "" : line);
+                // Adds extra lines of definition up to a blank line
+                String extra = line == null ? null : in.readLine();
+                while (extra != null && extra.length() > 0) {
+                    definition.append(extra);
+                    extra = in.readLine();
+                }
+                arena.add(term, definition.toString());
+                // The next term follows the blank line, if any
+                term = extra == null ? null : in.readLine();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + file, e);
+        }
+        return arena;
+    }
+
+    /**
+     * Adds an entry after the existing ones, unless {@code term} is already
+     * in the store. As with the other modes, the first definition of a
+     * repeated term wins, and no two entries ever write the same page.
+     *
+     * @param term
+     *            the term
+     * @param definition
+     *            its definition
+     * @return whether the entry was added
+     * @updates this
+     */
+    public boolean add(String term, String definition) {
+        byte[] termBytes = term.getBytes(StandardCharsets.UTF_8);
+        int hash = Arrays.hashCode(termBytes);
+        int slot = this.slotOf(termBytes, hash);
+        if (this.slots[slot] != 0) {
+            return false;
+        }
+
+        if (this.size == this.termRef.length) {
+            int capacity = this.size * 2;
+            this.termRef = Arrays.copyOf(this.termRef, capacity);
+            this.termLength = Arrays.copyOf(this.termLength, capacity);
+            this.termHash = Arrays.copyOf(this.termHash, capacity);
+            this.definitionRef = Arrays.copyOf(this.definitionRef, capacity);
+            this.definitionLength = Arrays.copyOf(this.definitionLength,
+                    capacity);
+        }
+        byte[] definitionBytes = definition.getBytes(StandardCharsets.UTF_8);
+        this.termRef[this.size] = this.terms.append(termBytes);
+        this.termLength[this.size] = termBytes.length;
+        this.termHash[this.size] = hash;
+        this.definitionRef[this.size] = this.definitions
+                .append(definitionBytes);
+        this.definitionLength[this.size] = definitionBytes.length;
+        this.slots[slot] = this.size + 1;
+        this.size++;
+        this.order = null;
+
+        if (2 * this.size > this.slots.length) {
+            this.rehash(2 * this.slots.length);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the slot of {@link #slots} holding the term with bytes
+     * {@code termBytes}, or the empty slot where it belongs.
+     *
+     * @param termBytes
+     *            UTF-8 bytes of the term
+     * @param hash
+     *            {@code Arrays.hashCode(termBytes)}
+     * @return the slot index
+     */
+    private int slotOf(byte[] termBytes, int hash) {
+        int mask = this.slots.length - 1;
+        int slot = home(hash, mask);
+        while (this.slots[slot] != 0
+                && !this.termEquals(this.slots[slot] - 1, termBytes, hash)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Returns the first slot to probe for a term with hash {@code hash}.
+     *
+     * @param hash
+     *            the term hash
+     * @param mask
+     *            number of slots minus one
+     * @return the slot index
+     */
+    private static int home(int hash, int mask) {
+        int h = hash * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * Returns whether the term at input position {@code i} has bytes
+     * {@code termBytes}.
+     *
+     * @param i
+     *            the input position
+     * @param termBytes
+     *            UTF-8 bytes of a term
+     * @param hash
+     *            {@code Arrays.hashCode(termBytes)}
+     * @return true iff the terms are equal
+     */
+    private boolean termEquals(int i, byte[] termBytes, int hash) {
+        if (this.termHash[i] != hash
+                || this.termLength[i] != termBytes.length) {
+            return false;
+        }
+        for (int k = 0; k < termBytes.length; k++) {
+            if (this.terms.byteAt(this.termRef[i], k) != termBytes[k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Rebuilds {@link #slots} with {@code capacity} slots.
+     *
+     * @param capacity
+     *            the new number of slots, a power of two
+     */
+    private void rehash(int capacity) {
+        this.slots = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < this.size; i++) {
+            int slot = home(this.termHash[i], mask);
+            while (this.slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            this.slots[slot] = i + 1;
+        }
+    }
+
+    /**
+     * Returns the number of entries.
+     *
+     * @return the number of entries
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns the input positions of the entries in index order (input order
+     * until {@link #sort} is called).
+     *
+     * @return the index order
+     */
+    private int[] order() {
+        if (this.order == null || this.order.length != this.size) {
+            this.order = new int[this.size];
+            for (int i = 0; i < this.size; i++) {
+                this.order[i] = i;
+            }
+        }
+        return this.order;
+    }
+
+    /**
+     * Returns the {@code k}-th term in index order.
+     *
+     * @param k
+     *            the position in index order
+     * @return the term
+     * @requires 0 <= k < size()
+     */
+    public String term(int k) {
+        int i = this.order()[k];
+        return this.terms.decode(this.termRef[i], this.termLength[i]);
+    }
+
+    /**
+     * Returns the definition of the {@code k}-th term in index order.
+     *
+     * @param k
+     *            the position in index order
+     * @return the definition
+     * @requires 0 <= k < size()
+     */
+    public String definition(int k) {
+        int i = this.order()[k];
+        return this.definitions.decode(this.definitionRef[i],
+                this.definitionLength[i]);
+    }
+
+    /**
+     * Returns the terms in index order, decoding each one as it is reached.
+     *
+     * @return the terms in index order
+     */
+    public Iterable<String> terms() {
+        return () -> new Iterator<String>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return this.next < GlossaryArena.this.size;
+            }
+
+            @Override
+            public String next() {
+                if (!this.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                String term = GlossaryArena.this.term(this.next);
+                this.next++;
+                return term;
+            }
+        };
+    }
+
+    /**
+     * Sorts the terms by their UTF-8 bytes. This is the order
+     * {@code Glossary.AlphabeticalSort} gives, except that characters outside
+     * the Basic Multilingual Plane sort after all others.
+     *
+     * @updates this
+     */
+    public void sort() {
+        int[] positions = this.order();
+        int[] buffer = new int[positions.length];
+        this.mergeSort(positions, buffer, 0, positions.length);
+    }
+
+    /**
+     * Stable merge sort of {@code positions[from, to)} by term bytes.
+     *
+     * @param positions
+     *            input positions to sort
+     * @param buffer
+     *            scratch space at least as long as positions
+     * @param from
+     *            start of the range
+     * @param to
+     *            end of the range
+     */
+    private void mergeSort(int[] positions, int[] buffer, int from, int to) {
+        final int insertionLimit = 16;
+        if (to - from <= insertionLimit) {
+            for (int i = from + 1; i < to; i++) {
+                int p = positions[i];
+                int j = i - 1;
+                while (j >= from && this.compareTerms(positions[j], p) > 0) {
+                    positions[j + 1] = positions[j];
+                    j--;
+                }
+                positions[j + 1] = p;
+            }
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        this.mergeSort(positions, buffer, from, middle);
+        this.mergeSort(positions, buffer, middle, to);
+        if (this.compareTerms(positions[middle - 1], positions[middle]) <= 0) {
+            return;
+        }
+        System.arraycopy(positions, from, buffer, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int k = from; k < to; k++) {
+            if (right >= to || (left < middle
+                    && this.compareTerms(buffer[left], buffer[right]) <= 0)) {
+                positions[k] = buffer[left];
+                left++;
+            } else {
+                positions[k] = buffer[right];
+                right++;
+            }
+        }
+    }
+
+    /**
+     * Compares the terms at input positions {@code a} and {@code b} by their
+     * unsigned UTF-8 bytes.
+     *
+     * @param a
+     *            first input position
+     * @param b
+     *            second input position
+     * @return negative, zero or positive as term a is before, equal to or
+     *         after term b
+     */
+    private int compareTerms(int a, int b) {
+        int length = Math.min(this.termLength[a], this.termLength[b]);
+        for (int i = 0; i < length; i++) {
+            int x = this.terms.byteAt(this.termRef[a], i) & 0xff;
+            int y = this.terms.byteAt(this.termRef[b], i) & 0xff;
+            if (x != y) {
+                return x - y;
+            }
+        }
+        return this.termLength[a] - this.termLength[b];
+    }
+
+    /**
+     * Replaces every definition with its linked version, as
+     * {@code Glossary.updateDefinitions} does. The linked definitions are
+     * packed into a fresh arena and the old one is dropped. The automaton is
+     * built from views of the terms decoded one at a time into a shared
+     * buffer, so no string is made for any term.
+     *
+     * @updates this
+     */
+    public void link() {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        // A UTF-8 string never has more chars than bytes
+        int longest = 0;
+        for (int i = 0; i < this.size; i++) {
+            longest = Math.max(longest, this.termLength[i]);
+        }
+        CharBuffer chars = CharBuffer.allocate(longest);
+        TermLinker linker = new TermLinker(this.size, i -> {
+            this.terms.decode(this.termRef[i], this.termLength[i], decoder,
+                    chars);
+            return chars;
+        }, WordTokenizer.GLOSSARY);
+        Arena linked = new Arena(this.offHeap);
+        StringBuilder definition = new StringBuilder();
+        for (int i = 0; i < this.size; i++) {
+            definition.setLength(0);
+            linker.link(this.definitions.decode(this.definitionRef[i],
+                    this.definitionLength[i]), definition, null);
+            byte[] bytes = definition.toString()
+                    .getBytes(StandardCharsets.UTF_8);
+            this.definitionRef[i] = linked.append(bytes);
+            this.definitionLength[i] = bytes.length;
+        }
+        this.definitions = linked;
+    }
+
+    /**
+     * Writes one page per term to {@code out}, as {@code Glossary.addLinks}
+     * does.
+     *
+     * @param out
+     *            output directory where html files will be saved
+     * @param parallelism
+     *            number of threads writing pages
+     * @param templates
+     *            the page layouts
+     * @requires out is a valid directory, parallelism >= 1
+     */
+    public void writePages(String out, int parallelism,
+            PageTemplates templates) {
+        // Fixes the order first so worker threads only read shared state
+        this.order();
+        ParallelPageWriter.writeAll(this.size, this::term, this::definition,
+                k -> PageTemplates.INDEX_PAGE, out, parallelism, templates);
+    }
+
+    /**
+     * Writes {@code index.html} to {@code out}, as {@code Glossary.createIndex}
+     * does.
+     *
+     * @param out
+     *            output directory where the index will be saved
+     * @param templates
+     *            the page layouts
+     */
+    public void writeIndex(String out, PageTemplates templates) {
+        templates.writeIndex(out, this.terms());
+    }
+
+    /**
+     * Returns the number of bytes reserved for term and definition text.
+     *
+     * @return bytes reserved by the arenas
+     */
+    public long arenaBytes() {
+        return this.terms.capacity() + this.definitions.capacity();
+    }
+}
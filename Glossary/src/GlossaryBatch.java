@@ -0,0 +1,424 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import components.map.Map;
+import components.map.Map1L;
+import components.queue.Queue;
+import components.simplereader.SimpleReader;
+import components.simplereader.SimpleReader1L;
+import components.simplewriter.SimpleWriter;
+
+/**
+ * Builds many glossaries in one run without prompting. A manifest lists one
+ * glossary per line as an input file and an output folder separated by a tab;
+ * blank lines and lines starting with {@code #} are ignored. The glossaries
+ * are built concurrently on a fixed pool of worker threads, each one on a
+ * single thread, and a failure in one glossary does not stop the others.
+ *
+ * @author Elijah Paulman
+ *
+ */
+public final class GlossaryBatch {
+
+    /**
+     * Starts a comment line in a manifest.
+     */
+    private static final char COMMENT = '#';
+
+    /**
+     * Separates the input file from the output folder in a manifest line.
+     */
+    private static final char TAB = '\t';
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private GlossaryBatch() {
+
+    }
+
+    /**
+     * One glossary of a batch and the outcome of building it.
+     */
+    public static final class Job {
+
+        /**
+         * The input file.
+         */
+        private final String input;
+
+        /**
+         * The output folder.
+         */
+        private final String output;
+
+        /**
+         * Timing of each phase of the build, or null before it runs.
+         */
+        private RunStats stats = null;
+
+        /**
+         * Number of terms built.
+         */
+        private int terms = 0;
+
+        /**
+         * Wall time of the whole build, in milliseconds.
+         */
+        private double millis = 0;
+
+        /**
+         * Why the build failed, or null if it did not.
+         */
+        private Throwable failure = null;
+
+        /**
+         * Creates a job building {@code input} into {@code output}.
+         *
+         * @param input
+         *            the input file
+         * @param output
+         *            the output folder
+         */
+        public Job(String input, String output) {
+            this.input = input;
+            this.output = output;
+        }
+
+        /**
+         * Returns the input file.
+         *
+         * @return the input file
+         */
+        public String input() {
+            return this.input;
+        }
+
+        /**
+         * Returns the output folder.
+         *
+         * @return the output folder
+         */
+        public String output() {
+            return this.output;
+        }
+
+        /**
+         * Returns whether the glossary was built.
+         *
+         * @return true iff the build ran and did not fail
+         */
+        public boolean succeeded() {
+            return this.stats != null && this.failure == null;
+        }
+
+        /**
+         * Returns why the build failed.
+         *
+         * @return the failure, or null if there was none
+         */
+        public Throwable failure() {
+            return this.failure;
+        }
+
+        /**
+         * Returns the number of terms built.
+         *
+         * @return the number of terms
+         */
+        public int terms() {
+            return this.terms;
+        }
+
+        /**
+         * Returns the wall time of the build.
+         *
+         * @return the wall time in milliseconds
+         */
+        public double millis() {
+            return this.millis;
+        }
+
+        /**
+         * Returns the status line of the job: whether it succeeded, its time
+         * in total, and its time per phase or the error it failed with.
+         *
+         * @return the status line
+         */
+        public String report() {
+            StringBuilder line = new StringBuilder();
+            line.append(this.succeeded() ? "ok     " : "FAILED ");
+            line.append(this.input).append(" -> ").append(this.output);
+            line.append(String.format(Locale.ROOT, " %d terms in %.1f ms",
+                    this.terms, this.millis));
+            if (this.succeeded()) {
+                String separator = " (";
+                for (RunStats.Phase phase : this.stats.phases()) {
+                    line.append(separator).append(phase.name()).append(' ')
+                            .append(String.format(Locale.ROOT, "%.1f",
+                                    phase.millis()));
+                    separator = ", ";
+                }
+                if (!this.stats.phases().isEmpty()) {
+                    line.append(')');
+                }
+            } else if (this.failure != null) {
+                line.append(": ").append(this.failure);
+            }
+            return line.toString();
+        }
+    }
+
+    /**
+     * Reads the jobs listed in manifest {@code file}.
+     *
+     * @param file
+     *            the manifest
+     * @return the jobs, in manifest order
+     * @throws IllegalArgumentException
+     *             if a line does not hold an input file and an output folder
+     */
+    public static List<Job> readManifest(String file) {
+        List<Job> jobs = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(file),
+                StandardCharsets.UTF_8)) {
+            int number = 0;
+            String line = reader.readLine();
+            while (line != null) {
+                number++;
+                if (!line.trim().isEmpty() && line.charAt(0) != COMMENT) {
+                    int tab = line.indexOf(TAB);
+                    if (tab <= 0 || tab == line.length() - 1) {
+                        throw new IllegalArgumentException(file + ":" + number
+                                + ": expected input<TAB>output, got \"" + line
+                                + "\"");
+                    }
+                    jobs.add(new Job(line.substring(0, tab),
+                            line.substring(tab + 1)));
+                }
+                line = reader.readLine();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + file, e);
+        }
+        return jobs;
+    }
+
+    /**
+     * Builds every job on a pool of {@code workers} threads, writing the
+     * status line of each job to {@code out} once it has finished, in
+     * manifest order.
+     *
+     * @param jobs
+     *            the glossaries to build
+     * @param workers
+     *            number of glossaries built at the same time
+     * @param options
+     *            the options every glossary is built with
+     * @param out
+     *            where status lines are written
+     * @return the number of jobs that failed
+     * @requires workers >= 1
+     * @ensures every job has run
+     */
+    public static int run(List<Job> jobs, int workers,
+            GlossaryOptions options, SimpleWriter out) {
+        return run(jobs, workers, options, out, null);
+    }
+
+    /**
+     * Same as {@link #run(List, int, GlossaryOptions, SimpleWriter)}, but if
+     * {@code federation} is not null, every glossary links its definitions to
+     * the terms of all glossaries through it.
+     *
+     * @param jobs
+     *            the glossaries to build
+     * @param workers
+     *            number of glossaries built at the same time
+     * @param options
+     *            the options every glossary is built with
+     * @param out
+     *            where status lines are written
+     * @param federation
+     *            the federation loaded from jobs, or null to link each
+     *            glossary on its own
+     * @return the number of jobs that failed
+     * @requires workers >= 1
+     * @ensures every job has run
+     */
+    public static int run(List<Job> jobs, int workers,
+            GlossaryOptions options, SimpleWriter out,
+            GlossaryFederation federation) {
+        assert workers >= 1 : "Violation of: workers >= 1";
+
+        ExecutorService pool = Executors
+                .newFixedThreadPool(Math.max(1, Math.min(workers, jobs.size())));
+        int failed = 0;
+        try {
+            List<Future<Job>> results = new ArrayList<>();
+            for (Job job : jobs) {
+                results.add(pool.submit(() -> {
+                    buildSafely(job, options, federation);
+                    return job;
+                }));
+            }
+            for (Future<Job> result : results) {
+                Job job = result.get();
+                if (!job.succeeded()) {
+                    failed++;
+                }
+                out.println(job.report());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Batch interrupted", e);
+        } catch (ExecutionException e) {
+            // buildSafely records every failure in its job
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        out.println((jobs.size() - failed) + " of " + jobs.size()
+                + " glossaries built");
+        return failed;
+    }
+
+    /**
+     * Builds {@code job}, recording its time and any failure in it.
+     *
+     * @param job
+     *            the glossary to build
+     * @param options
+     *            the options it is built with
+     * @param federation
+     *            the federation it links through, or null
+     */
+    private static void buildSafely(Job job, GlossaryOptions options,
+            GlossaryFederation federation) {
+        job.stats = new RunStats();
+        long start = System.nanoTime();
+        try {
+            job.terms = build(job.input, job.output, options, job.stats,
+                    federation);
+        } catch (RuntimeException | AssertionError e) {
+            // Bad input breaks the component contracts with AssertionError
+            job.failure = e;
+        }
+        job.millis = (System.nanoTime() - start) / 1e6;
+    }
+
+    /**
+     * Builds the glossary of {@code input} into folder {@code output} on the
+     * calling thread, the same way {@code Glossary.main} does.
+     *
+     * @param input
+     *            the input file
+     * @param output
+     *            the output folder, created if missing
+     * @param options
+     *            the options the glossary is built with
+     * @param stats
+     *            receives the timing of each phase
+     * @return the number of terms built
+     */
+    static int build(String input, String output, GlossaryOptions options,
+            RunStats stats) {
+        return build(input, output, options, stats, null);
+    }
+
+    /**
+     * Same as {@link #build(String, String, GlossaryOptions, RunStats)}, but
+     * if {@code federation} is not null, the definitions are linked to the
+     * terms of every glossary of the federation.
+     *
+     * @param input
+     *            the input file
+     * @param output
+     *            the output folder, created if missing
+     * @param options
+     *            the options the glossary is built with
+     * @param stats
+     *            receives the timing of each phase
+     * @param federation
+     *            the federation the glossary belongs to, or null
+     * @return the number of terms built
+     */
+    static int build(String input, String output, GlossaryOptions options,
+            RunStats stats, GlossaryFederation federation) {
+        RunStats.Phase phase = stats.begin("parse");
+        Map<String, String> definitionMap = new Map1L<>();
+        SimpleReader in = new SimpleReader1L(input);
+        Queue<String> terms;
+        try {
+            terms = Glossary.getTermsAndDefs(definitionMap, in);
+        } finally {
+            in.close();
+        }
+        phase.end(terms.length());
+
+        try {
+            Files.createDirectories(Paths.get(output));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create " + output, e);
+        }
+
+        phase = stats.begin("sort");
+        Comparator<String> order;
+        CollatedOrder collation = options.collation();
+        if (collation != null) {
+            collation.sort(terms, 1);
+            order = collation;
+        } else {
+            order = new Glossary.AlphabeticalSort();
+            terms.sort(order);
+        }
+        phase.end(terms.length());
+
+        phase = stats.begin("link");
+        BacklinkIndex backlinks = options.backlinks() ? new BacklinkIndex()
+                : null;
+        if (federation != null) {
+            federation.link(definitionMap, terms, output);
+        } else {
+            Glossary.updateDefinitions(definitionMap, terms, output,
+                    backlinks);
+        }
+        phase.end(terms.length());
+
+        ShardedIndex index = null;
+        if (options.shardSize() > 0) {
+            index = new ShardedIndex(terms, order, options.shardSize());
+        }
+        phase = stats.begin("render");
+        Glossary.addLinks(definitionMap, terms, output, 1,
+                options.templates(), index, backlinks);
+        phase.end(terms.length());
+
+        phase = stats.begin("index");
+        if (index != null) {
+            index.write(output, 1, options.templates());
+        } else {
+            options.templates().writeIndex(output, terms);
+        }
+        phase.end(terms.length());
+
+        if (options.search()) {
+            phase = stats.begin("search");
+            SearchIndex.write(output, terms);
+            phase.end(terms.length());
+        }
+        return terms.length();
+    }
+}
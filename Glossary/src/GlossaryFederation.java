@@ -0,0 +1,222 @@
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+
+import components.map.Map;
+import components.queue.Queue;
+import components.queue.Queue1L;
+
+/**
+ * Shared term dictionary of a batch of glossaries that link to each other's
+ * terms. It is loaded from the terms alone, so no definition is held while
+ * it is built, and the glossaries are then built as usual by
+ * {@link GlossaryBatch}, each linking its definitions through this one
+ * dictionary. A link to a term of another glossary points to its page in
+ * that glossary's output folder, by a relative path.
+ *
+ * <p>
+ * When several glossaries define the same term, a glossary links to its own
+ * page for it, and otherwise to the page of the first glossary in the
+ * manifest that defines it.
+ * </p>
+ *
+ * @author Elijah Paulman
+ *
+ */
+public final class GlossaryFederation {
+
+    /**
+     * Linking automaton over the distinct terms of every glossary.
+     */
+    private final TermLinker linker;
+
+    /**
+     * Linker id of each term.
+     */
+    private final TermDictionary ids;
+
+    /**
+     * Position in the manifest of the glossary each term links to, by linker
+     * id, unless the glossary being linked defines the term itself.
+     */
+    private final int[] owners;
+
+    /**
+     * Output folder of each glossary, absolute and normalized.
+     */
+    private final Path[] folders;
+
+    /**
+     * Position in the manifest of each output folder, as written there.
+     */
+    private final HashMap<String, Integer> positions = new HashMap<>();
+
+    /**
+     * Creates the federation of the glossaries with terms {@code termSets}.
+     *
+     * @param jobs
+     *            the glossaries
+     * @param termSets
+     *            the terms of each glossary, in manifest order
+     */
+    private GlossaryFederation(List<GlossaryBatch.Job> jobs,
+            List<Queue<String>> termSets) {
+        // Each term keeps the position of its first occurrence
+        List<String> all = new ArrayList<>();
+        List<Integer> glossaryOf = new ArrayList<>();
+        for (int g = 0; g < termSets.size(); g++) {
+            for (String term : termSets.get(g)) {
+                if (!term.isEmpty()) {
+                    all.add(term);
+                    glossaryOf.add(g);
+                }
+            }
+        }
+        TermDictionary first = new TermDictionary(all);
+        List<String> distinct = new ArrayList<>(first.size());
+        this.owners = new int[first.size()];
+        for (int p = 0; p < all.size(); p++) {
+            if (first.id(all.get(p)) == p) {
+                this.owners[distinct.size()] = glossaryOf.get(p);
+                distinct.add(all.get(p));
+            }
+        }
+        this.linker = new TermLinker(distinct, WordTokenizer.GLOSSARY);
+        this.ids = new TermDictionary(distinct);
+
+        this.folders = new Path[jobs.size()];
+        for (int g = 0; g < jobs.size(); g++) {
+            String output = jobs.get(g).output();
+            this.folders[g] = Paths.get(output).toAbsolutePath().normalize();
+            if (this.positions.put(output, g) != null) {
+                throw new IllegalArgumentException(
+                        "Two glossaries are built into " + output);
+            }
+        }
+    }
+
+    /**
+     * Reads the terms of every glossary of {@code jobs}, on a pool of
+     * {@code workers} threads, into a new federation. A glossary whose terms
+     * cannot be read adds none; it fails again when it is built.
+     *
+     * @param jobs
+     *            the glossaries, in manifest order
+     * @param workers
+     *            number of glossaries read at the same time
+     * @return the federation of the glossaries
+     * @requires workers >= 1
+     * @throws IllegalArgumentException
+     *             if two glossaries have the same output folder
+     */
+    public static GlossaryFederation load(List<GlossaryBatch.Job> jobs,
+            int workers) {
+        assert workers >= 1 : "Violation of: workers >= 1";
+
+        ExecutorService pool = Executors
+                .newFixedThreadPool(Math.max(1, Math.min(workers, jobs.size())));
+        List<Queue<String>> termSets = new ArrayList<>();
+        try {
+            List<Future<Queue<String>>> results = new ArrayList<>();
+            for (GlossaryBatch.Job job : jobs) {
+                results.add(pool.submit(() -> {
+                    try {
+                        return GlossaryPipeline.readTerms(job.input());
+                    } catch (RuntimeException | AssertionError e) {
+                        // Building the glossary reports the error
+                        return new Queue1L<String>();
+                    }
+                }));
+            }
+            for (Future<Queue<String>> result : results) {
+                termSets.add(result.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Loading interrupted", e);
+        } catch (ExecutionException e) {
+            // Every failure is caught by the task itself
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        return new GlossaryFederation(jobs, termSets);
+    }
+
+    /**
+     * Returns the number of distinct terms of all glossaries.
+     *
+     * @return the number of terms
+     */
+    public int termCount() {
+        return this.owners.length;
+    }
+
+    /**
+     * Returns the position in the manifest of the glossary that other
+     * glossaries link to for {@code term}.
+     *
+     * @param term
+     *            the term
+     * @return the position of the first glossary defining term, or -1 if
+     *         none does
+     */
+    public int owner(String term) {
+        int id = this.ids.id(term);
+        return id < 0 ? -1 : this.owners[id];
+    }
+
+    /**
+     * Updates the definitions of the glossary built into {@code output} with
+     * links to the terms of every glossary, as
+     * {@code Glossary.updateDefinitions} does within one glossary.
+     *
+     * @param definitionMap
+     *            the map containing the terms and their definitions
+     * @param terms
+     *            the queue of terms to be checked and updated
+     * @param output
+     *            the output folder of the glossary, as in the manifest
+     * @requires output is the output folder of a glossary of the federation
+     */
+    public void link(Map<String, String> definitionMap, Queue<String> terms,
+            String output) {
+        Integer position = this.positions.get(output);
+        assert position != null : "Violation of: output is in the federation";
+
+        // Terms of this glossary link to its own pages
+        BitSet local = new BitSet(this.owners.length);
+        for (String term : terms) {
+            int id = this.ids.id(term);
+            if (id >= 0) {
+                local.set(id);
+            }
+        }
+        Path from = this.folders[position];
+        String[] prefixes = new String[this.folders.length];
+        for (int g = 0; g < prefixes.length; g++) {
+            String relative = from.relativize(this.folders[g]).toString()
+                    .replace(from.getFileSystem().getSeparator(), "/");
+            prefixes[g] = relative.isEmpty() ? ""
+                    : HtmlEscaper.pathUrl(relative) + "/";
+        }
+        IntFunction<String> pageFolders = id -> local.get(id) ? ""
+                : prefixes[this.owners[id]];
+
+        GlossaryModel model = GlossaryModel.of(definitionMap, terms);
+        for (int i = 0; i < model.size(); i++) {
+            String definition = model.definition(i);
+            StringBuilder linked = new StringBuilder(definition.length() + 16);
+            this.linker.link(definition, linked, null, pageFolders);
+            definitionMap.replaceValue(model.term(i), linked.toString());
+        }
+    }
+}
@@ -0,0 +1,262 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import components.map.Map;
+
+/**
+ * An immutable snapshot of a glossary: its terms in order, each with its
+ * definition, held in arrays so that every phase reads them by position
+ * instead of rotating a queue. Nothing in a model ever changes, so any number
+ * of threads may read it at once, and its {@link #spliterator()} splits the
+ * terms into balanced halves for parallel work.
+ *
+ * <p>
+ * Linking the definitions gives a new model sharing the terms of this one
+ * (see {@link #link(TermLinker, int)}).
+ * </p>
+ *
+ * @author Elijah Paulman
+ *
+ */
+public final class GlossaryModel implements Iterable<String> {
+
+    /**
+     * The terms, in order.
+     */
+    private final String[] terms;
+
+    /**
+     * Definition of each term, by position.
+     */
+    private final String[] definitions;
+
+    /**
+     * Position of the first occurrence of each term, built by the first
+     * {@link #indexOf} only.
+     */
+    private volatile TermDictionary positions;
+
+    /**
+     * Creates a model from its arrays, which it then owns.
+     *
+     * @param terms
+     *            the terms, in order
+     * @param definitions
+     *            definition of each term, by position
+     * @requires |terms| = |definitions|
+     */
+    private GlossaryModel(String[] terms, String[] definitions) {
+        assert terms.length == definitions.length : ""
+                + "Violation of: |terms| = |definitions|";
+
+        this.terms = terms;
+        this.definitions = definitions;
+    }
+
+    /**
+     * Returns a model of {@code terms}, in order, with their definitions in
+     * {@code definitionMap}. Neither argument is changed.
+     *
+     * @param definitionMap
+     *            the map containing the terms and their definitions
+     * @param terms
+     *            the terms, in order
+     * @return the model
+     * @requires every term is a key of definitionMap
+     */
+    public static GlossaryModel of(Map<String, String> definitionMap,
+            Iterable<String> terms) {
+        List<String> termList = new ArrayList<>();
+        for (String term : terms) {
+            termList.add(term);
+        }
+        String[] termArray = termList.toArray(new String[termList.size()]);
+        String[] definitionArray = new String[termArray.length];
+        for (int i = 0; i < termArray.length; i++) {
+            definitionArray[i] = definitionMap.value(termArray[i]);
+        }
+        return new GlossaryModel(termArray, definitionArray);
+    }
+
+    /**
+     * Returns the number of terms.
+     *
+     * @return the number of terms
+     */
+    public int size() {
+        return this.terms.length;
+    }
+
+    /**
+     * Returns the term at position {@code i}.
+     *
+     * @param i
+     *            the position
+     * @return the term
+     * @requires 0 <= i < size()
+     */
+    public String term(int i) {
+        return this.terms[i];
+    }
+
+    /**
+     * Returns the definition of the term at position {@code i}.
+     *
+     * @param i
+     *            the position
+     * @return the definition
+     * @requires 0 <= i < size()
+     */
+    public String definition(int i) {
+        return this.definitions[i];
+    }
+
+    /**
+     * Returns the position of the first occurrence of {@code term}.
+     *
+     * @param term
+     *            the term
+     * @return the position, or -1 if term is not in the model
+     */
+    public int indexOf(String term) {
+        TermDictionary dictionary = this.positions;
+        if (dictionary == null) {
+            // Two threads may both build it; either result is the same
+            dictionary = new TermDictionary(Arrays.asList(this.terms));
+            this.positions = dictionary;
+        }
+        return dictionary.id(term);
+    }
+
+    /**
+     * Returns the model of the first occurrence of each term, in order.
+     *
+     * @return the model without repeated terms, which is this model if no
+     *         term is repeated
+     */
+    public GlossaryModel distinct() {
+        // One pass; positions are only copied once a repeat shows up
+        HashSet<String> seen = new HashSet<>(
+                this.terms.length + this.terms.length / 2);
+        String[] termArray = null;
+        String[] definitionArray = null;
+        int count = 0;
+        for (int i = 0; i < this.terms.length; i++) {
+            if (seen.add(this.terms[i])) {
+                if (termArray != null) {
+                    termArray[count] = this.terms[i];
+                    definitionArray[count] = this.definitions[i];
+                }
+                count++;
+            } else if (termArray == null) {
+                termArray = Arrays.copyOf(this.terms, this.terms.length);
+                definitionArray = Arrays.copyOf(this.definitions,
+                        this.definitions.length);
+            }
+        }
+        if (termArray == null) {
+            return this;
+        }
+        return new GlossaryModel(Arrays.copyOf(termArray, count),
+                Arrays.copyOf(definitionArray, count));
+    }
+
+    /**
+     * Returns the model with the same terms, every definition linked by
+     * {@code linker}, on {@code parallelism} threads.
+     *
+     * @param linker
+     *            the linking automaton
+     * @param parallelism
+     *            number of threads linking definitions (1 means sequential)
+     * @return the linked model
+     * @requires parallelism >= 1
+     */
+    public GlossaryModel link(TermLinker linker, int parallelism) {
+        assert parallelism >= 1 : "Violation of: parallelism >= 1";
+
+        String[] linked = new String[this.definitions.length];
+        if (parallelism == 1) {
+            for (int i = 0; i < linked.length; i++) {
+                linked[i] = linker.link(this.definitions[i]);
+            }
+        } else {
+            // Each position is written by exactly one thread
+            ForkJoinPool pool = RunStats.newPool(parallelism);
+            try {
+                pool.submit(() -> IntStream.range(0, linked.length).parallel()
+                        .forEach(i -> linked[i] = linker
+                                .link(this.definitions[i])))
+                        .join();
+            } finally {
+                pool.shutdown();
+            }
+        }
+        return new GlossaryModel(this.terms, linked);
+    }
+
+    /**
+     * Stores the definition of every term of this model into
+     * {@code definitionMap}.
+     *
+     * @param definitionMap
+     *            the map containing the terms and their definitions
+     * @updates definitionMap
+     * @requires every term is a key of definitionMap
+     */
+    public void copyDefinitionsTo(Map<String, String> definitionMap) {
+        for (int i = 0; i < this.terms.length; i++) {
+            definitionMap.replaceValue(this.terms[i], this.definitions[i]);
+        }
+    }
+
+    /**
+     * Returns an iterator over the terms, in order.
+     *
+     * @return the iterator
+     */
+    @Override
+    public Iterator<String> iterator() {
+        return new Iterator<String>() {
+
+            /**
+             * Position of the next term.
+             */
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return this.next < GlossaryModel.this.terms.length;
+            }
+
+            @Override
+            public String next() {
+                if (!this.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return GlossaryModel.this.terms[this.next++];
+            }
+        };
+    }
+
+    /**
+     * Returns a spliterator over the terms, in order, that splits its range
+     * of positions in halves.
+     *
+     * @return the spliterator
+     */
+    @Override
+    public Spliterator<String> spliterator() {
+        return Spliterators.spliterator(this.terms, 0, this.terms.length,
+                Spliterator.ORDERED | Spliterator.IMMUTABLE
+                        | Spliterator.NONNULL);
+    }
+}
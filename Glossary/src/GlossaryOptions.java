@@ -0,0 +1,517 @@
+import java.text.Collator;
+import java.util.Locale;
+
+/**
+ * Command line options for {@code Glossary.main}. Options are given as
+ * {@code --name=value}; anything not given keeps its default, so running with
+ * no arguments behaves exactly like the original interactive program.
+ *
+ * @author Elijah Paulman
+ *
+ */
+public final class GlossaryOptions {
+
+    /**
+     * Number of threads parsing the input and rendering term pages (1 means
+     * sequential).
+     */
+    private int parallelism = 1;
+
+    /**
+     * Whether to rebuild only what changed since the last run.
+     */
+    private boolean incremental = false;
+
+    /**
+     * Whether to hold the glossary in a compact {@link GlossaryArena}.
+     */
+    private boolean arena = false;
+
+    /**
+     * Whether the arena's pages are allocated outside the Java heap.
+     */
+    private boolean offHeap = false;
+
+    /**
+     * Layouts of the generated pages.
+     */
+    private PageTemplates templates = PageTemplates.DEFAULT;
+
+    /**
+     * Largest number of terms per index shard, or 0 for a single index page.
+     */
+    private int shardSize = 0;
+
+    /**
+     * Whether to write a static prefix search index.
+     */
+    private boolean search = false;
+
+    /**
+     * Port to serve the glossary on, or -1 to write it to disk.
+     */
+    private int servePort = -1;
+
+    /**
+     * Whether to keep the site up to date while the input file is edited.
+     */
+    private boolean watch = false;
+
+    /**
+     * Locale terms are collated for, or null for code unit order.
+     */
+    private Locale locale = null;
+
+    /**
+     * Collator strength used with the locale.
+     */
+    private int strength = Collator.TERTIARY;
+
+    /**
+     * File to write the JSON run report to, or null for none.
+     */
+    private String statsFile = null;
+
+    /**
+     * ZIP archive to write the site into, or null to write files.
+     */
+    private String archive = null;
+
+    /**
+     * Snapshot file of the linked glossary, or null for none.
+     */
+    private String snapshot = null;
+
+    /**
+     * Whether term pages list the terms that link to them.
+     */
+    private boolean backlinks = false;
+
+    /**
+     * Manifest of the glossaries to build without prompting, or null to
+     * prompt for one.
+     */
+    private String batch = null;
+
+    /**
+     * Whether the glossaries of the batch link to each other's terms.
+     */
+    private boolean federate = false;
+
+    /**
+     * Capacity of the queues between pipelined stages, or 0 to run the
+     * phases one after the other.
+     */
+    private int pipeline = 0;
+
+    /**
+     * Memory budget in bytes of the on-disk term sort, or 0 to sort in
+     * memory.
+     */
+    private long sortBudget = 0;
+
+    /**
+     * Private constructor, use {@link #parse(String[])}.
+     */
+    private GlossaryOptions() {
+
+    }
+
+    /**
+     * Parses the command line arguments into options.
+     *
+     * @param args
+     *            the command line arguments
+     * @return the parsed options
+     * @requires args is not null
+     * @ensures every argument of the form --name=value is applied
+     */
+    public static GlossaryOptions parse(String[] args) {
+        assert args != null : "Violation of: args is not null";
+
+        GlossaryOptions options = new GlossaryOptions();
+        for (String arg : args) {
+            // Splits the argument into name and (possibly empty) value
+            int equals = arg.indexOf('=');
+            String name = equals < 0 ? arg : arg.substring(0, equals);
+            String value = equals < 0 ? "" : arg.substring(equals + 1);
+
+            if (name.equals("--parallelism")) {
+                options.parallelism = positive(name, value);
+            } else if (name.equals("--incremental")) {
+                options.incremental = true;
+            } else if (name.equals("--templates")) {
+                options.templates = PageTemplates.load(value);
+            } else if (name.equals("--shard-size")) {
+                options.shardSize = positive(name, value);
+            } else if (name.equals("--search")) {
+                options.search = true;
+            } else if (name.equals("--serve")) {
+                options.servePort = port(name, value);
+            } else if (name.equals("--watch")) {
+                options.watch = true;
+            } else if (name.equals("--locale")) {
+                options.locale = Locale.forLanguageTag(value);
+            } else if (name.equals("--strength")) {
+                options.strength = CollatedOrder.strength(value);
+                if (options.locale == null) {
+                    options.locale = Locale.getDefault();
+                }
+            } else if (name.equals("--stats")) {
+                options.statsFile = value;
+            } else if (name.equals("--archive")) {
+                options.archive = value;
+            } else if (name.equals("--snapshot")) {
+                options.snapshot = value;
+            } else if (name.equals("--pipeline")) {
+                options.pipeline = value.isEmpty()
+                        ? GlossaryPipeline.DEFAULT_QUEUE_CAPACITY
+                        : positive(name, value);
+            } else if (name.equals("--sort-budget")) {
+                // Megabytes of entries sorted in memory before spilling
+                options.sortBudget = (long) positive(name, value) << 20;
+                if (options.pipeline == 0) {
+                    options.pipeline = GlossaryPipeline.DEFAULT_QUEUE_CAPACITY;
+                }
+            } else if (name.equals("--batch")) {
+                options.batch = value;
+            } else if (name.equals("--federate")) {
+                options.federate = true;
+            } else if (name.equals("--backlinks")) {
+                options.backlinks = true;
+            } else if (name.equals("--arena")) {
+                options.arena = true;
+            } else if (name.equals("--off-heap")) {
+                options.arena = true;
+                options.offHeap = true;
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+        if (options.arena && options.incremental) {
+            throw new IllegalArgumentException(
+                    "--arena cannot be combined with --incremental");
+        }
+        if (options.shardSize > 0 && (options.arena || options.incremental)) {
+            throw new IllegalArgumentException(
+                    "--shard-size cannot be combined with --arena or --incremental");
+        }
+        if (options.search && options.arena) {
+            // The arena sorts by UTF-8 bytes, not the order search.js expects
+            throw new IllegalArgumentException(
+                    "--search cannot be combined with --arena");
+        }
+        if (options.servePort >= 0
+                && (options.arena || options.incremental || options.search)) {
+            throw new IllegalArgumentException("--serve cannot be combined "
+                    + "with --arena, --incremental or --search");
+        }
+        if (options.watch && (options.arena || options.incremental
+                || options.search || options.shardSize > 0
+                || options.servePort >= 0)) {
+            throw new IllegalArgumentException("--watch cannot be combined "
+                    + "with --arena, --incremental, --search, --shard-size "
+                    + "or --serve");
+        }
+        if (options.statsFile != null
+                && (options.watch || options.servePort >= 0)) {
+            // These keep running, so a run never ends to be reported
+            throw new IllegalArgumentException(
+                    "--stats cannot be combined with --watch or --serve");
+        }
+        if (options.locale != null
+                && (options.arena || options.search || options.watch)) {
+            // These sort by code unit or byte order themselves
+            throw new IllegalArgumentException("--locale cannot be combined "
+                    + "with --arena, --search or --watch");
+        }
+        if (options.archive != null && (options.arena || options.incremental
+                || options.search || options.watch
+                || options.servePort >= 0)) {
+            throw new IllegalArgumentException("--archive cannot be combined "
+                    + "with --arena, --incremental, --search, --watch or "
+                    + "--serve");
+        }
+        if (options.snapshot != null
+                && (options.arena || options.incremental || options.watch)) {
+            // These need the unlinked definitions
+            throw new IllegalArgumentException("--snapshot cannot be combined "
+                    + "with --arena, --incremental or --watch");
+        }
+        if (options.backlinks && (options.arena || options.incremental
+                || options.watch || options.servePort >= 0
+                || options.archive != null || options.snapshot != null)) {
+            // These link or render term pages without the link index
+            throw new IllegalArgumentException("--backlinks cannot be "
+                    + "combined with --arena, --incremental, --watch, "
+                    + "--serve, --archive or --snapshot");
+        }
+        if (options.batch != null && (options.arena || options.incremental
+                || options.watch || options.servePort >= 0
+                || options.archive != null || options.snapshot != null
+                || options.statsFile != null)) {
+            // Each of these is about a single glossary
+            throw new IllegalArgumentException("--batch cannot be combined "
+                    + "with --arena, --incremental, --watch, --serve, "
+                    + "--archive, --snapshot or --stats");
+        }
+        if (options.federate && (options.batch == null || options.backlinks)) {
+            // Backlinks would have to cross glossaries too
+            throw new IllegalArgumentException(
+                    "--federate needs --batch and cannot be combined with "
+                            + "--backlinks");
+        }
+        if (options.sortBudget > 0 && options.shardSize > 0) {
+            // A sharded index needs every term in memory
+            throw new IllegalArgumentException(
+                    "--sort-budget cannot be combined with --shard-size");
+        }
+        if (options.pipeline > 0 && (options.arena || options.incremental
+                || options.watch || options.servePort >= 0
+                || options.archive != null || options.snapshot != null
+                || options.backlinks || options.batch != null)) {
+            // These need every definition parsed or linked before rendering
+            throw new IllegalArgumentException("--pipeline cannot be "
+                    + "combined with --arena, --incremental, --watch, "
+                    + "--serve, --archive, --snapshot, --backlinks or "
+                    + "--batch");
+        }
+        return options;
+    }
+
+    /**
+     * Parses {@code value} as a positive integer.
+     *
+     * @param name
+     *            the option name, used in the error message
+     * @param value
+     *            the option value
+     * @return the parsed value
+     */
+    private static int positive(String name, String value) {
+        int parsed;
+        try {
+            parsed = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(
+                    name + " needs a number, got \"" + value + "\"", e);
+        }
+        if (parsed < 1) {
+            throw new IllegalArgumentException(
+                    name + " must be at least 1, got " + parsed);
+        }
+        return parsed;
+    }
+
+    /**
+     * Parses {@code value} as a port number.
+     *
+     * @param name
+     *            the option name, used in the error message
+     * @param value
+     *            the option value
+     * @return the parsed port, 0 meaning any free port
+     */
+    private static int port(String name, String value) {
+        int parsed;
+        try {
+            parsed = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(
+                    name + " needs a port number, got \"" + value + "\"", e);
+        }
+        if (parsed < 0 || parsed > 65535) {
+            throw new IllegalArgumentException(
+                    name + " must be between 0 and 65535, got " + parsed);
+        }
+        return parsed;
+    }
+
+    /**
+     * Returns the number of threads parsing the input and rendering term
+     * pages.
+     *
+     * @return the parallelism level, at least 1
+     */
+    public int parallelism() {
+        return this.parallelism;
+    }
+
+    /**
+     * Returns whether to rebuild only what changed since the last run (see
+     * {@link IncrementalBuild}).
+     *
+     * @return true iff the build is incremental
+     */
+    public boolean incremental() {
+        return this.incremental;
+    }
+
+    /**
+     * Returns whether to hold the glossary in a compact
+     * {@link GlossaryArena} instead of a map and queue.
+     *
+     * @return true iff the arena store is used
+     */
+    public boolean arena() {
+        return this.arena;
+    }
+
+    /**
+     * Returns whether the arena's pages are allocated outside the Java heap
+     * (implies {@link #arena()}).
+     *
+     * @return true iff the arena is off-heap
+     */
+    public boolean offHeap() {
+        return this.offHeap;
+    }
+
+    /**
+     * Returns the layouts of the generated pages, read from the folder given
+     * with {@code --templates=DIR} (see {@link PageTemplates}).
+     *
+     * @return the page layouts
+     */
+    public PageTemplates templates() {
+        return this.templates;
+    }
+
+    /**
+     * Returns the largest number of terms on one page of a sharded index, set
+     * with {@code --shard-size=N} (see {@link ShardedIndex}).
+     *
+     * @return the shard size, or 0 for a single index page
+     */
+    public int shardSize() {
+        return this.shardSize;
+    }
+
+    /**
+     * Returns whether to write a static prefix search index next to the site,
+     * set with {@code --search} (see {@link SearchIndex}).
+     *
+     * @return true iff the search index is written
+     */
+    public boolean search() {
+        return this.search;
+    }
+
+    /**
+     * Returns the port to serve the glossary on instead of writing it, set
+     * with {@code --serve=PORT} (see {@link GlossaryServer}).
+     *
+     * @return the port (0 for any free port), or -1 to write the site
+     */
+    public int servePort() {
+        return this.servePort;
+    }
+
+    /**
+     * Returns whether to keep rebuilding the site as the input file changes,
+     * set with {@code --watch} (see {@link GlossaryWatcher}).
+     *
+     * @return true iff the input is watched
+     */
+    public boolean watch() {
+        return this.watch;
+    }
+
+    /**
+     * Returns the locale-aware order of terms set with {@code --locale=TAG}
+     * and {@code --strength=NAME} (see {@link CollatedOrder}).
+     *
+     * @return the order, or null to sort by {@code String.compareTo}
+     */
+    public CollatedOrder collation() {
+        return this.locale == null ? null
+                : new CollatedOrder(this.locale, this.strength);
+    }
+
+    /**
+     * Returns the file to write the JSON run report to, set with
+     * {@code --stats=FILE} (see {@link RunStats}).
+     *
+     * @return the report file, or null for no report
+     */
+    public String statsFile() {
+        return this.statsFile;
+    }
+
+    /**
+     * Returns the ZIP archive to write the whole site into instead of the
+     * output folder, set with {@code --archive=FILE} (see
+     * {@link SiteArchive}).
+     *
+     * @return the archive file, or null to write one file per page
+     */
+    public String archive() {
+        return this.archive;
+    }
+
+    /**
+     * Returns the snapshot file of the linked glossary, set with
+     * {@code --snapshot=FILE}: loaded instead of parsing and linking when it
+     * matches the input, and otherwise written after linking (see
+     * {@link GlossarySnapshot}).
+     *
+     * @return the snapshot file, or null for none
+     */
+    public String snapshot() {
+        return this.snapshot;
+    }
+
+    /**
+     * Returns whether each term page gets a "Referenced by" section listing
+     * the terms that link to it, set with {@code --backlinks} (see
+     * {@link BacklinkIndex}).
+     *
+     * @return true iff backlinks are written
+     */
+    public boolean backlinks() {
+        return this.backlinks;
+    }
+
+    /**
+     * Returns the manifest of glossaries to build without prompting, set with
+     * {@code --batch=FILE}; {@link #parallelism()} glossaries are then built
+     * at the same time (see {@link GlossaryBatch}).
+     *
+     * @return the manifest file, or null to prompt for one glossary
+     */
+    public String batch() {
+        return this.batch;
+    }
+
+    /**
+     * Returns whether the glossaries of a batch link to each other's terms,
+     * set with {@code --federate} (see {@link GlossaryFederation}).
+     *
+     * @return true iff the batch is linked as one federation
+     */
+    public boolean federate() {
+        return this.federate;
+    }
+
+    /**
+     * Returns the capacity of the queues between the stages of a pipelined
+     * build, set with {@code --pipeline} or {@code --pipeline=N} (see
+     * {@link GlossaryPipeline}).
+     *
+     * @return the queue capacity, or 0 to run the phases one after the other
+     */
+    public int pipeline() {
+        return this.pipeline;
+    }
+
+    /**
+     * Returns the memory budget of the on-disk sort of a pipelined build, set
+     * in megabytes with {@code --sort-budget=MB}, which implies
+     * {@code --pipeline} (see {@link ExternalTermSort}).
+     *
+     * @return the budget in bytes, or 0 to sort the terms in memory
+     */
+    public long sortBudget() {
+        return this.sortBudget;
+    }
+}
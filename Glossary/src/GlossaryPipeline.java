@@ -0,0 +1,643 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import components.queue.Queue;
+import components.queue.Queue1L;
+
+/**
+ * Builds a glossary site by streaming its entries through parse, link, render
+ * and write stages connected by bounded queues, instead of finishing each
+ * phase over the whole glossary before starting the next. A first pass over
+ * the input reads only the terms, which is all the linker, the index and the
+ * page names depend on; the index is written right away. A second pass then
+ * parses the entries one at a time, and every stage blocks when the queue to
+ * the next one is full, so at most a few queues' worth of definitions are in
+ * memory at once and the disk and the CPU are kept busy together.
+ *
+ * <p>
+ * The input is read the same way {@code Glossary.getTermsAndDefs} reads it.
+ * Term pages are written in input order; with the default layouts they are
+ * the same as the ones {@code Glossary.addLinks} writes. If a term occurs
+ * more than once, its first entry wins.
+ * </p>
+ *
+ * <p>
+ * With a sort budget, the whole entries are sorted on disk by an
+ * {@link ExternalTermSort} instead, and the merged runs drive the pages, the
+ * index and the search index, so not even the sorted list of terms is held
+ * in memory.
+ * </p>
+ *
+ * @author Elijah Paulman
+ *
+ */
+public final class GlossaryPipeline {
+
+    /**
+     * Default capacity of each queue between stages.
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 256;
+
+    /**
+     * Marks the end of the entries in a queue.
+     */
+    private static final Entry END = new Entry(null, null, null);
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private GlossaryPipeline() {
+
+    }
+
+    /**
+     * One entry moving through the stages.
+     */
+    private static final class Entry {
+
+        /**
+         * The term.
+         */
+        private final String term;
+
+        /**
+         * The definition, unlinked before the link stage and linked after.
+         */
+        private final String definition;
+
+        /**
+         * The rendered page, or null before the render stage.
+         */
+        private final byte[] page;
+
+        /**
+         * Creates an entry.
+         *
+         * @param term
+         *            the term
+         * @param definition
+         *            the definition
+         * @param page
+         *            the rendered page, or null
+         */
+        Entry(String term, String definition, byte[] page) {
+            this.term = term;
+            this.definition = definition;
+            this.page = page;
+        }
+    }
+
+    /**
+     * Reads the records of a glossary input file one at a time.
+     */
+    private static final class Records implements AutoCloseable {
+
+        /**
+         * The open input.
+         */
+        private final BufferedReader reader;
+
+        /**
+         * The next line, or null at the end of the input.
+         */
+        private String next;
+
+        /**
+         * Opens {@code input}.
+         *
+         * @param input
+         *            the input file
+         * @throws IOException
+         *             if the file cannot be read
+         */
+        Records(String input) throws IOException {
+            this.reader = Files.newBufferedReader(Paths.get(input),
+                    Charset.defaultCharset());
+            this.next = this.reader.readLine();
+        }
+
+        /**
+         * Returns whether the input is exhausted.
+         *
+         * @return true iff there are no more records
+         */
+        boolean atEnd() {
+            return this.next == null;
+        }
+
+        /**
+         * Returns the next line and advances past it.
+         *
+         * @return the line, or the empty string at the end of the input
+         * @throws IOException
+         *             if reading fails
+         */
+        String nextLine() throws IOException {
+            String line = this.next == null ? "" : this.next;
+            this.next = this.reader.readLine();
+            return line;
+        }
+
+        /**
+         * Reads the next record, as {@code Glossary.getTermsAndDefs} does:
+         * the term line, the definition line, and any further non-blank lines
+         * up to a blank line, appended to the definition.
+         *
+         * @param withDefinition
+         *            whether to build the definition, or only skip it
+         * @return the entry, with a null definition if not withDefinition
+         * @throws IOException
+         *             if reading fails
+         * @requires !atEnd()
+         */
+        Entry next(boolean withDefinition) throws IOException {
+            String term = this.nextLine();
+            StringBuilder definition = withDefinition ? new StringBuilder()
+                    : null;
+            String line = this.nextLine();
+            if (definition != null) {
+                definition.append(line);
+            }
+            // Accounts for possible extra lines of definition
+            line = " ";
+            while (line.length() > 0 && !this.atEnd()) {
+                line = this.nextLine();
+                if (definition != null) {
+                    definition.append(line);
+                }
+            }
+            return new Entry(term,
+                    definition == null ? null : definition.toString(), null);
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.reader.close();
+        }
+    }
+
+    /**
+     * Reads the distinct terms of {@code input}, skipping the definitions.
+     *
+     * @param input
+     *            the input file
+     * @return the terms, in input order
+     */
+    static Queue<String> readTerms(String input) {
+        Queue<String> terms = new Queue1L<>();
+        HashSet<String> seen = new HashSet<>();
+        try (Records records = new Records(input)) {
+            while (!records.atEnd()) {
+                String term = records.next(false).term;
+                if (seen.add(term)) {
+                    terms.enqueue(term);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + input, e);
+        }
+        return terms;
+    }
+
+    /**
+     * Builds the site of {@code input} into {@code out}: the term pages, the
+     * index (one page, or shards of {@code shardSize} terms) and, if asked,
+     * the search index.
+     *
+     * @param input
+     *            the input file
+     * @param out
+     *            output directory where html files will be saved
+     * @param order
+     *            the order of the terms in the index
+     * @param parallelism
+     *            number of threads in each of the link and render stages
+     * @param queueCapacity
+     *            most entries waiting between two stages
+     * @param templates
+     *            the page layouts
+     * @param shardSize
+     *            largest number of terms per index shard, or 0 for a single
+     *            index page
+     * @param search
+     *            whether to write the search index
+     * @param stats
+     *            receives the timing of each phase
+     * @return the number of term pages written
+     * @requires out is a valid directory, parallelism >= 1,
+     *           queueCapacity >= 1, shardSize >= 0
+     * @ensures out holds a page for every term and the index of all terms
+     */
+    public static int build(String input, String out,
+            Comparator<String> order, int parallelism, int queueCapacity,
+            PageTemplates templates, int shardSize, boolean search,
+            RunStats stats) {
+        return build(input, out, order, parallelism, queueCapacity,
+                templates, shardSize, search, 0, stats);
+    }
+
+    /**
+     * Same as
+     * {@link #build(String, String, Comparator, int, int, PageTemplates, int, boolean, RunStats)},
+     * but if {@code sortBudget} is positive, the entries are sorted with an
+     * {@link ExternalTermSort} holding about that many bytes in memory, and
+     * the pages, the index and the search index are all written from the
+     * merged runs, in index order. Only the linker then holds every term.
+     *
+     * @param input
+     *            the input file
+     * @param out
+     *            output directory where html files will be saved
+     * @param order
+     *            the order of the terms in the index
+     * @param parallelism
+     *            number of threads in each of the link and render stages
+     * @param queueCapacity
+     *            most entries waiting between two stages
+     * @param templates
+     *            the page layouts
+     * @param shardSize
+     *            largest number of terms per index shard, or 0 for a single
+     *            index page
+     * @param search
+     *            whether to write the search index
+     * @param sortBudget
+     *            bytes of entries the sort holds in memory, or 0 to sort the
+     *            terms in memory
+     * @param stats
+     *            receives the timing of each phase
+     * @return the number of term pages written
+     * @requires out is a valid directory, parallelism >= 1,
+     *           queueCapacity >= 1, shardSize >= 0, sortBudget >= 0, and
+     *           shardSize = 0 if sortBudget > 0
+     * @ensures out holds a page for every term and the index of all terms
+     */
+    public static int build(String input, String out,
+            Comparator<String> order, int parallelism, int queueCapacity,
+            PageTemplates templates, int shardSize, boolean search,
+            long sortBudget, RunStats stats) {
+        assert parallelism >= 1 : "Violation of: parallelism >= 1";
+        assert queueCapacity >= 1 : "Violation of: queueCapacity >= 1";
+        assert sortBudget == 0 || shardSize == 0 : ""
+                + "Violation of: shardSize = 0 if sortBudget > 0";
+
+        if (sortBudget > 0) {
+            return buildSorted(input, out, order, parallelism, queueCapacity,
+                    templates, search, sortBudget, stats);
+        }
+
+        // The terms are all the linker and the index need
+        RunStats.Phase phase = stats.begin("dictionary");
+        Queue<String> terms = readTerms(input);
+        TermLinker linker = new TermLinker(terms, WordTokenizer.GLOSSARY);
+        if (order instanceof CollatedOrder) {
+            ((CollatedOrder) order).sort(terms, parallelism);
+        } else {
+            terms.sort(order);
+        }
+        phase.end(terms.length());
+
+        phase = stats.begin("index");
+        ShardedIndex index = null;
+        if (shardSize > 0) {
+            index = new ShardedIndex(terms, order, shardSize);
+            index.write(out, 1, templates);
+        } else {
+            templates.writeIndex(out, terms);
+        }
+        if (search) {
+            SearchIndex.write(out, terms);
+        }
+        phase.end(terms.length());
+
+        phase = stats.begin("pipeline");
+        int written = stream(parsed -> {
+            // Parses the entries, skipping repeated terms
+            int count = 0;
+            HashSet<String> seen = new HashSet<>();
+            try (Records records = new Records(input)) {
+                while (!records.atEnd()) {
+                    Entry entry = records.next(true);
+                    if (seen.add(entry.term)) {
+                        parsed.put(entry);
+                        count++;
+                    }
+                }
+            }
+            return count;
+        }, new ArrayList<>(), out, linker, index, parallelism, queueCapacity,
+                templates);
+        phase.end(written);
+        return written;
+    }
+
+    /**
+     * Builds the site of {@code input} into {@code out} from the entries
+     * sorted by an {@link ExternalTermSort}, writing the index and the search
+     * index in stages of their own as the sorted terms stream past.
+     *
+     * @param input
+     *            the input file
+     * @param out
+     *            output directory where html files will be saved
+     * @param order
+     *            the order of the terms
+     * @param parallelism
+     *            number of threads in each of the link and render stages
+     * @param queueCapacity
+     *            most entries waiting between two stages
+     * @param templates
+     *            the page layouts
+     * @param search
+     *            whether to write the search index
+     * @param sortBudget
+     *            bytes of entries the sort holds in memory
+     * @param stats
+     *            receives the timing of each phase
+     * @return the number of term pages written
+     */
+    private static int buildSorted(String input, String out,
+            Comparator<String> order, int parallelism, int queueCapacity,
+            PageTemplates templates, boolean search, long sortBudget,
+            RunStats stats) {
+        RunStats.Phase phase = stats.begin("sort");
+        try (ExternalTermSort sort = new ExternalTermSort(order, sortBudget)) {
+            // Spills sorted runs while collecting the terms for the linker
+            List<String> dictionary = new ArrayList<>();
+            try (Records records = new Records(input)) {
+                while (!records.atEnd()) {
+                    Entry entry = records.next(true);
+                    sort.add(entry.term, entry.definition);
+                    dictionary.add(entry.term);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not read " + input, e);
+            }
+            TermLinker linker = new TermLinker(dictionary,
+                    WordTokenizer.GLOSSARY);
+            phase.end(sort.size());
+
+            phase = stats.begin("pipeline");
+            BlockingQueue<Entry> indexed = new ArrayBlockingQueue<>(
+                    queueCapacity);
+            BlockingQueue<Entry> searched = new ArrayBlockingQueue<>(
+                    queueCapacity);
+            List<Callable<Integer>> writers = new ArrayList<>();
+            writers.add(() -> {
+                templates.writeIndex(out, drain(indexed));
+                return 0;
+            });
+            if (search) {
+                writers.add(() -> {
+                    SearchIndex.write(out, drain(searched));
+                    return 0;
+                });
+            }
+            int written = stream(parsed -> {
+                // Equal terms are next to each other, and the first one wins
+                int count = 0;
+                String previous = null;
+                try (ExternalTermSort.Merge merge = sort.merge()) {
+                    while (merge.next()) {
+                        if (!merge.term().equals(previous)) {
+                            previous = merge.term();
+                            Entry entry = new Entry(previous,
+                                    merge.definition(), null);
+                            parsed.put(entry);
+                            indexed.put(entry);
+                            if (search) {
+                                searched.put(entry);
+                            }
+                            count++;
+                        }
+                    }
+                }
+                indexed.put(END);
+                searched.put(END);
+                return count;
+            }, writers, out, linker, null, parallelism, queueCapacity,
+                    templates);
+            phase.end(written);
+            return written;
+        }
+    }
+
+    /**
+     * Returns the terms of the entries {@code queue} receives, up to
+     * {@link #END}. The result can be iterated only once.
+     *
+     * @param queue
+     *            the queue
+     * @return the terms, in the order they are received
+     */
+    private static Iterable<String> drain(BlockingQueue<Entry> queue) {
+        return () -> new Iterator<String>() {
+
+            /**
+             * The next entry, or null if it has not been taken yet.
+             */
+            private Entry next = null;
+
+            @Override
+            public boolean hasNext() {
+                if (this.next == null) {
+                    try {
+                        this.next = queue.take();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IllegalStateException("Pipeline interrupted",
+                                e);
+                    }
+                }
+                return this.next != END;
+            }
+
+            @Override
+            public String next() {
+                if (!this.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                String term = this.next.term;
+                this.next = null;
+                return term;
+            }
+        };
+    }
+
+    /**
+     * Feeds the entries of a glossary to the link stage.
+     */
+    private interface Source {
+
+        /**
+         * Puts every entry to link into {@code parsed}, each term once.
+         *
+         * @param parsed
+         *            the queue of the link stage
+         * @return the number of entries put
+         * @throws IOException
+         *             if reading fails
+         * @throws InterruptedException
+         *             if the pipeline is stopped
+         */
+        int feed(BlockingQueue<Entry> parsed)
+                throws IOException, InterruptedException;
+    }
+
+    /**
+     * Streams the entries {@code source} supplies through the link, render
+     * and write stages, next to {@code others}.
+     *
+     * @param source
+     *            supplies the entries
+     * @param others
+     *            further stages to run alongside
+     * @param out
+     *            output directory
+     * @param linker
+     *            linker over every term
+     * @param index
+     *            the sharded index the pages link back to, or null
+     * @param parallelism
+     *            number of threads in each of the link and render stages
+     * @param queueCapacity
+     *            most entries waiting between two stages
+     * @param templates
+     *            the page layouts
+     * @return the number of term pages written
+     */
+    private static int stream(Source source, List<Callable<Integer>> others,
+            String out, TermLinker linker, ShardedIndex index,
+            int parallelism, int queueCapacity, PageTemplates templates) {
+        BlockingQueue<Entry> parsed = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Entry> linked = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Entry> rendered = new ArrayBlockingQueue<>(
+                queueCapacity);
+        AtomicInteger linking = new AtomicInteger(parallelism);
+        AtomicInteger rendering = new AtomicInteger(parallelism);
+
+        List<Callable<Integer>> stages = new ArrayList<>();
+        // Feeds the entries on one thread
+        stages.add(() -> {
+            int count = source.feed(parsed);
+            for (int i = 0; i < parallelism; i++) {
+                parsed.put(END);
+            }
+            return count;
+        });
+        for (int i = 0; i < parallelism; i++) {
+            // Links definitions; the last linker to finish ends the stage
+            stages.add(() -> {
+                Entry entry = parsed.take();
+                while (entry != END) {
+                    linked.put(new Entry(entry.term,
+                            linker.link(entry.definition), null));
+                    entry = parsed.take();
+                }
+                if (linking.decrementAndGet() == 0) {
+                    for (int j = 0; j < parallelism; j++) {
+                        linked.put(END);
+                    }
+                }
+                return 0;
+            });
+            // Renders pages; the last renderer to finish ends the stage
+            stages.add(() -> {
+                Entry entry = linked.take();
+                while (entry != END) {
+                    String indexPage = index == null
+                            ? PageTemplates.INDEX_PAGE
+                            : index.pageOf(entry.term);
+                    rendered.put(new Entry(entry.term, null, templates
+                            .renderTermPage(entry.term, entry.definition,
+                                    indexPage)));
+                    entry = linked.take();
+                }
+                if (rendering.decrementAndGet() == 0) {
+                    rendered.put(END);
+                }
+                return 0;
+            });
+        }
+        // Writes the pages on one thread
+        stages.add(() -> {
+            Entry entry = rendered.take();
+            List<ByteBuffer> gather = new ArrayList<>(1);
+            while (entry != END) {
+                try (FileChannel channel = PageTemplates.open(
+                        Paths.get(out, HtmlEscaper.pageFile(entry.term)))) {
+                    gather.add(ByteBuffer.wrap(entry.page));
+                    PageTemplates.writeFully(channel, gather);
+                }
+                entry = rendered.take();
+            }
+            return 0;
+        });
+        stages.addAll(others);
+
+        return run(stages);
+    }
+
+    /**
+     * Runs every stage on its own thread until all of them finish, or until
+     * one fails, in which case the others are interrupted.
+     *
+     * @param stages
+     *            the stages; the first one returns the number of entries
+     * @return what the first stage returned
+     */
+    private static int run(List<Callable<Integer>> stages) {
+        ExecutorService pool = Executors.newFixedThreadPool(stages.size(),
+                RunStats.threadFactory());
+        try {
+            CompletionService<Integer> done = new ExecutorCompletionService<>(
+                    pool);
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (Callable<Integer> stage : stages) {
+                futures.add(done.submit(stage));
+            }
+            for (int i = 0; i < stages.size(); i++) {
+                // Stops at the first failure, whichever stage it is in
+                done.take().get();
+            }
+            return futures.get(0).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Pipeline interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw new UncheckedIOException((IOException) cause);
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,356 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import components.map.Map;
+import components.queue.Queue;
+
+/**
+ * Serves a parsed and linked glossary over a local HTTP server, rendering term
+ * pages and the index on demand instead of writing one file per term. Pages
+ * have the same names as the files {@code Glossary.main} would write, and the
+ * most recently used rendered pages are kept in a cache bounded by their total
+ * size.
+ *
+ * <p>
+ * A flat index of a very large glossary is itself very large; give the server
+ * a {@link ShardedIndex} to serve the index as small shard pages instead.
+ * </p>
+ *
+ * @author Elijah Paulman
+ *
+ */
+public final class GlossaryServer {
+
+    /**
+     * Default bound on the total size of cached pages.
+     */
+    public static final long DEFAULT_CACHE_BYTES = 64L << 20;
+
+    /**
+     * The distinct terms, in index order.
+     */
+    private final List<String> terms = new ArrayList<>();
+
+    /**
+     * Position of each term in {@link #terms}.
+     */
+    private final TermDictionary dictionary;
+
+    /**
+     * Linked definition of each term, by position in {@link #terms}.
+     */
+    private final String[] definitions;
+
+    /**
+     * The sharded index, or null to serve a single index page.
+     */
+    private final ShardedIndex index;
+
+    /**
+     * The page layouts.
+     */
+    private final PageTemplates templates;
+
+    /**
+     * Rendered pages, by file name.
+     */
+    private final PageCache cache;
+
+    /**
+     * The running server, or null when stopped.
+     */
+    private HttpServer server;
+
+    /**
+     * Threads handling requests, or null when stopped.
+     */
+    private ExecutorService executor;
+
+    /**
+     * Creates a server for a linked glossary. The glossary is copied, so
+     * {@code definitionMap} and {@code terms} may be changed afterwards.
+     *
+     * @param definitionMap
+     *            map of <term, linked definition> as strings
+     * @param terms
+     *            queue of all terms, in index order
+     * @param index
+     *            the sharded index to serve, or null for a single index page
+     * @param templates
+     *            the page layouts
+     * @param cacheBytes
+     *            bound on the total size of cached pages
+     * @requires every term in terms is a key of definitionMap, index (if not
+     *           null) lists every term, cacheBytes >= 0
+     */
+    public GlossaryServer(Map<String, String> definitionMap,
+            Queue<String> terms, ShardedIndex index, PageTemplates templates,
+            long cacheBytes) {
+        assert cacheBytes >= 0 : "Violation of: cacheBytes >= 0";
+
+        // Snapshots the glossary so request threads never touch the map
+        HashSet<String> seen = new HashSet<>();
+        for (String term : terms) {
+            if (seen.add(term)) {
+                this.terms.add(term);
+            }
+        }
+        this.dictionary = new TermDictionary(this.terms);
+        this.definitions = new String[this.terms.size()];
+        for (int i = 0; i < this.definitions.length; i++) {
+            this.definitions[i] = definitionMap.value(this.terms.get(i));
+        }
+        this.index = index;
+        this.templates = templates;
+        this.cache = new PageCache(cacheBytes);
+    }
+
+    /**
+     * Starts serving on {@code port} of the loopback address.
+     *
+     * @param port
+     *            the port, or 0 for any free port
+     * @param threads
+     *            number of threads handling requests
+     * @return the port the server listens on
+     * @throws IOException
+     *             if the port cannot be bound
+     * @requires the server is stopped, 0 <= port <= 65535, threads >= 1
+     */
+    public int start(int port, int threads) throws IOException {
+        assert this.server == null : "Violation of: the server is stopped";
+        assert threads >= 1 : "Violation of: threads >= 1";
+
+        this.server = HttpServer.create(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+                0);
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.server.setExecutor(this.executor);
+        this.server.createContext("/", this::handle);
+        this.server.start();
+        return this.server.getAddress().getPort();
+    }
+
+    /**
+     * Stops serving, waiting briefly for requests in progress.
+     */
+    public void stop() {
+        if (this.server != null) {
+            this.server.stop(1);
+            this.executor.shutdown();
+            this.server = null;
+            this.executor = null;
+        }
+    }
+
+    /**
+     * Answers one request with the page it names.
+     *
+     * @param exchange
+     *            the request and its response
+     * @throws IOException
+     *             if the response cannot be sent
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            boolean head = method.equals("HEAD");
+            if (!head && !method.equals("GET")) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            // The path is already percent-decoded
+            String path = exchange.getRequestURI().getPath();
+            String fileName = path.equals("/") ? PageTemplates.INDEX_PAGE
+                    : path.substring(1);
+            byte[] page = this.page(fileName);
+            if (page == null) {
+                byte[] message = ("No page " + fileName)
+                        .getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type",
+                        "text/plain; charset=UTF-8");
+                exchange.sendResponseHeaders(404,
+                        head ? -1 : message.length);
+                if (!head) {
+                    exchange.getResponseBody().write(message);
+                }
+                return;
+            }
+
+            exchange.getResponseHeaders().set("Content-Type",
+                    "text/html; charset=" + this.templates.charset().name());
+            exchange.sendResponseHeaders(200, head ? -1 : page.length);
+            if (!head) {
+                OutputStream body = exchange.getResponseBody();
+                body.write(page);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Returns page {@code fileName}, from the cache or freshly rendered.
+     *
+     * @param fileName
+     *            file name of the page
+     * @return the encoded page, or null if there is no such page
+     */
+    byte[] page(String fileName) {
+        byte[] page = this.cache.get(fileName);
+        if (page == null) {
+            page = this.render(fileName);
+            if (page != null) {
+                this.cache.put(fileName, page);
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Renders page {@code fileName}. Index pages take precedence over term
+     * pages of the same name, as when the site is written to disk.
+     *
+     * @param fileName
+     *            file name of the page
+     * @return the encoded page, or null if there is no such page
+     */
+    private byte[] render(String fileName) {
+        if (this.index != null) {
+            byte[] page = this.index.render(fileName, this.templates);
+            if (page != null) {
+                return page;
+            }
+        } else if (fileName.equals(PageTemplates.INDEX_PAGE)) {
+            return this.templates.renderIndexPage(this.terms);
+        }
+
+        if (!fileName.endsWith(".html")) {
+            return null;
+        }
+        int end = fileName.length() - ".html".length();
+        int id;
+        if (fileName.indexOf('%') < 0) {
+            // Most page names are the term itself
+            id = this.dictionary.id(fileName, 0, end);
+        } else {
+            String term = HtmlEscaper.termOfPage(fileName, 0, end);
+            id = term == null ? -1 : this.dictionary.id(term);
+        }
+        if (id < 0) {
+            return null;
+        }
+        String term = this.terms.get(id);
+        if (!HtmlEscaper.pageFile(term).equals(fileName)) {
+            // Not the name the page of term is written under
+            return null;
+        }
+        String definition = this.definitions[id];
+        String indexPage = this.index == null ? PageTemplates.INDEX_PAGE
+                : this.index.pageOf(term);
+        return this.templates.renderTermPage(term, definition, indexPage);
+    }
+
+    /**
+     * Returns the total size of the pages in the cache.
+     *
+     * @return the cached bytes
+     */
+    long cachedBytes() {
+        return this.cache.bytes();
+    }
+
+    /**
+     * Least recently used cache of rendered pages, bounded by their total
+     * size. Pages bigger than the whole bound are never cached.
+     */
+    private static final class PageCache {
+
+        /**
+         * Pages in access order, least recently used first.
+         */
+        private final LinkedHashMap<String, byte[]> pages = new LinkedHashMap<>(
+                16, 0.75f, true);
+
+        /**
+         * Bound on the total size of the pages.
+         */
+        private final long capacity;
+
+        /**
+         * Total size of the pages.
+         */
+        private long bytes = 0;
+
+        /**
+         * Creates an empty cache.
+         *
+         * @param capacity
+         *            bound on the total size of the pages
+         */
+        PageCache(long capacity) {
+            this.capacity = capacity;
+        }
+
+        /**
+         * Returns the page named {@code fileName}, marking it as most recently
+         * used.
+         *
+         * @param fileName
+         *            file name of the page
+         * @return the page, or null if it is not cached
+         */
+        synchronized byte[] get(String fileName) {
+            return this.pages.get(fileName);
+        }
+
+        /**
+         * Caches {@code page}, evicting the least recently used pages until
+         * it fits.
+         *
+         * @param fileName
+         *            file name of the page
+         * @param page
+         *            the page
+         */
+        synchronized void put(String fileName, byte[] page) {
+            if (page.length > this.capacity) {
+                return;
+            }
+            byte[] old = this.pages.put(fileName, page);
+            if (old != null) {
+                this.bytes -= old.length;
+            }
+            this.bytes += page.length;
+            Iterator<byte[]> eldest = this.pages.values().iterator();
+            while (this.bytes > this.capacity) {
+                this.bytes -= eldest.next().length;
+                eldest.remove();
+            }
+        }
+
+        /**
+         * Returns the total size of the pages.
+         *
+         * @return the cached bytes
+         */
+        synchronized long bytes() {
+            return this.bytes;
+        }
+    }
+}
@@ -0,0 +1,392 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+import components.map.Map;
+import components.queue.Queue;
+
+/**
+ * Binary snapshot of a parsed, sorted and linked glossary, so a later run on
+ * the same input can skip parsing, sorting and linking. A snapshot is memory
+ * mapped when loaded, and terms and definitions are decoded only when asked
+ * for.
+ *
+ * <p>
+ * A snapshot records the length and a checksum of the input file and the
+ * order the terms were sorted in, so it is only used for the same input and
+ * order (see {@link Key}). It also has a version number and a checksum of its
+ * own contents; a snapshot that is stale, from another version, or damaged is
+ * ignored, and the glossary is rebuilt from the input.
+ * </p>
+ *
+ * <p>
+ * Layout (big-endian): a {@value #HEADER_SIZE}-byte header holding the magic
+ * bytes, version, term count, input length, input checksum, body length and
+ * body checksum; then the body: the order name (length and UTF-8 bytes), the
+ * start offsets of the terms and of the definitions in the data (one more
+ * than the count each), and the data, all terms then all definitions, in
+ * UTF-8.
+ * </p>
+ *
+ * @author Elijah Paulman
+ *
+ */
+public final class GlossarySnapshot {
+
+    /**
+     * Version of the snapshot format.
+     */
+    public static final int VERSION = 2;
+
+    /**
+     * Bytes identifying a snapshot file.
+     */
+    private static final byte[] MAGIC = "GLOSSNAP"
+            .getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Size of the header.
+     */
+    private static final int HEADER_SIZE = 48;
+
+    /**
+     * Number of terms.
+     */
+    private final int count;
+
+    /**
+     * Offset in {@link #data} of each term, then of the end of the terms.
+     */
+    private final int[] termStart;
+
+    /**
+     * Offset in {@link #data} of each definition (after all the terms), then
+     * of the end of the definitions.
+     */
+    private final int[] definitionStart;
+
+    /**
+     * The mapped data: all terms, then all definitions.
+     */
+    private final ByteBuffer data;
+
+    /**
+     * What a snapshot was made from: the input file's length and checksum and
+     * the name of the term order.
+     */
+    public static final class Key {
+
+        /**
+         * Length of the input file.
+         */
+        private final long inputLength;
+
+        /**
+         * CRC-32C checksum of the input file.
+         */
+        private final long inputChecksum;
+
+        /**
+         * Name of the order the terms are sorted in.
+         */
+        private final String order;
+
+        /**
+         * Creates a key.
+         *
+         * @param inputLength
+         *            length of the input file
+         * @param inputChecksum
+         *            checksum of the input file
+         * @param order
+         *            name of the term order
+         */
+        private Key(long inputLength, long inputChecksum, String order) {
+            this.inputLength = inputLength;
+            this.inputChecksum = inputChecksum;
+            this.order = order;
+        }
+
+        /**
+         * Returns the key of {@code input} as it is now, sorted in
+         * {@code order}. Computing it reads the whole input once, which is
+         * much cheaper than parsing it.
+         *
+         * @param input
+         *            the input file
+         * @param order
+         *            name of the term order
+         * @return the key
+         */
+        public static Key of(String input, String order) {
+            try (FileChannel channel = FileChannel.open(Paths.get(input),
+                    StandardOpenOption.READ)) {
+                CRC32C crc = new CRC32C();
+                ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+                while (channel.read(buffer) >= 0) {
+                    buffer.flip();
+                    crc.update(buffer);
+                    buffer.clear();
+                }
+                return new Key(channel.size(), crc.getValue(), order);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not read " + input, e);
+            }
+        }
+    }
+
+    /**
+     * Creates a loaded snapshot.
+     *
+     * @param count
+     *            number of terms
+     * @param termStart
+     *            term offsets
+     * @param definitionStart
+     *            definition offsets
+     * @param data
+     *            the mapped data
+     */
+    private GlossarySnapshot(int count, int[] termStart,
+            int[] definitionStart, ByteBuffer data) {
+        this.count = count;
+        this.termStart = termStart;
+        this.definitionStart = definitionStart;
+        this.data = data;
+    }
+
+    /**
+     * Saves the linked glossary as a snapshot in {@code file}, replacing any
+     * old one only once the new one is complete.
+     *
+     * @param file
+     *            the snapshot file
+     * @param key
+     *            what the glossary was built from
+     * @param definitionMap
+     *            map of <term, linked definition> as strings
+     * @param terms
+     *            all terms, in index order
+     * @requires every term is a key of definitionMap
+     */
+    public static void save(String file, Key key,
+            Map<String, String> definitionMap, Queue<String> terms) {
+        // Encodes each distinct term and its definition
+        HashSet<String> seen = new HashSet<>();
+        List<byte[]> termBytes = new ArrayList<>();
+        List<byte[]> definitionBytes = new ArrayList<>();
+        for (String term : terms) {
+            if (seen.add(term)) {
+                termBytes.add(term.getBytes(StandardCharsets.UTF_8));
+                definitionBytes.add(definitionMap.value(term)
+                        .getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        int count = termBytes.size();
+        byte[] order = key.order.getBytes(StandardCharsets.UTF_8);
+
+        Path target = Paths.get(file);
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            // Writes the body after room for the header, checksumming it
+            channel.position(HEADER_SIZE);
+            CRC32C crc = new CRC32C();
+            DataOutputStream body = new DataOutputStream(
+                    new CheckedOutputStream(new BufferedOutputStream(
+                            Channels.newOutputStream(channel), 1 << 16), crc));
+            body.writeInt(order.length);
+            body.write(order);
+            // Definition offsets continue after the last term
+            long offset = 0;
+            for (List<byte[]> strings : List.of(termBytes, definitionBytes)) {
+                for (byte[] s : strings) {
+                    body.writeInt((int) offset);
+                    offset += s.length;
+                    if (offset > Integer.MAX_VALUE) {
+                        throw new IllegalArgumentException(
+                                "Glossary too large for a snapshot");
+                    }
+                }
+                body.writeInt((int) offset);
+            }
+            for (List<byte[]> strings : List.of(termBytes, definitionBytes)) {
+                for (byte[] s : strings) {
+                    body.write(s);
+                }
+            }
+            body.flush();
+            long bodyLength = channel.position() - HEADER_SIZE;
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.put(MAGIC).putInt(VERSION).putInt(count)
+                    .putLong(key.inputLength).putLong(key.inputChecksum)
+                    .putLong(bodyLength).putLong(crc.getValue());
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write " + temp, e);
+        }
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not replace " + target, e);
+        }
+    }
+
+    /**
+     * Loads the snapshot in {@code file} if it was made from what
+     * {@code key} describes.
+     *
+     * @param file
+     *            the snapshot file
+     * @param key
+     *            what the glossary must have been built from
+     * @return the snapshot, or null if there is none, or it is stale, from
+     *         another version, or damaged
+     */
+    public static GlossarySnapshot load(String file, Key key) {
+        Path path = Paths.get(file);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE
+                    || channel.size() > Integer.MAX_VALUE) {
+                return null;
+            }
+            // The mapping stays valid after the channel is closed
+            ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+            byte[] magic = new byte[MAGIC.length];
+            bytes.get(magic);
+            if (!Arrays.equals(magic, MAGIC)
+                    || bytes.getInt() != VERSION) {
+                return null;
+            }
+            int count = bytes.getInt();
+            long inputLength = bytes.getLong();
+            long inputChecksum = bytes.getLong();
+            long bodyLength = bytes.getLong();
+            long bodyChecksum = bytes.getLong();
+            if (inputLength != key.inputLength
+                    || inputChecksum != key.inputChecksum
+                    || bodyLength != channel.size() - HEADER_SIZE) {
+                return null;
+            }
+            CRC32C crc = new CRC32C();
+            crc.update(bytes.duplicate());
+            if (crc.getValue() != bodyChecksum) {
+                return null;
+            }
+
+            byte[] order = new byte[bytes.getInt()];
+            bytes.get(order);
+            if (!key.order.equals(new String(order, StandardCharsets.UTF_8))) {
+                return null;
+            }
+            int[] termStart = new int[count + 1];
+            int[] definitionStart = new int[count + 1];
+            bytes.asIntBuffer().get(termStart);
+            bytes.position(bytes.position() + 4 * (count + 1));
+            bytes.asIntBuffer().get(definitionStart);
+            bytes.position(bytes.position() + 4 * (count + 1));
+            return new GlossarySnapshot(count, termStart, definitionStart,
+                    bytes.slice());
+        } catch (IOException | RuntimeException e) {
+            // A snapshot that cannot be read only costs a rebuild
+            return null;
+        }
+    }
+
+    /**
+     * Returns the number of terms.
+     *
+     * @return the number of terms
+     */
+    public int size() {
+        return this.count;
+    }
+
+    /**
+     * Decodes {@code data[from, to)}.
+     *
+     * @param from
+     *            start offset
+     * @param to
+     *            end offset
+     * @return the decoded string
+     */
+    private String decode(int from, int to) {
+        byte[] bytes = new byte[to - from];
+        ByteBuffer view = this.data.duplicate();
+        view.position(from);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns term {@code i}, in index order.
+     *
+     * @param i
+     *            the position of the term
+     * @return the term
+     * @requires 0 <= i < size()
+     */
+    public String term(int i) {
+        return this.decode(this.termStart[i], this.termStart[i + 1]);
+    }
+
+    /**
+     * Returns the linked definition of term {@code i}.
+     *
+     * @param i
+     *            the position of the term
+     * @return the linked definition
+     * @requires 0 <= i < size()
+     */
+    public String definition(int i) {
+        return this.decode(this.definitionStart[i],
+                this.definitionStart[i + 1]);
+    }
+
+    /**
+     * Adds every term and its linked definition to {@code definitionMap} and
+     * {@code terms}, in index order.
+     *
+     * @param definitionMap
+     *            map of <term, linked definition> as strings
+     * @param terms
+     *            queue of terms
+     * @updates definitionMap, terms
+     * @requires definitionMap has none of the terms
+     */
+    public void fill(Map<String, String> definitionMap, Queue<String> terms) {
+        for (int i = 0; i < this.count; i++) {
+            String term = this.term(i);
+            definitionMap.add(term, this.definition(i));
+            terms.enqueue(term);
+        }
+    }
+}
@@ -0,0 +1,549 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import components.simplewriter.SimpleWriter;
+
+/**
+ * Keeps a glossary site up to date while its input file is edited. The parsed
+ * glossary, the terms each definition links to, and the reverse of that are
+ * kept in memory. On every change only the region of the file that differs is
+ * re-parsed, and only the affected pages are rewritten: the pages of added and
+ * changed terms, the pages that linked to removed terms, the pages whose
+ * definitions mention an added term, and the index if the set of terms
+ * changed.
+ *
+ * @author Elijah Paulman
+ *
+ */
+public final class GlossaryWatcher {
+
+    /**
+     * How long to wait for more events after a change, so an editor saving in
+     * several steps causes a single update.
+     */
+    private static final long SETTLE_MILLIS = 50;
+
+    /**
+     * Above one in this many definitions being relinked, a linker over every
+     * term is cheaper than one per update.
+     */
+    private static final int FULL_LINK_RATIO = 8;
+
+    /**
+     * Most added terms looked for by plain substring search before a linker
+     * checks their boundaries.
+     */
+    private static final int FEW_TERMS = 8;
+
+    /**
+     * The input file.
+     */
+    private final Path input;
+
+    /**
+     * Output directory where html files are saved.
+     */
+    private final String out;
+
+    /**
+     * Number of threads writing pages.
+     */
+    private final int parallelism;
+
+    /**
+     * The page layouts.
+     */
+    private final PageTemplates templates;
+
+    /**
+     * Text of the input file as last parsed.
+     */
+    private String text = "";
+
+    /**
+     * Offset in text where each record starts, in input order.
+     */
+    private final List<Integer> recordStarts = new ArrayList<>();
+
+    /**
+     * Term of each record, in input order.
+     */
+    private final List<String> recordTerms = new ArrayList<>();
+
+    /**
+     * Unlinked definition of each term.
+     */
+    private final HashMap<String, String> definitions = new HashMap<>();
+
+    /**
+     * The terms, in index order.
+     */
+    private final TreeSet<String> sorted = new TreeSet<>(
+            new Glossary.AlphabeticalSort());
+
+    /**
+     * Terms each term's definition links to.
+     */
+    private final HashMap<String, String[]> links = new HashMap<>();
+
+    /**
+     * Terms whose definitions link to each term.
+     */
+    private final HashMap<String, HashSet<String>> linkedFrom = new HashMap<>();
+
+    /**
+     * Length of the longest term ever added (an upper bound on the longest
+     * current term).
+     */
+    private int maxTermLength = 0;
+
+    /**
+     * Whether the site has been built once.
+     */
+    private boolean built = false;
+
+    /**
+     * Creates a watcher. Nothing is read or written until {@link #update()}.
+     *
+     * @param input
+     *            the input .txt file
+     * @param out
+     *            output directory where html files will be saved
+     * @param parallelism
+     *            number of threads writing pages
+     * @param templates
+     *            the page layouts
+     * @requires out is a valid directory, parallelism >= 1
+     */
+    public GlossaryWatcher(String input, String out, int parallelism,
+            PageTemplates templates) {
+        assert parallelism >= 1 : "Violation of: parallelism >= 1";
+
+        this.input = Paths.get(input);
+        this.out = out;
+        this.parallelism = parallelism;
+        this.templates = templates;
+    }
+
+    /**
+     * Re-reads the input file and rewrites the pages affected by what changed
+     * since the last update (every page on the first update).
+     *
+     * @return the number of term pages written
+     * @throws IllegalArgumentException
+     *             if the file now has a term twice; nothing is changed, and
+     *             the next update compares against the last good file
+     */
+    public int update() {
+        String next = read(this.input);
+
+        // Finds the differing region, widened to whole records
+        int limit = Math.min(this.text.length(), next.length());
+        int prefix = 0;
+        while (prefix < limit
+                && this.text.charAt(prefix) == next.charAt(prefix)) {
+            prefix++;
+        }
+        if (prefix == this.text.length() && prefix == next.length()
+                && this.built) {
+            return 0;
+        }
+        int suffix = 0;
+        while (suffix < limit - prefix
+                && this.text.charAt(this.text.length() - 1 - suffix) == next
+                        .charAt(next.length() - 1 - suffix)) {
+            suffix++;
+        }
+        int first = Math.max(0, this.lastRecordAtOrBefore(prefix));
+        // The blank line before the first unchanged record must be unchanged
+        int end = this.firstRecordAtOrAfter(this.text.length() - suffix + 3);
+        int from = first < this.recordStarts.size()
+                ? this.recordStarts.get(first)
+                : 0;
+        int oldTo = end < this.recordStarts.size() ? this.recordStarts.get(end)
+                : this.text.length();
+        int newTo = oldTo + next.length() - this.text.length();
+
+        List<String> newTerms = new ArrayList<>();
+        List<String> newDefinitions = new ArrayList<>();
+        List<Integer> newStarts = new ArrayList<>();
+        MappedGlossaryParser.parse(next.substring(from, newTo), newTerms,
+                newDefinitions, newStarts);
+        if (end < this.recordStarts.size()
+                && !endsRecord(next, from, newTo, newDefinitions)) {
+            // The edit merged records across the region end; parses it all
+            first = 0;
+            end = this.recordStarts.size();
+            from = 0;
+            oldTo = this.text.length();
+            newTo = next.length();
+            newTerms.clear();
+            newDefinitions.clear();
+            newStarts.clear();
+            MappedGlossaryParser.parse(next, newTerms, newDefinitions,
+                    newStarts);
+        }
+
+        // Compares the old and new records of the region
+        HashMap<String, String> oldRegion = new HashMap<>();
+        for (String term : this.recordTerms.subList(first, end)) {
+            oldRegion.put(term, this.definitions.get(term));
+        }
+        LinkedHashMap<String, String> newRegion = new LinkedHashMap<>();
+        for (int i = 0; i < newTerms.size(); i++) {
+            String term = newTerms.get(i);
+            if (newRegion.put(term, newDefinitions.get(i)) != null
+                    || (!oldRegion.containsKey(term)
+                            && this.definitions.containsKey(term))) {
+                throw new IllegalArgumentException(
+                        "Duplicate term \"" + term + "\"");
+            }
+        }
+        List<String> added = new ArrayList<>();
+        List<String> changed = new ArrayList<>();
+        for (Map.Entry<String, String> e : newRegion.entrySet()) {
+            String old = oldRegion.get(e.getKey());
+            if (old == null) {
+                added.add(e.getKey());
+            } else if (!old.equals(e.getValue())) {
+                changed.add(e.getKey());
+            }
+        }
+        List<String> removed = new ArrayList<>();
+        for (String term : oldRegion.keySet()) {
+            if (!newRegion.containsKey(term)) {
+                removed.add(term);
+            }
+        }
+
+        // Applies the change to the records
+        this.text = next;
+        int shift = newTo - oldTo;
+        for (int i = end; i < this.recordStarts.size(); i++) {
+            this.recordStarts.set(i, this.recordStarts.get(i) + shift);
+        }
+        for (int i = 0; i < newStarts.size(); i++) {
+            newStarts.set(i, newStarts.get(i) + from);
+        }
+        List<Integer> startsOfRegion = this.recordStarts.subList(first, end);
+        startsOfRegion.clear();
+        startsOfRegion.addAll(newStarts);
+        List<String> termsOfRegion = this.recordTerms.subList(first, end);
+        termsOfRegion.clear();
+        termsOfRegion.addAll(newTerms);
+        for (String term : removed) {
+            this.definitions.remove(term);
+            this.sorted.remove(term);
+        }
+        this.definitions.putAll(newRegion);
+        this.sorted.addAll(added);
+        for (String term : added) {
+            this.maxTermLength = Math.max(this.maxTermLength, term.length());
+        }
+
+        return this.rewrite(added, changed, removed);
+    }
+
+    /**
+     * Relinks and rewrites the pages affected by a change, deletes the pages
+     * of removed terms, and rewrites the index if the terms changed.
+     *
+     * @param added
+     *            terms that were added
+     * @param changed
+     *            terms whose definitions changed
+     * @param removed
+     *            terms that were removed
+     * @return the number of term pages written
+     */
+    private int rewrite(List<String> added, List<String> changed,
+            List<String> removed) {
+        boolean firstUpdate = !this.built;
+        boolean termsChanged = !added.isEmpty() || !removed.isEmpty();
+
+        HashSet<String> dirty = new HashSet<>(added);
+        dirty.addAll(changed);
+        for (String term : removed) {
+            // Pages that linked to a removed term lose that link
+            HashSet<String> sources = this.linkedFrom.remove(term);
+            if (sources != null) {
+                dirty.addAll(sources);
+            }
+            this.unlink(term);
+        }
+        dirty.removeAll(removed);
+        if (!added.isEmpty() && !firstUpdate) {
+            // Unchanged definitions that now mention an added term
+            TermLinker addedLinker = new TermLinker(added,
+                    WordTokenizer.GLOSSARY);
+            for (Map.Entry<String, String> e : this.definitions
+                    .entrySet()) {
+                if (!dirty.contains(e.getKey())
+                        && containsAny(e.getValue(), added)
+                        && addedLinker.occursIn(e.getValue())) {
+                    dirty.add(e.getKey());
+                }
+            }
+        }
+
+        // Relinks the dirty definitions, keeping the link maps current. A few
+        // definitions only need a linker over the terms they contain
+        String[] pageTerms = dirty.toArray(new String[dirty.size()]);
+        String[] pageDefinitions = new String[pageTerms.length];
+        TermLinker linker = firstUpdate
+                || pageTerms.length > this.definitions.size() / FULL_LINK_RATIO
+                        ? new TermLinker(this.sorted, WordTokenizer.GLOSSARY)
+                        : this.linkerFor(pageTerms);
+        for (int i = 0; i < pageTerms.length; i++) {
+            String term = pageTerms[i];
+            this.unlink(term);
+            HashSet<String> targets = new HashSet<>();
+            StringBuilder linked = new StringBuilder();
+            linker.link(this.definitions.get(term), linked,
+                    id -> targets.add(linker.term(id)));
+            for (String target : targets) {
+                this.linkedFrom.computeIfAbsent(target, k -> new HashSet<>())
+                        .add(term);
+            }
+            this.links.put(term, targets.toArray(new String[targets.size()]));
+            pageDefinitions[i] = linked.toString();
+        }
+
+        ParallelPageWriter.writeAll(pageTerms, pageDefinitions, this.out,
+                this.parallelism, this.templates);
+        for (String term : removed) {
+            try {
+                Files.deleteIfExists(
+                        Paths.get(this.out, HtmlEscaper.pageFile(term)));
+            } catch (IOException e) {
+                throw new UncheckedIOException(
+                        "Could not delete page for \"" + term + "\"", e);
+            }
+        }
+        if (termsChanged
+                || !Files.exists(Paths.get(this.out, PageTemplates.INDEX_PAGE))) {
+            this.templates.writeIndex(this.out, this.sorted);
+        }
+        this.built = true;
+        return pageTerms.length;
+    }
+
+    /**
+     * Returns a linker over just the terms that occur, on token boundaries,
+     * in the definitions of {@code pageTerms}. It links those definitions
+     * exactly as a linker over every term would, and is much cheaper to build
+     * for a few definitions.
+     *
+     * @param pageTerms
+     *            the terms whose definitions will be linked
+     * @return the linker
+     */
+    private TermLinker linkerFor(String[] pageTerms) {
+        WordTokenizer tokenizer = WordTokenizer.GLOSSARY;
+        HashSet<String> candidates = new HashSet<>();
+        List<Integer> boundaries = new ArrayList<>();
+        for (String term : pageTerms) {
+            String definition = this.definitions.get(term);
+            boundaries.clear();
+            for (int b = 0; b < definition.length(); b = tokenizer
+                    .tokenEnd(definition, b)) {
+                boundaries.add(b);
+            }
+            boundaries.add(definition.length());
+            // Tries every span between two boundaries that could be a term
+            for (int i = 0; i < boundaries.size(); i++) {
+                int start = boundaries.get(i);
+                for (int j = i + 1; j < boundaries.size()
+                        && boundaries.get(j) - start <= this.maxTermLength; j++) {
+                    String span = definition.substring(start, boundaries.get(j));
+                    if (this.definitions.containsKey(span)) {
+                        candidates.add(span);
+                    }
+                }
+            }
+        }
+        return new TermLinker(candidates, WordTokenizer.GLOSSARY);
+    }
+
+    /**
+     * Returns whether {@code text} contains any of {@code terms} anywhere,
+     * which a plain substring search answers faster than a linker when there
+     * are only a few terms.
+     *
+     * @param text
+     *            the text
+     * @param terms
+     *            the terms
+     * @return false only if no term occurs in text
+     */
+    private static boolean containsAny(String text, List<String> terms) {
+        if (terms.size() > FEW_TERMS) {
+            return true;
+        }
+        for (String term : terms) {
+            if (text.contains(term)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Forgets the links out of {@code term}'s definition.
+     *
+     * @param term
+     *            the term
+     */
+    private void unlink(String term) {
+        String[] targets = this.links.remove(term);
+        if (targets != null) {
+            for (String target : targets) {
+                HashSet<String> sources = this.linkedFrom.get(target);
+                if (sources != null) {
+                    sources.remove(term);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the last record starting at or before
+     * {@code offset}, or -1 if there is none.
+     *
+     * @param offset
+     *            offset in the old text
+     * @return the record index
+     */
+    private int lastRecordAtOrBefore(int offset) {
+        int found = Collections.binarySearch(this.recordStarts, offset);
+        return found >= 0 ? found : -found - 2;
+    }
+
+    /**
+     * Returns the index of the first record starting at or after
+     * {@code offset}, or the number of records if there is none.
+     *
+     * @param offset
+     *            offset in the old text
+     * @return the record index
+     */
+    private int firstRecordAtOrAfter(int offset) {
+        int found = Collections.binarySearch(this.recordStarts, offset);
+        return found >= 0 ? found : -found - 1;
+    }
+
+    /**
+     * Returns whether {@code text[from, to)} ends with the blank line that
+     * ends a record, so parsing it alone splits records as parsing all of
+     * text does.
+     *
+     * @param text
+     *            the new text
+     * @param from
+     *            start of the region
+     * @param to
+     *            end of the region
+     * @param definitions
+     *            definitions parsed from the region
+     * @return true iff the region ends after a record's closing blank line
+     */
+    private static boolean endsRecord(String text, int from, int to,
+            List<String> definitions) {
+        // A record with an empty first definition line absorbs a blank line
+        for (String definition : definitions) {
+            if (definition.isEmpty()) {
+                return false;
+            }
+        }
+        int i = to - 1;
+        if (i < from || text.charAt(i) != '\n') {
+            return false;
+        }
+        i--;
+        if (i >= from && text.charAt(i) == '\r') {
+            i--;
+        }
+        return i >= from && text.charAt(i) == '\n';
+    }
+
+    /**
+     * Reads all of {@code file}.
+     *
+     * @param file
+     *            the file
+     * @return the text of file
+     */
+    private static String read(Path file) {
+        try {
+            return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + file, e);
+        }
+    }
+
+    /**
+     * Updates the site every time the input file changes, until the thread is
+     * interrupted. Each update, or the reason one was skipped, is reported to
+     * {@code log}.
+     *
+     * @param log
+     *            where to report updates
+     */
+    public void watch(SimpleWriter log) {
+        Path dir = this.input.toAbsolutePath().getParent();
+        Path name = this.input.getFileName();
+        try (WatchService watcher = FileSystems.getDefault()
+                .newWatchService()) {
+            dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            while (true) {
+                // Waits for a change, then lets the file settle
+                WatchKey key = watcher.take();
+                boolean touched = false;
+                while (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        touched |= event
+                                .kind() == StandardWatchEventKinds.OVERFLOW
+                                || name.equals(event.context());
+                    }
+                    key.reset();
+                    key = watcher.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                if (touched) {
+                    long start = System.nanoTime();
+                    try {
+                        int written = this.update();
+                        log.println("Updated " + written + " pages in "
+                                + (System.nanoTime() - start) / 1000000
+                                + " ms");
+                    } catch (IllegalArgumentException
+                            | UncheckedIOException e) {
+                        log.println("Skipped update: " + e.getMessage());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not watch " + dir, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,417 @@
+/**
+ * Escapes terms for the generated pages: as html text, as attribute values,
+ * and as the file name and URL of a term's page (definitions are html, and
+ * are written as is). Every character is classified with a lookup table, runs
+ * of characters that need no escape are appended to the output in one call,
+ * and text that needs no escape at all is returned as is, so the common case
+ * copies nothing.
+ *
+ * <p>
+ * The page of a term is named after the term, except that characters file
+ * systems reject (and {@code %} itself) are written as {@code %} and two hex
+ * digits. The URL of a page percent-encodes its name as UTF-8, but for
+ * spaces, which are safe in the quoted attributes URLs are written in.
+ * </p>
+ *
+ * @author Elijah Paulman
+ *
+ */
+public final class HtmlEscaper {
+
+    /**
+     * Character copied as is into a URL.
+     */
+    private static final byte COPY = 0;
+
+    /**
+     * Character percent-encoded in a URL.
+     */
+    private static final byte ENCODE = 1;
+
+    /**
+     * Character percent-encoded in a page file name, so twice in its URL.
+     */
+    private static final byte FILE = 2;
+
+    /**
+     * Extension of a page file.
+     */
+    private static final String PAGE_EXTENSION = ".html";
+
+    /**
+     * Replacement of each ASCII character in html text, or null to copy it.
+     */
+    private static final String[] TEXT = new String[128];
+
+    /**
+     * Replacement of each ASCII character in an attribute value, or null to
+     * copy it.
+     */
+    private static final String[] ATTRIBUTE = new String[128];
+
+    /**
+     * How each ASCII character is written in a URL.
+     */
+    private static final byte[] URL = new byte[128];
+
+    /**
+     * Hex digits of percent escapes.
+     */
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    static {
+        TEXT['&'] = "&amp;";
+        TEXT['<'] = "&lt;";
+        TEXT['>'] = "&gt;";
+        System.arraycopy(TEXT, 0, ATTRIBUTE, 0, TEXT.length);
+        ATTRIBUTE['"'] = "&quot;";
+        ATTRIBUTE['\''] = "&#39;";
+
+        for (int c = 0; c < URL.length; c++) {
+            if (c < ' ' || c == 0x7f) {
+                URL[c] = FILE;
+            } else if ("#&[]^`{}".indexOf(c) >= 0) {
+                URL[c] = ENCODE;
+            } else if ("%/\\:*?\"<>|".indexOf(c) >= 0) {
+                URL[c] = FILE;
+            }
+        }
+    }
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private HtmlEscaper() {
+
+    }
+
+    /**
+     * Appends {@code text[from, to)} to {@code out}, escaped as html text.
+     *
+     * @param out
+     *            the output
+     * @param text
+     *            the text
+     * @param from
+     *            start of the range
+     * @param to
+     *            end of the range
+     * @updates out
+     * @requires 0 <= from <= to <= |text|
+     */
+    public static void appendText(StringBuilder out, CharSequence text,
+            int from, int to) {
+        append(out, text, from, to, TEXT);
+    }
+
+    /**
+     * Returns {@code text} escaped as html text.
+     *
+     * @param text
+     *            the text
+     * @return the escaped text, which is text itself if nothing needed
+     *         escaping
+     */
+    public static String text(String text) {
+        return escape(text, TEXT);
+    }
+
+    /**
+     * Returns {@code text} escaped as a quoted attribute value.
+     *
+     * @param text
+     *            the text
+     * @return the escaped text, which is text itself if nothing needed
+     *         escaping
+     */
+    public static String attribute(String text) {
+        return escape(text, ATTRIBUTE);
+    }
+
+    /**
+     * Appends {@code text[from, to)} to {@code out}, replacing characters
+     * with their entry in {@code table}.
+     *
+     * @param out
+     *            the output
+     * @param text
+     *            the text
+     * @param from
+     *            start of the range
+     * @param to
+     *            end of the range
+     * @param table
+     *            replacement of each ASCII character, or null to copy it
+     */
+    private static void append(StringBuilder out, CharSequence text, int from,
+            int to, String[] table) {
+        int copied = from;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c < table.length && table[c] != null) {
+                out.append(text, copied, i).append(table[c]);
+                copied = i + 1;
+            }
+        }
+        out.append(text, copied, to);
+    }
+
+    /**
+     * Returns {@code text} with characters replaced by their entry in
+     * {@code table}.
+     *
+     * @param text
+     *            the text
+     * @param table
+     *            replacement of each ASCII character, or null to copy it
+     * @return the escaped text, or text itself if nothing needed escaping
+     */
+    private static String escape(String text, String[] table) {
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < table.length && table[c] != null) {
+                StringBuilder out = new StringBuilder(length + 16);
+                out.append(text, 0, i);
+                append(out, text, i, length, table);
+                return out.toString();
+            }
+        }
+        return text;
+    }
+
+    /**
+     * Returns the name of the page file of {@code term}, without its
+     * extension.
+     *
+     * @param term
+     *            the term
+     * @return the page name, which is term itself if every character is safe
+     *         in a file name
+     */
+    public static String pageName(String term) {
+        int length = term.length();
+        for (int i = 0; i < length; i++) {
+            char c = term.charAt(i);
+            if (c < URL.length && URL[c] == FILE) {
+                StringBuilder out = new StringBuilder(length + 8);
+                out.append(term, 0, i);
+                for (int j = i; j < length; j++) {
+                    c = term.charAt(j);
+                    if (c < URL.length && URL[c] == FILE) {
+                        percent(out, c);
+                    } else {
+                        out.append(c);
+                    }
+                }
+                return out.toString();
+            }
+        }
+        return term;
+    }
+
+    /**
+     * Returns the page file of {@code term}: its page name and extension.
+     *
+     * @param term
+     *            the term
+     * @return the file name of the page
+     */
+    public static String pageFile(String term) {
+        return pageName(term) + PAGE_EXTENSION;
+    }
+
+    /**
+     * Returns the term whose page name is {@code name[from, to)}.
+     *
+     * @param name
+     *            text holding the page name
+     * @param from
+     *            start of the name
+     * @param to
+     *            end of the name
+     * @return the term, or null if the range is not a page name
+     * @requires 0 <= from <= to <= |name|
+     */
+    public static String termOfPage(CharSequence name, int from, int to) {
+        StringBuilder term = new StringBuilder(to - from);
+        int i = from;
+        while (i < to) {
+            char c = name.charAt(i);
+            if (c == '%') {
+                int value = i + 2 < to ? hexValue(name.charAt(i + 1)) * 16
+                        + hexValue(name.charAt(i + 2)) : -1;
+                if (value < 0 || value >= URL.length
+                        || URL[value] != FILE) {
+                    return null;
+                }
+                term.append((char) value);
+                i += 3;
+            } else if (c < URL.length && URL[c] == FILE) {
+                return null;
+            } else {
+                term.append(c);
+                i++;
+            }
+        }
+        return term.toString();
+    }
+
+    /**
+     * Appends the URL of the page of {@code term[from, to)} to {@code out},
+     * without the extension. The URL is safe in a quoted attribute.
+     *
+     * @param out
+     *            the output
+     * @param term
+     *            text holding the term
+     * @param from
+     *            start of the term
+     * @param to
+     *            end of the term
+     * @updates out
+     * @requires 0 <= from <= to <= |term|
+     */
+    public static void appendPageUrl(StringBuilder out, CharSequence term,
+            int from, int to) {
+        int copied = from;
+        int i = from;
+        while (i < to) {
+            char c = term.charAt(i);
+            if (c < URL.length && URL[c] == COPY) {
+                i++;
+                continue;
+            }
+            out.append(term, copied, i);
+            if (c >= URL.length) {
+                i = percentUtf8(out, term, i, to);
+            } else {
+                if (URL[c] == FILE) {
+                    // The file name holds %XX, whose % is encoded again
+                    out.append("%25");
+                    out.append(HEX[c >> 4]).append(HEX[c & 0xf]);
+                } else {
+                    percent(out, c);
+                }
+                i++;
+            }
+            copied = i;
+        }
+        out.append(term, copied, to);
+    }
+
+    /**
+     * Returns the URL of the page of {@code term}, without the extension.
+     *
+     * @param term
+     *            the term
+     * @return the URL, which is term itself if it needs no encoding
+     */
+    public static String pageUrl(String term) {
+        int length = term.length();
+        for (int i = 0; i < length; i++) {
+            char c = term.charAt(i);
+            if (c >= URL.length || URL[c] != COPY) {
+                StringBuilder out = new StringBuilder(length + 16);
+                out.append(term, 0, i);
+                appendPageUrl(out, term, i, length);
+                return out.toString();
+            }
+        }
+        return term;
+    }
+
+    /**
+     * Returns the URL of the relative folder {@code path}, whose parts are
+     * separated by "/".
+     *
+     * @param path
+     *            the path
+     * @return the URL, safe in a quoted attribute
+     */
+    public static String pathUrl(String path) {
+        StringBuilder out = new StringBuilder(path.length() + 16);
+        int i = 0;
+        while (i < path.length()) {
+            char c = path.charAt(i);
+            if (c >= URL.length) {
+                i = percentUtf8(out, path, i, path.length());
+            } else {
+                if (c == '/' || URL[c] == COPY) {
+                    out.append(c);
+                } else {
+                    percent(out, c);
+                }
+                i++;
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Appends the percent escape of ASCII character {@code c}.
+     *
+     * @param out
+     *            the output
+     * @param c
+     *            the character
+     */
+    private static void percent(StringBuilder out, int c) {
+        out.append('%').append(HEX[(c >> 4) & 0xf]).append(HEX[c & 0xf]);
+    }
+
+    /**
+     * Appends the percent escapes of the UTF-8 bytes of the code point at
+     * {@code text[i]}, a lone surrogate standing for U+FFFD.
+     *
+     * @param out
+     *            the output
+     * @param text
+     *            the text
+     * @param i
+     *            position of the code point
+     * @param to
+     *            end of the text
+     * @return the position after the code point
+     */
+    private static int percentUtf8(StringBuilder out, CharSequence text,
+            int i, int to) {
+        char c = text.charAt(i);
+        int codePoint = c;
+        int next = i + 1;
+        if (Character.isHighSurrogate(c) && next < to
+                && Character.isLowSurrogate(text.charAt(next))) {
+            codePoint = Character.toCodePoint(c, text.charAt(next));
+            next++;
+        } else if (Character.isSurrogate(c)) {
+            codePoint = 0xfffd;
+        }
+        if (codePoint < 0x80) {
+            percent(out, codePoint);
+        } else if (codePoint < 0x800) {
+            percent(out, 0xc0 | (codePoint >> 6));
+            percent(out, 0x80 | (codePoint & 0x3f));
+        } else if (codePoint < 0x10000) {
+            percent(out, 0xe0 | (codePoint >> 12));
+            percent(out, 0x80 | ((codePoint >> 6) & 0x3f));
+            percent(out, 0x80 | (codePoint & 0x3f));
+        } else {
+            percent(out, 0xf0 | (codePoint >> 18));
+            percent(out, 0x80 | ((codePoint >> 12) & 0x3f));
+            percent(out, 0x80 | ((codePoint >> 6) & 0x3f));
+            percent(out, 0x80 | (codePoint & 0x3f));
+        }
+        return next;
+    }
+
+    /**
+     * Returns the value of hex digit {@code c}.
+     *
+     * @param c
+     *            the digit
+     * @return its value, or -1 if c is not a hex digit
+     */
+    private static int hexValue(char c) {
+        return Character.digit(c, 16);
+    }
+}
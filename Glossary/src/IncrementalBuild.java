@@ -0,0 +1,406 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import components.map.Map;
+import components.queue.Queue;
+
+/**
+ * Rebuilds a glossary site, regenerating only what changed since the last run.
+ * A manifest kept in the output folder records, for every term, a hash of its
+ * definition and the terms its definition links to. A page is regenerated when
+ * its definition changed or when the set of terms it links to changed (a
+ * target was added or removed); the index is rewritten only when the set of
+ * terms changed. The manifest also records what every page depends on besides
+ * its term: the generator version, the page layouts and the index order. When
+ * any of them changed, every page and the index are rewritten.
+ *
+ * @author Elijah Paulman
+ *
+ */
+public final class IncrementalBuild {
+
+    /**
+     * Name of the manifest file in the output folder.
+     */
+    public static final String MANIFEST_NAME = ".glossary-manifest";
+
+    /**
+     * First line of a manifest, identifying its format.
+     */
+    private static final String HEADER = "glossary-manifest 2";
+
+    /**
+     * Version of the pages this generator writes. Changing how pages are
+     * written must change it, so the next incremental build rewrites them.
+     */
+    private static final String GENERATOR_VERSION = "2";
+
+    /**
+     * Field separator in manifest lines.
+     */
+    private static final char TAB = '\t';
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private IncrementalBuild() {
+
+    }
+
+    /**
+     * What the manifest records about one term.
+     */
+    private static final class Entry {
+
+        /**
+         * Hash of the term's (unlinked) definition.
+         */
+        private final long hash;
+
+        /**
+         * Terms the definition links to, sorted and without duplicates.
+         */
+        private final String[] links;
+
+        /**
+         * Creates an entry.
+         *
+         * @param hash
+         *            hash of the definition
+         * @param links
+         *            sorted distinct link targets
+         */
+        Entry(long hash, String[] links) {
+            this.hash = hash;
+            this.links = links;
+        }
+    }
+
+    /**
+     * What the manifest records.
+     */
+    private static final class Manifest {
+
+        /**
+         * The generator version, layouts and order the site was built with.
+         */
+        private String build = "";
+
+        /**
+         * The entries by term.
+         */
+        private final HashMap<String, Entry> entries = new HashMap<>();
+    }
+
+    /**
+     * Same as
+     * {@link #build(Map, Queue, String, int, PageTemplates, String)}, for
+     * terms sorted by {@code String.compareTo}.
+     *
+     * @param definitionMap
+     *            map of <term, unlinked definition> as strings
+     * @param terms
+     *            all terms, sorted in index order
+     * @param out
+     *            output directory where html files are saved
+     * @param parallelism
+     *            number of threads writing pages
+     * @param templates
+     *            the page layouts
+     * @return the number of term pages written
+     * @requires definitionMap has a definition for every term, out is a valid
+     *           directory, parallelism >= 1
+     * @ensures the site in out and its manifest match definitionMap
+     */
+    public static int build(Map<String, String> definitionMap,
+            Queue<String> terms, String out, int parallelism,
+            PageTemplates templates) {
+        return build(definitionMap, terms, out, parallelism, templates,
+                "code-unit");
+    }
+
+    /**
+     * Brings the site in {@code out} up to date with {@code definitionMap},
+     * writing only the pages (and index) that changed since the manifest was
+     * last written. Without a manifest, every page is written.
+     *
+     * @param definitionMap
+     *            map of <term, unlinked definition> as strings
+     * @param terms
+     *            all terms, sorted in index order
+     * @param out
+     *            output directory where html files are saved
+     * @param parallelism
+     *            number of threads writing pages
+     * @param templates
+     *            the page layouts
+     * @param order
+     *            name of the order terms are sorted in
+     * @return the number of term pages written
+     * @requires definitionMap has a definition for every term, out is a valid
+     *           directory, parallelism >= 1
+     * @ensures the site in out and its manifest match definitionMap
+     */
+    public static int build(Map<String, String> definitionMap,
+            Queue<String> terms, String out, int parallelism,
+            PageTemplates templates, String order) {
+        Path manifestPath = Paths.get(out, MANIFEST_NAME);
+        Manifest manifest = readManifest(manifestPath);
+        HashMap<String, Entry> previous = manifest.entries;
+        // Pages laid out otherwise, or an index in another order, are stale
+        String build = escape(GENERATOR_VERSION) + TAB
+                + Long.toHexString(templates.fingerprint()) + TAB
+                + escape(order);
+        boolean rebuild = !build.equals(manifest.build);
+
+        // Finds which terms appeared and which disappeared
+        HashSet<String> current = new HashSet<>();
+        List<String> added = new ArrayList<>();
+        for (String term : terms) {
+            if (current.add(term) && !previous.containsKey(term)) {
+                added.add(term);
+            }
+        }
+        HashSet<String> removed = new HashSet<>();
+        for (String term : previous.keySet()) {
+            if (!current.contains(term)) {
+                removed.add(term);
+            }
+        }
+
+        // Linker over every term, plus one over just the new terms to find
+        // unchanged definitions that now mention one of them
+        List<String> allTerms = new ArrayList<>(current);
+        TermLinker linker = new TermLinker(allTerms, WordTokenizer.GLOSSARY);
+        TermLinker addedLinker = added.isEmpty() ? null
+                : new TermLinker(added, WordTokenizer.GLOSSARY);
+
+        HashMap<String, Entry> next = new HashMap<>();
+        List<String> dirtyTerms = new ArrayList<>();
+        List<String> dirtyDefinitions = new ArrayList<>();
+        for (String term : current) {
+            String definition = definitionMap.value(term);
+            long hash = hash(definition);
+            Entry old = previous.get(term);
+
+            boolean dirty = rebuild || old == null || old.hash != hash
+                    || linksAny(old.links, removed)
+                    || (addedLinker != null
+                            && addedLinker.occursIn(definition));
+            if (dirty) {
+                // Relinks the definition, recording what it links to
+                HashSet<String> targets = new HashSet<>();
+                StringBuilder linked = new StringBuilder(
+                        definition.length() + 16);
+                linker.link(definition, linked,
+                        id -> targets.add(linker.term(id)));
+                String[] links = targets.toArray(new String[targets.size()]);
+                Arrays.sort(links);
+
+                dirtyTerms.add(term);
+                dirtyDefinitions.add(linked.toString());
+                next.put(term, new Entry(hash, links));
+            } else {
+                next.put(term, old);
+            }
+        }
+
+        // Writes changed pages and deletes the pages of removed terms
+        ParallelPageWriter.writeAll(
+                dirtyTerms.toArray(new String[dirtyTerms.size()]),
+                dirtyDefinitions.toArray(new String[dirtyTerms.size()]), out,
+                parallelism, templates);
+        for (String term : removed) {
+            try {
+                Files.deleteIfExists(
+                        Paths.get(out, HtmlEscaper.pageFile(term)));
+            } catch (IOException e) {
+                throw new UncheckedIOException(
+                        "Could not delete page for \"" + term + "\"", e);
+            }
+        }
+
+        // Rewrites the index only if the set of terms (or its order) changed
+        if (rebuild || !added.isEmpty() || !removed.isEmpty()
+                || !Files.exists(Paths.get(out, "index.html"))) {
+            templates.writeIndex(out, terms);
+        }
+
+        writeManifest(manifestPath, build, next);
+        return dirtyTerms.size();
+    }
+
+    /**
+     * Returns whether any of {@code links} is in {@code terms}.
+     *
+     * @param links
+     *            link targets
+     * @param terms
+     *            set of terms
+     * @return true iff links and terms intersect
+     */
+    private static boolean linksAny(String[] links, HashSet<String> terms) {
+        if (!terms.isEmpty()) {
+            for (String link : links) {
+                if (terms.contains(link)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the 64-bit FNV-1a hash of the characters of {@code text}.
+     *
+     * @param text
+     *            the text to hash
+     * @return the hash of text
+     */
+    static long hash(CharSequence text) {
+        final long offsetBasis = 0xcbf29ce484222325L;
+        final long prime = 0x100000001b3L;
+        long h = offsetBasis;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            h = (h ^ (c & 0xff)) * prime;
+            h = (h ^ (c >>> 8)) * prime;
+        }
+        return h;
+    }
+
+    /**
+     * Reads the manifest at {@code path}. A missing or unreadable manifest is
+     * treated as empty, which makes the next build a full one.
+     *
+     * @param path
+     *            location of the manifest
+     * @return the manifest
+     */
+    private static Manifest readManifest(Path path) {
+        Manifest manifest = new Manifest();
+        HashMap<String, Entry> entries = manifest.entries;
+        if (!Files.exists(path)) {
+            return manifest;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(path,
+                StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(reader.readLine())) {
+                return manifest;
+            }
+            String build = reader.readLine();
+            if (build == null) {
+                return manifest;
+            }
+            manifest.build = build;
+            String line = reader.readLine();
+            while (line != null) {
+                // hash TAB term TAB link TAB link ...
+                List<String> fields = split(line);
+                String[] links = fields.subList(2, fields.size())
+                        .toArray(new String[fields.size() - 2]);
+                entries.put(fields.get(1), new Entry(
+                        Long.parseUnsignedLong(fields.get(0), 16), links));
+                line = reader.readLine();
+            }
+        } catch (IOException | RuntimeException e) {
+            // A damaged manifest only costs a full rebuild
+            manifest.build = "";
+            entries.clear();
+        }
+        return manifest;
+    }
+
+    /**
+     * Writes {@code entries} to the manifest at {@code path}, replacing the
+     * old one only once the new one is complete.
+     *
+     * @param path
+     *            location of the manifest
+     * @param build
+     *            the generator version, layouts and order of the site
+     * @param entries
+     *            the manifest entries by term
+     */
+    private static void writeManifest(Path path, String build,
+            HashMap<String, Entry> entries) {
+        Path temp = path.resolveSibling(MANIFEST_NAME + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp,
+                StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.write('\n');
+            writer.write(build);
+            writer.write('\n');
+            for (java.util.Map.Entry<String, Entry> e : entries.entrySet()) {
+                writer.write(Long.toHexString(e.getValue().hash));
+                writer.write(TAB);
+                writer.write(escape(e.getKey()));
+                for (String link : e.getValue().links) {
+                    writer.write(TAB);
+                    writer.write(escape(link));
+                }
+                writer.write('\n');
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write " + temp, e);
+        }
+        try {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not replace " + path, e);
+        }
+    }
+
+    /**
+     * Escapes backslashes and tabs in {@code field}.
+     *
+     * @param field
+     *            the field to escape
+     * @return the escaped field
+     */
+    private static String escape(String field) {
+        if (field.indexOf('\\') < 0 && field.indexOf(TAB) < 0) {
+            return field;
+        }
+        return field.replace("\\", "\\\\").replace("\t", "\\t");
+    }
+
+    /**
+     * Splits a manifest line at unescaped tabs and unescapes each field.
+     *
+     * @param line
+     *            the manifest line
+     * @return the fields of line
+     */
+    private static List<String> split(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\\' && i + 1 < line.length()) {
+                i++;
+                field.append(line.charAt(i) == 't' ? TAB : line.charAt(i));
+            } else if (c == TAB) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
@@ -0,0 +1,353 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import components.map.Map;
+import components.queue.Queue;
+import components.queue.Queue1L;
+
+/**
+ * Parses a glossary input file the same way {@code Glossary.getTermsAndDefs}
+ * does, but memory-maps the file, splits it into chunks at blank lines between
+ * records, and parses the chunks on several threads. The records are then
+ * merged in input order, so the resulting map and queue are the same as with
+ * the sequential parser.
+ *
+ * <p>
+ * The file must be UTF-8 (or plain ASCII), with records separated by exactly
+ * one blank line, as in the format {@code getTermsAndDefs} requires.
+ * </p>
+ *
+ * @author Elijah Paulman
+ *
+ */
+public final class MappedGlossaryParser {
+
+    /**
+     * Smallest chunk worth handing to its own thread.
+     */
+    private static final long MIN_CHUNK = 1L << 20;
+
+    /**
+     * Largest chunk mapped at once (well below the 2 GB mapping limit).
+     */
+    private static final long MAX_CHUNK = 64L << 20;
+
+    /**
+     * Bytes read at a time while looking for a chunk boundary.
+     */
+    private static final int PROBE = 1 << 16;
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private MappedGlossaryParser() {
+
+    }
+
+    /**
+     * Terms and definitions parsed from one chunk, in input order.
+     */
+    private static final class Chunk {
+
+        /**
+         * Terms in input order.
+         */
+        private final List<String> terms = new ArrayList<>();
+
+        /**
+         * Definitions, by position.
+         */
+        private final List<String> definitions = new ArrayList<>();
+    }
+
+    /**
+     * Gets terms and definitions from {@code file} and maps definitions to the
+     * corresponding term, parsing on {@code parallelism} threads.
+     *
+     * @param definitionMap
+     *            map of <term, definition> as strings
+     * @param file
+     *            name of the input .txt file
+     * @param parallelism
+     *            number of threads parsing chunks
+     * @return a queue of all terms, in input order
+     * @requires empty map, parallelism >= 1, and the input file contains
+     *           records "term\n definition\n" separated by one blank line
+     * @ensures Map has term as key and corresponding definition as value
+     */
+    public static Queue<String> getTermsAndDefs(
+            Map<String, String> definitionMap, String file, int parallelism) {
+        assert parallelism >= 1 : "Violation of: parallelism >= 1";
+
+        Queue<String> terms = new Queue1L<>();
+        try (FileChannel channel = FileChannel.open(Paths.get(file),
+                StandardOpenOption.READ)) {
+            long[] bounds = chunkBounds(channel, parallelism);
+
+            // Parses each chunk on its own task
+            List<Callable<Chunk>> tasks = new ArrayList<>();
+            for (int i = 0; i + 1 < bounds.length; i++) {
+                final long from = bounds[i];
+                final long to = bounds[i + 1];
+                tasks.add(() -> parseChunk(channel, from, to));
+            }
+            ExecutorService pool = Executors.newFixedThreadPool(
+                    Math.min(parallelism, Math.max(tasks.size(), 1)),
+                    RunStats.threadFactory());
+            try {
+                // Merges the chunks in input order on this thread
+                for (Future<Chunk> future : pool.invokeAll(tasks)) {
+                    Chunk chunk = future.get();
+                    for (int i = 0; i < chunk.terms.size(); i++) {
+                        definitionMap.add(chunk.terms.get(i),
+                                chunk.definitions.get(i));
+                        terms.enqueue(chunk.terms.get(i));
+                    }
+                }
+            } finally {
+                pool.shutdown();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + file, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted reading " + file, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw (UncheckedIOException) e.getCause();
+            }
+            throw new IllegalStateException("Could not parse " + file,
+                    e.getCause());
+        }
+        return terms;
+    }
+
+    /**
+     * Splits the file into chunks, each ending just after a blank line (or at
+     * the end of the file).
+     *
+     * @param channel
+     *            the input file
+     * @param parallelism
+     *            number of threads parsing chunks
+     * @return chunk offsets: chunk i is [bounds[i], bounds[i + 1])
+     * @throws IOException
+     *             if the file cannot be read
+     */
+    private static long[] chunkBounds(FileChannel channel, int parallelism)
+            throws IOException {
+        long size = channel.size();
+        // Aims for a few chunks per thread so uneven chunks balance out
+        long target = Math.max(MIN_CHUNK,
+                Math.min(MAX_CHUNK, size / (4L * parallelism) + 1));
+
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+        long start = 0;
+        while (size - start > target) {
+            long boundary = nextRecordStart(channel, start + target);
+            if (boundary >= size) {
+                break;
+            }
+            bounds.add(boundary);
+            start = boundary;
+        }
+        bounds.add(size);
+
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the offset just past the first blank line at or after
+     * {@code from}, i.e., the start of the next record.
+     *
+     * @param channel
+     *            the input file
+     * @param from
+     *            where to start looking
+     * @return the start of the next record, or the file size if there is none
+     * @throws IOException
+     *             if the file cannot be read
+     */
+    private static long nextRecordStart(FileChannel channel, long from)
+            throws IOException {
+        ByteBuffer probe = ByteBuffer.allocate(PROBE);
+        // Starts one byte early so a line break right before from is seen
+        long position = Math.max(0, from - 1);
+        // Offset of the previous line feed, or -1 while on the first line
+        long lastNewline = -1;
+        boolean blankSoFar = false;
+        while (position < channel.size()) {
+            probe.clear();
+            int read = channel.read(probe, position);
+            for (int i = 0; i < read; i++) {
+                byte b = probe.get(i);
+                if (b == '\n') {
+                    if (lastNewline >= 0 && blankSoFar) {
+                        return position + i + 1;
+                    }
+                    lastNewline = position + i;
+                    blankSoFar = true;
+                } else if (b != '\r') {
+                    blankSoFar = false;
+                }
+            }
+            position += read;
+        }
+        return channel.size();
+    }
+
+    /**
+     * Maps and parses the records in {@code [from, to)}.
+     *
+     * @param channel
+     *            the input file
+     * @param from
+     *            start of the chunk
+     * @param to
+     *            end of the chunk
+     * @return the terms and definitions of the chunk
+     */
+    private static Chunk parseChunk(FileChannel channel, long from, long to) {
+        String text;
+        try {
+            MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY,
+                    from, to - from);
+            text = StandardCharsets.UTF_8.decode(bytes).toString();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        Chunk chunk = new Chunk();
+        parse(text, chunk.terms, chunk.definitions, null);
+        return chunk;
+    }
+
+    /**
+     * Parses the records in {@code text} the way
+     * {@code Glossary.getTermsAndDefs} does, appending each term and its
+     * definition (and, if {@code starts} is not null, the offset in text where
+     * its record starts).
+     *
+     * @param text
+     *            whole records of a glossary input file
+     * @param terms
+     *            the terms, in input order
+     * @param definitions
+     *            the definitions, by position
+     * @param starts
+     *            the record start offsets, by position, or null
+     * @updates terms, definitions, starts
+     */
+    static void parse(String text, List<String> terms,
+            List<String> definitions, List<Integer> starts) {
+        Lines lines = new Lines(text);
+        while (lines.hasNext()) {
+            if (starts != null) {
+                starts.add(lines.start);
+            }
+            // Gets term, then the first line of its definition
+            String term = lines.next();
+            StringBuilder definition = new StringBuilder(
+                    lines.hasNext() ? lines.next() : "");
+            // Adds extra lines of definition up to a blank line
+            boolean more = true;
+            while (more && lines.hasNext()) {
+                int lineStart = lines.start;
+                lines.skip();
+                if (lines.lastLength > 0) {
+                    definition.append(text, lineStart,
+                            lineStart + lines.lastLength);
+                } else {
+                    more = false;
+                }
+            }
+            terms.add(term);
+            definitions.add(definition.toString());
+        }
+    }
+
+    /**
+     * Cursor over the lines of a string, treating "\n" and "\r\n" as line
+     * breaks like {@code SimpleReader.nextLine}.
+     */
+    private static final class Lines {
+
+        /**
+         * The text being split.
+         */
+        private final String text;
+
+        /**
+         * Start of the next line.
+         */
+        private int start;
+
+        /**
+         * Length of the line last returned or skipped.
+         */
+        private int lastLength;
+
+        /**
+         * Creates a cursor at the start of {@code text}.
+         *
+         * @param text
+         *            the text to split
+         */
+        Lines(String text) {
+            this.text = text;
+        }
+
+        /**
+         * Returns whether there is another line.
+         *
+         * @return true iff there is another line
+         */
+        boolean hasNext() {
+            return this.start < this.text.length();
+        }
+
+        /**
+         * Moves past the next line, recording its length.
+         */
+        void skip() {
+            int newline = this.text.indexOf('\n', this.start);
+            int end = newline < 0 ? this.text.length() : newline;
+            int contentEnd = end;
+            if (contentEnd > this.start
+                    && this.text.charAt(contentEnd - 1) == '\r') {
+                contentEnd--;
+            }
+            this.lastLength = contentEnd - this.start;
+            this.start = newline < 0 ? this.text.length() : newline + 1;
+        }
+
+        /**
+         * Returns the next line, without its line break.
+         *
+         * @return the next line
+         */
+        String next() {
+            int lineStart = this.start;
+            this.skip();
+            return this.text.substring(lineStart, lineStart + this.lastLength);
+        }
+    }
+}
@@ -0,0 +1,273 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * SHA-256 digest of every file in a generated site, by path. Files are
+ * digested as they are read, a buffer at a time, so checking a site never
+ * holds a whole page in memory. Carriage returns are left out of the digests,
+ * so a site generated with Windows line separators has the same manifest as
+ * one generated with Unix ones.
+ *
+ * <p>
+ * A manifest is saved as one line per file, holding the digest in hex, two
+ * spaces and the path relative to the site folder with {@code /} separators,
+ * in path order.
+ * </p>
+ *
+ * @author Elijah Paulman
+ *
+ */
+public final class OutputManifest {
+
+    /**
+     * Digest algorithm.
+     */
+    private static final String ALGORITHM = "SHA-256";
+
+    /**
+     * Size of the read buffer.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Separates the digest from the path in a saved manifest.
+     */
+    private static final String SEPARATOR = "  ";
+
+    /**
+     * Hex digits.
+     */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Digest of each file, by relative path.
+     */
+    private final TreeMap<String, String> digests;
+
+    /**
+     * Creates a manifest of the given digests.
+     *
+     * @param digests
+     *            digest of each file, by relative path
+     */
+    private OutputManifest(TreeMap<String, String> digests) {
+        this.digests = digests;
+    }
+
+    /**
+     * Digests every file under folder {@code folder}.
+     *
+     * @param folder
+     *            the site folder
+     * @return the manifest of the site
+     */
+    public static OutputManifest of(String folder) {
+        Path root = Paths.get(folder);
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        TreeMap<String, String> digests = new TreeMap<>();
+        try (Stream<Path> files = Files.walk(root)) {
+            Iterator<Path> it = files.filter(Files::isRegularFile).iterator();
+            while (it.hasNext()) {
+                Path file = it.next();
+                String path = root.relativize(file).toString()
+                        .replace(file.getFileSystem().getSeparator(), "/");
+                digests.put(path, digest(file, digest, buffer));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + folder, e);
+        }
+        return new OutputManifest(digests);
+    }
+
+    /**
+     * Returns the digest of {@code file} without its carriage returns.
+     *
+     * @param file
+     *            the file
+     * @param digest
+     *            the digest to use, reset on return
+     * @param buffer
+     *            the read buffer
+     * @return the digest in hex
+     * @throws IOException
+     *             if the file cannot be read
+     */
+    private static String digest(Path file, MessageDigest digest,
+            byte[] buffer) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            int read = in.read(buffer);
+            while (read >= 0) {
+                int from = 0;
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] == '\r') {
+                        digest.update(buffer, from, i - from);
+                        from = i + 1;
+                    }
+                }
+                digest.update(buffer, from, read - from);
+                read = in.read(buffer);
+            }
+        }
+        return hex(digest.digest());
+    }
+
+    /**
+     * Returns {@code bytes} in hex.
+     *
+     * @param bytes
+     *            the bytes
+     * @return the hex digits, two per byte
+     */
+    private static String hex(byte[] bytes) {
+        char[] hex = new char[2 * bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Returns a new digest.
+     *
+     * @return the digest
+     */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM provides SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads a manifest saved by {@link #write(String)}.
+     *
+     * @param file
+     *            the manifest file
+     * @return the manifest
+     * @throws IllegalArgumentException
+     *             if a line is not a digest and a path
+     */
+    public static OutputManifest read(String file) {
+        TreeMap<String, String> digests = new TreeMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(file),
+                StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            while (line != null) {
+                int separator = line.indexOf(SEPARATOR);
+                if (separator <= 0) {
+                    throw new IllegalArgumentException(
+                            file + ": expected digest and path, got \"" + line
+                                    + "\"");
+                }
+                digests.put(line.substring(separator + SEPARATOR.length()),
+                        line.substring(0, separator));
+                line = reader.readLine();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + file, e);
+        }
+        return new OutputManifest(digests);
+    }
+
+    /**
+     * Saves the manifest to {@code file}.
+     *
+     * @param file
+     *            the manifest file
+     */
+    public void write(String file) {
+        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(file),
+                StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, String> entry : this.digests.entrySet()) {
+                writer.write(entry.getValue());
+                writer.write(SEPARATOR);
+                writer.write(entry.getKey());
+                writer.write('\n');
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write " + file, e);
+        }
+    }
+
+    /**
+     * Returns the number of files.
+     *
+     * @return the number of files
+     */
+    public int size() {
+        return this.digests.size();
+    }
+
+    /**
+     * Returns the digest of the manifest itself, as saved by
+     * {@link #write(String)}. Two sites have the same fingerprint exactly
+     * when they have the same files with the same contents.
+     *
+     * @return the fingerprint in hex
+     */
+    public String fingerprint() {
+        MessageDigest digest = newDigest();
+        for (Map.Entry<String, String> entry : this.digests.entrySet()) {
+            String line = entry.getValue() + SEPARATOR + entry.getKey()
+                    + "\n";
+            digest.update(line.getBytes(StandardCharsets.UTF_8));
+        }
+        return hex(digest.digest());
+    }
+
+    /**
+     * Returns the digest of the file at {@code path}.
+     *
+     * @param path
+     *            the path, relative to the site folder
+     * @return the digest in hex, or null if there is no such file
+     */
+    public String digest(String path) {
+        return this.digests.get(path);
+    }
+
+    /**
+     * Lists how this manifest differs from {@code expected}: files missing,
+     * unexpected or changed, in path order.
+     *
+     * @param expected
+     *            the manifest expected
+     * @return one line per difference (empty if the manifests are equal)
+     */
+    public List<String> differences(OutputManifest expected) {
+        List<String> result = new ArrayList<>();
+        TreeMap<String, String> all = new TreeMap<>(expected.digests);
+        all.putAll(this.digests);
+        for (String path : all.keySet()) {
+            String want = expected.digests.get(path);
+            String got = this.digests.get(path);
+            if (got == null) {
+                result.add("missing " + path);
+            } else if (want == null) {
+                result.add("unexpected " + path);
+            } else if (!want.equals(got)) {
+                result.add("changed " + path);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,403 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A page layout compiled once into pre-encoded constant fragments. Text of the
+ * form <code>{{name}}</code> marks a slot; rendering a page only encodes the
+ * slot values, and the page is written as a gather of the constant fragments
+ * and the values, without ever building the whole page as a string.
+ *
+ * <p>
+ * Each slot is placed in a context: html text, an attribute value, or a URL
+ * attribute value ({@code href}, {@code src} or {@code action}), found by
+ * scanning the tags of the layout. A value given as plain text is escaped for
+ * the context of each slot it fills (see {@link #escape(String, int)}).
+ * </p>
+ *
+ * @author Elijah Paulman
+ *
+ */
+public final class PageTemplate {
+
+    /**
+     * Marks the start of a slot.
+     */
+    private static final String OPEN = "{{";
+
+    /**
+     * Marks the end of a slot.
+     */
+    private static final String CLOSE = "}}";
+
+    /**
+     * Context of a slot in html text.
+     */
+    public static final int TEXT = 0;
+
+    /**
+     * Context of a slot in an attribute value.
+     */
+    public static final int ATTRIBUTE = 1;
+
+    /**
+     * Context of a slot in the value of a URL attribute.
+     */
+    public static final int URL = 2;
+
+    /**
+     * Number of contexts.
+     */
+    public static final int CONTEXTS = 3;
+
+    /**
+     * Attributes whose value is a URL.
+     */
+    private static final String[] URL_ATTRIBUTES = { "href", "src",
+            "action" };
+
+    /**
+     * Constant fragments, one more than there are slots. Fragment i comes
+     * right before slot i. Read-only and shared, so always duplicated before
+     * use.
+     */
+    private final ByteBuffer[] fragments;
+
+    /**
+     * For each slot, the index of its name in the names given to
+     * {@link #compile}.
+     */
+    private final int[] slots;
+
+    /**
+     * Context of each slot.
+     */
+    private final int[] contexts;
+
+    /**
+     * Creates a template from its parts.
+     *
+     * @param fragments
+     *            constant fragments
+     * @param slots
+     *            name index of each slot
+     * @param contexts
+     *            context of each slot
+     */
+    private PageTemplate(ByteBuffer[] fragments, int[] slots,
+            int[] contexts) {
+        this.fragments = fragments;
+        this.slots = slots;
+        this.contexts = contexts;
+    }
+
+    /**
+     * Compiles {@code source}, encoding its constant text with
+     * {@code charset}.
+     *
+     * @param source
+     *            the page layout
+     * @param charset
+     *            the charset pages are written in
+     * @param names
+     *            the slot names the layout may use
+     * @return the compiled template
+     * @throws IllegalArgumentException
+     *             if the layout uses a slot name not in names, or a slot is
+     *             not closed
+     */
+    public static PageTemplate compile(String source, Charset charset,
+            String... names) {
+        List<ByteBuffer> fragments = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+        List<Integer> contexts = new ArrayList<>();
+        Scanner scanner = new Scanner();
+        int position = 0;
+        int open = source.indexOf(OPEN);
+        while (open >= 0) {
+            int close = source.indexOf(CLOSE, open + OPEN.length());
+            if (close < 0) {
+                throw new IllegalArgumentException(
+                        "Unclosed slot at offset " + open);
+            }
+            String name = source.substring(open + OPEN.length(), close).trim();
+            int slot = indexOf(names, name);
+            if (slot < 0) {
+                throw new IllegalArgumentException("Unknown slot {{" + name
+                        + "}}, expected one of " + String.join(", ", names));
+            }
+            fragments.add(encode(source.substring(position, open), charset));
+            slots.add(slot);
+            scanner.scan(source, position, open);
+            contexts.add(scanner.context());
+            position = close + CLOSE.length();
+            open = source.indexOf(OPEN, position);
+        }
+        fragments.add(encode(source.substring(position), charset));
+
+        int[] slotArray = new int[slots.size()];
+        int[] contextArray = new int[slots.size()];
+        for (int i = 0; i < slotArray.length; i++) {
+            slotArray[i] = slots.get(i);
+            contextArray[i] = contexts.get(i);
+        }
+        return new PageTemplate(
+                fragments.toArray(new ByteBuffer[fragments.size()]),
+                slotArray, contextArray);
+    }
+
+    /**
+     * Follows the tags of a layout, enough to tell the context of a slot.
+     */
+    private static final class Scanner {
+
+        /**
+         * Whether the scan is inside a tag.
+         */
+        private boolean inTag = false;
+
+        /**
+         * Quote closing the attribute value the scan is in, or 0 if not in
+         * one.
+         */
+        private char quote = 0;
+
+        /**
+         * Start of the name being read in a tag, or -1.
+         */
+        private int nameStart = -1;
+
+        /**
+         * Last name read in the current tag, or null.
+         */
+        private String name = null;
+
+        /**
+         * Name of the attribute whose value the scan is in, or null.
+         */
+        private String attribute = null;
+
+        /**
+         * Moves the scan over {@code source[from, to)}.
+         *
+         * @param source
+         *            the layout
+         * @param from
+         *            start of the constant text
+         * @param to
+         *            end of the constant text
+         */
+        void scan(String source, int from, int to) {
+            for (int i = from; i < to; i++) {
+                char c = source.charAt(i);
+                if (!this.inTag) {
+                    if (c == '<') {
+                        this.inTag = true;
+                        this.name = null;
+                    }
+                } else if (this.quote != 0) {
+                    if (c == this.quote) {
+                        this.quote = 0;
+                        this.attribute = null;
+                    }
+                } else if (Character.isLetterOrDigit(c) || c == '-'
+                        || c == ':') {
+                    if (this.nameStart < 0) {
+                        this.nameStart = i;
+                    }
+                } else {
+                    if (this.nameStart >= 0) {
+                        this.name = source.substring(this.nameStart, i);
+                        this.nameStart = -1;
+                    }
+                    if (c == '>') {
+                        this.inTag = false;
+                    } else if (c == '"' || c == '\'') {
+                        this.quote = c;
+                        this.attribute = this.name;
+                    }
+                }
+            }
+            // A name is never split by a slot
+            this.nameStart = -1;
+        }
+
+        /**
+         * Returns the context of a slot at the current position.
+         *
+         * @return the context
+         */
+        int context() {
+            if (!this.inTag) {
+                return TEXT;
+            }
+            if (this.quote != 0 && this.attribute != null) {
+                for (String url : URL_ATTRIBUTES) {
+                    if (url.equalsIgnoreCase(this.attribute)) {
+                        return URL;
+                    }
+                }
+            }
+            return ATTRIBUTE;
+        }
+    }
+
+    /**
+     * Returns the position of {@code name} in {@code names}, or -1.
+     *
+     * @param names
+     *            the names
+     * @param name
+     *            the name to find
+     * @return the position of name, or -1 if absent
+     */
+    private static int indexOf(String[] names, String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Encodes {@code text} into a read-only buffer.
+     *
+     * @param text
+     *            the text
+     * @param charset
+     *            the charset
+     * @return the encoded text
+     */
+    static ByteBuffer encode(String text, Charset charset) {
+        return ByteBuffer.wrap(text.getBytes(charset)).asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the number of slots.
+     *
+     * @return the number of slots
+     */
+    public int slotCount() {
+        return this.slots.length;
+    }
+
+    /**
+     * Returns whether the template has a slot named {@code names[name]}.
+     *
+     * @param name
+     *            index of the name given to {@link #compile}
+     * @return true iff the slot is used
+     */
+    public boolean uses(int name) {
+        for (int slot : this.slots) {
+            if (slot == name) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether the template has a slot named {@code names[name]} in
+     * context {@code context}.
+     *
+     * @param name
+     *            index of the name given to {@link #compile}
+     * @param context
+     *            the context
+     * @return true iff such a slot is used
+     */
+    public boolean uses(int name, int context) {
+        for (int i = 0; i < this.slots.length; i++) {
+            if (this.slots[i] == name && this.contexts[i] == context) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns {@code text} escaped for context {@code context}: as html text,
+     * as an attribute value, or, in a URL, as the URL of the page of term
+     * {@code text} without its extension.
+     *
+     * @param text
+     *            the plain text
+     * @param context
+     *            the context
+     * @return the escaped text, which is text itself if nothing needed
+     *         escaping
+     */
+    public static String escape(String text, int context) {
+        switch (context) {
+            case TEXT:
+                return HtmlEscaper.text(text);
+            case ATTRIBUTE:
+                return HtmlEscaper.attribute(text);
+            default:
+                return HtmlEscaper.pageUrl(text);
+        }
+    }
+
+    /**
+     * Returns the constant fragment that comes right before slot {@code i}
+     * (or, for {@code i = slotCount()}, the final fragment).
+     *
+     * @param i
+     *            the fragment index
+     * @return a fresh view of the fragment
+     */
+    public ByteBuffer fragment(int i) {
+        return this.fragments[i].duplicate();
+    }
+
+    /**
+     * Returns the name index of slot {@code i}.
+     *
+     * @param i
+     *            the slot index
+     * @return index of the slot's name in the names given to {@link #compile}
+     */
+    public int slot(int i) {
+        return this.slots[i];
+    }
+
+    /**
+     * Appends the buffers making up a page to {@code gather}: every constant
+     * fragment, with the value of each slot in between.
+     *
+     * @param values
+     *            encoded value of each slot name, by name index
+     * @param gather
+     *            the list of buffers to write
+     * @updates gather
+     */
+    public void gather(ByteBuffer[] values, List<ByteBuffer> gather) {
+        for (int i = 0; i < this.slots.length; i++) {
+            gather.add(this.fragments[i].duplicate());
+            gather.add(values[this.slots[i]].duplicate());
+        }
+        gather.add(this.fragments[this.slots.length].duplicate());
+    }
+
+    /**
+     * Same as {@link #gather(ByteBuffer[], List)}, but each slot gets the
+     * value of its name in its context.
+     *
+     * @param values
+     *            encoded value of each slot name in each context, by context
+     *            then name index
+     * @param gather
+     *            the list of buffers to write
+     * @updates gather
+     */
+    public void gather(ByteBuffer[][] values, List<ByteBuffer> gather) {
+        for (int i = 0; i < this.slots.length; i++) {
+            gather.add(this.fragments[i].duplicate());
+            gather.add(values[this.contexts[i]][this.slots[i]].duplicate());
+        }
+        gather.add(this.fragments[this.slots.length].duplicate());
+    }
+}
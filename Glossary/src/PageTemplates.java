@@ -0,0 +1,738 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * The layouts of the generated site: the term page, the index page, one entry
+ * of the index, and one entry of the root page of a sharded index. Pages are
+ * written through {@link FileChannel} gathering writes of the templates'
+ * pre-encoded fragments, or rendered the same way into memory.
+ *
+ * <p>
+ * The default layouts produce exactly the pages {@code Glossary.addLinks} and
+ * {@code Glossary.createIndex} write. Custom layouts are read from a folder
+ * holding any of {@value #TERM_FILE} (slots <code>{{term}}</code>,
+ * <code>{{definition}}</code>, <code>{{index}}</code>, the index page to
+ * return to, and <code>{{referrers}}</code>, the "Referenced by" section
+ * written by {@link BacklinkIndex}), {@value #INDEX_FILE} (slot
+ * <code>{{entries}}</code>), {@value #ENTRY_FILE} (slot <code>{{term}}</code>)
+ * and {@value #SHARD_ENTRY_FILE} (slots <code>{{page}}</code> and
+ * <code>{{label}}</code>); a missing file keeps the default layout.
+ * </p>
+ *
+ * <p>
+ * The term and label slots hold plain text, escaped for the context of each
+ * slot (see {@link PageTemplate}); in a URL attribute, the term slot is the
+ * URL of the term's page without its extension. The other slots hold html
+ * (or a URL) and are written as is.
+ * </p>
+ *
+ * @author Elijah Paulman
+ *
+ */
+public final class PageTemplates {
+
+    /**
+     * File holding a custom term page layout.
+     */
+    public static final String TERM_FILE = "term.html";
+
+    /**
+     * File holding a custom index page layout.
+     */
+    public static final String INDEX_FILE = "index.html";
+
+    /**
+     * File holding a custom index entry layout.
+     */
+    public static final String ENTRY_FILE = "entry.html";
+
+    /**
+     * File holding a custom layout for a shard entry of a sharded index.
+     */
+    public static final String SHARD_ENTRY_FILE = "shard-entry.html";
+
+    /**
+     * Name of the (root) index page.
+     */
+    public static final String INDEX_PAGE = "index.html";
+
+    /**
+     * Slot names of a term page.
+     */
+    private static final String[] TERM_SLOTS = { "term", "definition",
+            "index", "referrers" };
+
+    /**
+     * Slot names of the index page.
+     */
+    private static final String[] INDEX_SLOTS = { "entries" };
+
+    /**
+     * Slot names of an index entry.
+     */
+    private static final String[] ENTRY_SLOTS = { "term" };
+
+    /**
+     * Slot names of a shard entry.
+     */
+    private static final String[] SHARD_ENTRY_SLOTS = { "page", "label" };
+
+    /**
+     * Most buffers handed to a single gathering write.
+     */
+    private static final int MAX_GATHER = 1024;
+
+    /**
+     * Bytes written to files by all templates, for {@link RunStats}.
+     */
+    private static final LongAdder BYTES_WRITTEN = new LongAdder();
+
+    /**
+     * Line separator used by the default layouts, as
+     * {@code SimpleWriter.println} does.
+     */
+    private static final String NL = System.lineSeparator();
+
+    /**
+     * Default term page layout.
+     */
+    private static final String DEFAULT_TERM = "<html>" + NL + "<head>" + NL
+            + "<title>{{term}}</title>" + NL + "</head>" + NL + "<body>" + NL
+            + "<h2><b><i><font color = \"red\">{{term}}</font></i></b></h2>" + NL
+            + "<blockquote>{{definition}}</blockquote>" + NL + "{{referrers}}"
+            + "<hr />" + NL
+            + "<p>Return to <a href=\"{{index}}\">index</a></p>" + NL
+            + "</body>" + NL + "</html>" + NL;
+
+    /**
+     * Default index page layout.
+     */
+    private static final String DEFAULT_INDEX = "<html>" + NL + "<head>" + NL
+            + "<title>Glossary</title>" + NL + "</head>" + NL + "<body>" + NL
+            + "<h2>Glossary</h2>" + NL + "<hr />" + NL + "<h3>Index</h3>" + NL
+            + "<ul>" + NL + "{{entries}}</ul>" + NL + "</body>" + NL + "</html>"
+            + NL;
+
+    /**
+     * Default index entry layout.
+     */
+    private static final String DEFAULT_ENTRY = "<li><a href=\"{{term}}.html\">"
+            + "{{term}}</a></li>" + NL;
+
+    /**
+     * Default shard entry layout.
+     */
+    private static final String DEFAULT_SHARD_ENTRY = "<li><a href=\"{{page}}\">"
+            + "{{label}}</a></li>" + NL;
+
+    /**
+     * The default layouts.
+     */
+    public static final PageTemplates DEFAULT = new PageTemplates(DEFAULT_TERM,
+            DEFAULT_INDEX, DEFAULT_ENTRY, DEFAULT_SHARD_ENTRY,
+            Charset.defaultCharset());
+
+    /**
+     * Charset pages are written in.
+     */
+    private final Charset charset;
+
+    /**
+     * Term page layout.
+     */
+    private final PageTemplate term;
+
+    /**
+     * Index page layout.
+     */
+    private final PageTemplate index;
+
+    /**
+     * Index entry layout.
+     */
+    private final PageTemplate entry;
+
+    /**
+     * Shard entry layout.
+     */
+    private final PageTemplate shardEntry;
+
+    /**
+     * Hash of the layouts and the charset.
+     */
+    private final long fingerprint;
+
+    /**
+     * Compiles the given layouts.
+     *
+     * @param term
+     *            term page layout
+     * @param index
+     *            index page layout
+     * @param entry
+     *            index entry layout
+     * @param shardEntry
+     *            shard entry layout
+     * @param charset
+     *            charset pages are written in
+     */
+    private PageTemplates(String term, String index, String entry,
+            String shardEntry, Charset charset) {
+        this.charset = charset;
+        this.term = PageTemplate.compile(term, charset, TERM_SLOTS);
+        this.index = PageTemplate.compile(index, charset, INDEX_SLOTS);
+        if (this.index.slotCount() != 1) {
+            // The entries are written at the only slot; others would be lost
+            throw new IllegalArgumentException("The index layout must have "
+                    + "exactly one {{entries}} slot, found "
+                    + this.index.slotCount());
+        }
+        this.entry = PageTemplate.compile(entry, charset, ENTRY_SLOTS);
+        this.shardEntry = PageTemplate.compile(shardEntry, charset,
+                SHARD_ENTRY_SLOTS);
+        this.fingerprint = IncrementalBuild.hash(String.join("\0", term,
+                index, entry, shardEntry, charset.name()));
+    }
+
+    /**
+     * Returns a hash of the layouts and the charset, which differs (but for
+     * a hash collision) whenever pages would be laid out differently.
+     *
+     * @return the fingerprint of the layouts
+     */
+    public long fingerprint() {
+        return this.fingerprint;
+    }
+
+    /**
+     * Loads the layouts in folder {@code dir}, using the default layout for
+     * any file that is missing.
+     *
+     * @param dir
+     *            folder holding the layout files
+     * @return the layouts
+     * @throws IllegalArgumentException
+     *             if a layout uses an unknown slot, or the index layout does
+     *             not have exactly one {{entries}} slot
+     */
+    public static PageTemplates load(String dir) {
+        return new PageTemplates(read(dir, TERM_FILE, DEFAULT_TERM),
+                read(dir, INDEX_FILE, DEFAULT_INDEX),
+                read(dir, ENTRY_FILE, DEFAULT_ENTRY),
+                read(dir, SHARD_ENTRY_FILE, DEFAULT_SHARD_ENTRY),
+                Charset.defaultCharset());
+    }
+
+    /**
+     * Reads layout {@code name} from {@code dir}, or returns
+     * {@code fallback} if there is no such file.
+     *
+     * @param dir
+     *            folder holding the layout files
+     * @param name
+     *            file name of the layout
+     * @param fallback
+     *            default layout
+     * @return the layout
+     */
+    private static String read(String dir, String name, String fallback) {
+        Path file = Paths.get(dir, name);
+        if (!Files.exists(file)) {
+            return fallback;
+        }
+        try {
+            return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + file, e);
+        }
+    }
+
+    /**
+     * Writes the page of {@code term} to {@code out/term.html}, linking back
+     * to the index page.
+     *
+     * @param out
+     *            output directory
+     * @param term
+     *            the term
+     * @param definition
+     *            the (linked) definition of the term
+     */
+    public void writeTermPage(String out, String term, String definition) {
+        this.writeTermPage(out, term, definition, INDEX_PAGE);
+    }
+
+    /**
+     * Writes the page of {@code term} to {@code out/term.html}, linking back
+     * to {@code indexPage}.
+     *
+     * @param out
+     *            output directory
+     * @param term
+     *            the term
+     * @param definition
+     *            the (linked) definition of the term
+     * @param indexPage
+     *            file name of the index page listing the term
+     */
+    public void writeTermPage(String out, String term, String definition,
+            String indexPage) {
+        this.writeTermPage(out, term, definition, indexPage, "");
+    }
+
+    /**
+     * Writes the page of {@code term} to {@code out/term.html}, linking back
+     * to {@code indexPage} and listing the terms that reference it.
+     *
+     * @param out
+     *            output directory
+     * @param term
+     *            the term
+     * @param definition
+     *            the (linked) definition of the term
+     * @param indexPage
+     *            file name of the index page listing the term
+     * @param referrers
+     *            the "Referenced by" section of the page (may be empty)
+     */
+    public void writeTermPage(String out, String term, String definition,
+            String indexPage, String referrers) {
+        Path file = Paths.get(out, HtmlEscaper.pageFile(term));
+        try (FileChannel channel = open(file)) {
+            this.termPage(channel, term, definition, indexPage, referrers);
+        } catch (IOException e) {
+            throw new UncheckedIOException(
+                    "Could not write page for \"" + term + "\"", e);
+        }
+    }
+
+    /**
+     * Renders the page of {@code term} in memory, linking back to
+     * {@code indexPage}.
+     *
+     * @param term
+     *            the term
+     * @param definition
+     *            the (linked) definition of the term
+     * @param indexPage
+     *            file name of the index page listing the term
+     * @return the encoded page
+     */
+    public byte[] renderTermPage(String term, String definition,
+            String indexPage) {
+        PageBuffer page = new PageBuffer();
+        try {
+            this.termPage(page, term, definition, indexPage, "");
+        } catch (IOException e) {
+            // A PageBuffer never fails
+            throw new UncheckedIOException(e);
+        }
+        return page.toByteArray();
+    }
+
+    /**
+     * Writes the page of {@code term} to {@code channel}.
+     *
+     * @param channel
+     *            where to write
+     * @param term
+     *            the term
+     * @param definition
+     *            the (linked) definition of the term
+     * @param indexPage
+     *            file name of the index page listing the term
+     * @param referrers
+     *            the "Referenced by" section of the page (may be empty)
+     * @throws IOException
+     *             if writing fails
+     */
+    private void termPage(GatheringByteChannel channel, String term,
+            String definition, String indexPage, String referrers)
+            throws IOException {
+        ByteBuffer[][] values = new ByteBuffer[PageTemplate.CONTEXTS]
+                [TERM_SLOTS.length];
+        this.plain(this.term, 0, term, values);
+        this.html(1, definition, values);
+        this.html(2, indexPage, values);
+        this.html(3, referrers, values);
+        List<ByteBuffer> gather = new ArrayList<>(
+                2 * this.term.slotCount() + 1);
+        this.term.gather(values, gather);
+        writeFully(channel, gather);
+    }
+
+    /**
+     * Writes the index of {@code terms} to {@code out/index.html}.
+     *
+     * @param out
+     *            output directory
+     * @param terms
+     *            the terms, in index order
+     */
+    public void writeIndex(String out, Iterable<String> terms) {
+        this.writeIndexPage(out, INDEX_PAGE, terms);
+    }
+
+    /**
+     * Writes an index page listing {@code terms} to {@code out/fileName}.
+     *
+     * @param out
+     *            output directory
+     * @param fileName
+     *            file name of the index page
+     * @param terms
+     *            the terms, in index order
+     */
+    public void writeIndexPage(String out, String fileName,
+            Iterable<String> terms) {
+        Path file = Paths.get(out, fileName);
+        try (FileChannel channel = open(file)) {
+            this.indexPage(channel, terms);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write " + file, e);
+        }
+    }
+
+    /**
+     * Renders an index page listing {@code terms} in memory.
+     *
+     * @param terms
+     *            the terms, in index order
+     * @return the encoded page
+     */
+    public byte[] renderIndexPage(Iterable<String> terms) {
+        PageBuffer page = new PageBuffer();
+        try {
+            this.indexPage(page, terms);
+        } catch (IOException e) {
+            // A PageBuffer never fails
+            throw new UncheckedIOException(e);
+        }
+        return page.toByteArray();
+    }
+
+    /**
+     * Writes an index page listing {@code terms} to {@code channel}.
+     *
+     * @param channel
+     *            where to write
+     * @param terms
+     *            the terms, in index order
+     * @throws IOException
+     *             if writing fails
+     */
+    private void indexPage(GatheringByteChannel channel,
+            Iterable<String> terms) throws IOException {
+        Iterator<String> items = terms.iterator();
+        ByteBuffer[][] values = new ByteBuffer[PageTemplate.CONTEXTS]
+                [ENTRY_SLOTS.length];
+        this.writeList(channel, this.entry, () -> {
+            if (!items.hasNext()) {
+                return null;
+            }
+            this.plain(this.entry, 0, items.next(), values);
+            return values;
+        });
+    }
+
+    /**
+     * Writes the root page of a sharded index to {@code out/index.html}, with
+     * one entry per shard.
+     *
+     * @param out
+     *            output directory
+     * @param pages
+     *            file name of each shard page
+     * @param labels
+     *            text of the entry for each shard
+     * @requires |pages| = |labels|
+     */
+    public void writeShardRoot(String out, List<String> pages,
+            List<String> labels) {
+        Path file = Paths.get(out, INDEX_PAGE);
+        try (FileChannel channel = open(file)) {
+            this.shardRoot(channel, pages, labels);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write " + file, e);
+        }
+    }
+
+    /**
+     * Renders the root page of a sharded index in memory.
+     *
+     * @param pages
+     *            file name of each shard page
+     * @param labels
+     *            text of the entry for each shard
+     * @return the encoded page
+     * @requires |pages| = |labels|
+     */
+    public byte[] renderShardRoot(List<String> pages, List<String> labels) {
+        PageBuffer page = new PageBuffer();
+        try {
+            this.shardRoot(page, pages, labels);
+        } catch (IOException e) {
+            // A PageBuffer never fails
+            throw new UncheckedIOException(e);
+        }
+        return page.toByteArray();
+    }
+
+    /**
+     * Writes the root page of a sharded index to {@code channel}.
+     *
+     * @param channel
+     *            where to write
+     * @param pages
+     *            file name of each shard page
+     * @param labels
+     *            text of the entry for each shard
+     * @throws IOException
+     *             if writing fails
+     * @requires |pages| = |labels|
+     */
+    private void shardRoot(GatheringByteChannel channel, List<String> pages,
+            List<String> labels) throws IOException {
+        assert pages.size() == labels.size() : ""
+                + "Violation of: |pages| = |labels|";
+
+        Iterator<String> pageItems = pages.iterator();
+        Iterator<String> labelItems = labels.iterator();
+        ByteBuffer[][] values = new ByteBuffer[PageTemplate.CONTEXTS]
+                [SHARD_ENTRY_SLOTS.length];
+        this.writeList(channel, this.shardEntry, () -> {
+            if (!pageItems.hasNext()) {
+                return null;
+            }
+            this.html(0, pageItems.next(), values);
+            this.plain(this.shardEntry, 1, labelItems.next(), values);
+            return values;
+        });
+    }
+
+    /**
+     * Sets the value of slot name {@code name} to plain text {@code text},
+     * escaped for each context {@code template} uses the slot in. Contexts
+     * where text needs no escaping share one encoding of it.
+     *
+     * @param template
+     *            the layout
+     * @param name
+     *            index of the slot name
+     * @param text
+     *            the plain text
+     * @param values
+     *            slot values, by context then name index
+     * @updates values
+     */
+    private void plain(PageTemplate template, int name, String text,
+            ByteBuffer[][] values) {
+        ByteBuffer unescaped = null;
+        for (int context = 0; context < PageTemplate.CONTEXTS; context++) {
+            if (template.uses(name, context)) {
+                String escaped = PageTemplate.escape(text, context);
+                if (escaped != text) {
+                    values[context][name] = PageTemplate.encode(escaped,
+                            this.charset);
+                } else {
+                    if (unescaped == null) {
+                        unescaped = PageTemplate.encode(text, this.charset);
+                    }
+                    values[context][name] = unescaped;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the value of slot name {@code name} to {@code html}, written as is
+     * in every context.
+     *
+     * @param name
+     *            index of the slot name
+     * @param html
+     *            the html
+     * @param values
+     *            slot values, by context then name index
+     * @updates values
+     */
+    private void html(int name, String html, ByteBuffer[][] values) {
+        ByteBuffer encoded = PageTemplate.encode(html, this.charset);
+        for (int context = 0; context < PageTemplate.CONTEXTS; context++) {
+            values[context][name] = encoded;
+        }
+    }
+
+    /**
+     * Writes an index-layout page to {@code channel}, filling its entries
+     * slot with {@code item} once for every set of values {@code items}
+     * supplies.
+     *
+     * @param channel
+     *            where to write
+     * @param item
+     *            layout of one entry
+     * @param items
+     *            supplies the slot values of each entry, then null
+     * @throws IOException
+     *             if writing fails
+     */
+    private void writeList(GatheringByteChannel channel, PageTemplate item,
+            Supplier<ByteBuffer[][]> items) throws IOException {
+        List<ByteBuffer> gather = new ArrayList<>();
+        // The only index slot is the list of entries, written once
+        for (int i = 0; i < this.index.slotCount(); i++) {
+            gather.add(this.index.fragment(i));
+            if (i == 0) {
+                ByteBuffer[][] values = items.get();
+                while (values != null) {
+                    item.gather(values, gather);
+                    if (gather.size() >= MAX_GATHER) {
+                        writeFully(channel, gather);
+                    }
+                    values = items.get();
+                }
+            }
+        }
+        gather.add(this.index.fragment(this.index.slotCount()));
+        writeFully(channel, gather);
+    }
+
+    /**
+     * Returns the charset pages are written in.
+     *
+     * @return the charset
+     */
+    public Charset charset() {
+        return this.charset;
+    }
+
+    /**
+     * Opens {@code file} for writing, replacing any old content.
+     *
+     * @param file
+     *            the file
+     * @return the open channel
+     * @throws IOException
+     *             if the file cannot be opened
+     */
+    static FileChannel open(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Writes every buffer in {@code gather} to {@code channel} with gathering
+     * writes, then clears {@code gather}.
+     *
+     * @param channel
+     *            the channel
+     * @param gather
+     *            the buffers to write
+     * @throws IOException
+     *             if writing fails
+     * @clears gather
+     */
+    static void writeFully(GatheringByteChannel channel,
+            List<ByteBuffer> gather) throws IOException {
+        ByteBuffer[] buffers = gather.toArray(new ByteBuffer[gather.size()]);
+        int first = 0;
+        long written = 0;
+        while (first < buffers.length) {
+            written += channel.write(buffers, first, buffers.length - first);
+            // Skips the buffers that were written completely
+            while (first < buffers.length && !buffers[first].hasRemaining()) {
+                first++;
+            }
+        }
+        gather.clear();
+        if (channel instanceof FileChannel) {
+            BYTES_WRITTEN.add(written);
+        }
+    }
+
+    /**
+     * Returns the total number of bytes all templates have written to files.
+     *
+     * @return the bytes written so far
+     */
+    static long bytesWritten() {
+        return BYTES_WRITTEN.sum();
+    }
+
+    /**
+     * In-memory channel collecting the bytes of a rendered page.
+     */
+    private static final class PageBuffer implements GatheringByteChannel {
+
+        /**
+         * The bytes written so far, then unused capacity.
+         */
+        private byte[] bytes = new byte[1024];
+
+        /**
+         * Number of bytes written.
+         */
+        private int length = 0;
+
+        @Override
+        public int write(ByteBuffer source) {
+            int count = source.remaining();
+            if (this.length + count > this.bytes.length) {
+                this.bytes = Arrays.copyOf(this.bytes,
+                        Math.max(2 * this.bytes.length, this.length + count));
+            }
+            source.get(this.bytes, this.length, count);
+            this.length += count;
+            return count;
+        }
+
+        @Override
+        public long write(ByteBuffer[] sources, int offset, int count) {
+            long written = 0;
+            for (int i = offset; i < offset + count; i++) {
+                written += this.write(sources[i]);
+            }
+            return written;
+        }
+
+        @Override
+        public long write(ByteBuffer[] sources) {
+            return this.write(sources, 0, sources.length);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        /**
+         * Returns the bytes written.
+         *
+         * @return a copy of the page
+         */
+        byte[] toByteArray() {
+            return Arrays.copyOf(this.bytes, this.length);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntFunction;
+
+/**
+ * Renders and writes term pages concurrently on a {@link ForkJoinPool}. Each
+ * page is written through {@link PageTemplates}; with the default layouts the
+ * files are identical to the ones written one at a time by
+ * {@code Glossary.addLinks}.
+ *
+ * @author Elijah Paulman
+ *
+ */
+public final class ParallelPageWriter {
+
+    /**
+     * Ranges of at most this many pages are written by a single task.
+     */
+    private static final int LEAF_SIZE = 64;
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private ParallelPageWriter() {
+
+    }
+
+    /**
+     * Writes one page per term on a pool of {@code parallelism} threads.
+     *
+     * @param terms
+     *            the distinct terms
+     * @param definitions
+     *            the definition of each term, by position
+     * @param out
+     *            output directory where html files will be saved
+     * @param parallelism
+     *            number of threads writing pages
+     * @param templates
+     *            the page layouts
+     * @requires |terms| = |definitions|, terms has no duplicates, out is a
+     *           valid directory, parallelism >= 1
+     * @ensures out/term.html is written for every term
+     */
+    public static void writeAll(String[] terms, String[] definitions,
+            String out, int parallelism, PageTemplates templates) {
+        assert terms.length == definitions.length : ""
+                + "Violation of: |terms| = |definitions|";
+
+        writeAll(terms.length, i -> terms[i], i -> definitions[i],
+                i -> PageTemplates.INDEX_PAGE, out, parallelism, templates);
+    }
+
+    /**
+     * Writes one page for each of {@code count} terms on a pool of
+     * {@code parallelism} threads, fetching each term and definition by
+     * position only when its page is written.
+     *
+     * @param count
+     *            number of terms
+     * @param terms
+     *            the term at each position
+     * @param definitions
+     *            the definition at each position
+     * @param indexPages
+     *            the index page each term page links back to, by position
+     * @param out
+     *            output directory where html files will be saved
+     * @param parallelism
+     *            number of threads writing pages
+     * @param templates
+     *            the page layouts
+     * @requires terms, definitions and indexPages are safe to call from several threads,
+     *           the terms are distinct, out is a valid directory,
+     *           parallelism >= 1
+     * @ensures out/term.html is written for every term
+     */
+    public static void writeAll(int count, IntFunction<String> terms,
+            IntFunction<String> definitions, IntFunction<String> indexPages,
+            String out, int parallelism, PageTemplates templates) {
+        writeAll(count, terms, definitions, indexPages, i -> "", out,
+                parallelism, templates);
+    }
+
+    /**
+     * Same as
+     * {@link #writeAll(int, IntFunction, IntFunction, IntFunction, String, int, PageTemplates)},
+     * but each page also gets the "Referenced by" section
+     * {@code referrers} supplies for its position.
+     *
+     * @param count
+     *            number of terms
+     * @param terms
+     *            the term at each position
+     * @param definitions
+     *            the definition at each position
+     * @param indexPages
+     *            the index page each term page links back to, by position
+     * @param referrers
+     *            the "Referenced by" section of each page, by position
+     * @param out
+     *            output directory where html files will be saved
+     * @param parallelism
+     *            number of threads writing pages
+     * @param templates
+     *            the page layouts
+     * @requires the functions are safe to call from several threads, the
+     *           terms are distinct, out is a valid directory, parallelism >= 1
+     * @ensures out/term.html is written for every term
+     */
+    public static void writeAll(int count, IntFunction<String> terms,
+            IntFunction<String> definitions, IntFunction<String> indexPages,
+            IntFunction<String> referrers, String out, int parallelism,
+            PageTemplates templates) {
+        assert parallelism >= 1 : "Violation of: parallelism >= 1";
+
+        ForkJoinPool pool = RunStats.newPool(parallelism);
+        try {
+            pool.invoke(new WriteTask(terms, definitions, indexPages,
+                    referrers, out, templates, 0, count));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Writes the pages of positions {@code [from, to)}, splitting the range in
+     * half until it is small enough.
+     */
+    private static final class WriteTask extends RecursiveAction {
+
+        /**
+         * Serialization id.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Term at each position.
+         */
+        private final IntFunction<String> terms;
+
+        /**
+         * Definition at each position.
+         */
+        private final IntFunction<String> definitions;
+
+        /**
+         * Index page each term page links back to, by position.
+         */
+        private final IntFunction<String> indexPages;
+
+        /**
+         * "Referenced by" section of each page, by position.
+         */
+        private final IntFunction<String> referrers;
+
+        /**
+         * Output directory.
+         */
+        private final String out;
+
+        /**
+         * The page layouts.
+         */
+        private final PageTemplates templates;
+
+        /**
+         * First position to write.
+         */
+        private final int from;
+
+        /**
+         * Position just past the last one to write.
+         */
+        private final int to;
+
+        /**
+         * Creates a task writing positions {@code [from, to)}.
+         *
+         * @param terms
+         *            term at each position
+         * @param definitions
+         *            definition at each position
+         * @param indexPages
+         *            index page each term page links back to, by position
+         * @param referrers
+         *            "Referenced by" section of each page, by position
+         * @param out
+         *            output directory
+         * @param templates
+         *            the page layouts
+         * @param from
+         *            first position to write
+         * @param to
+         *            position just past the last one to write
+         */
+        WriteTask(IntFunction<String> terms, IntFunction<String> definitions,
+                IntFunction<String> indexPages, IntFunction<String> referrers,
+                String out, PageTemplates templates, int from, int to) {
+            this.terms = terms;
+            this.definitions = definitions;
+            this.indexPages = indexPages;
+            this.referrers = referrers;
+            this.out = out;
+            this.templates = templates;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from <= LEAF_SIZE) {
+                for (int i = this.from; i < this.to; i++) {
+                    this.templates.writeTermPage(this.out, this.terms.apply(i),
+                            this.definitions.apply(i),
+                            this.indexPages.apply(i), this.referrers.apply(i));
+                }
+            } else {
+                int middle = (this.from + this.to) >>> 1;
+                invokeAll(
+                        new WriteTask(this.terms, this.definitions,
+                                this.indexPages, this.referrers, this.out,
+                                this.templates, this.from, middle),
+                        new WriteTask(this.terms, this.definitions,
+                                this.indexPages, this.referrers, this.out,
+                                this.templates, middle, this.to));
+            }
+        }
+    }
+}
@@ -0,0 +1,514 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Timing and throughput of the phases of one generator run. Each phase
+ * records its wall time, the number of items it handled, the bytes it wrote
+ * through {@link PageTemplates}, and the bytes allocated by the thread running
+ * it and by the worker threads of every pool made by {@link #newPool(int)} or
+ * {@link #threadFactory()}. A run can also track the peak heap use of each
+ * phase, counting every thread. Every phase is also
+ * emitted as a {@value #EVENT_NAME} Java Flight Recorder event, and the whole
+ * run can be written as a JSON report.
+ *
+ * @author Elijah Paulman
+ *
+ */
+public final class RunStats {
+
+    /**
+     * Name of the JFR event emitted for each phase.
+     */
+    public static final String EVENT_NAME = "glossary.Phase";
+
+    /**
+     * Version of the JSON report format.
+     */
+    private static final int REPORT_VERSION = 2;
+
+    /**
+     * Nanoseconds per millisecond.
+     */
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    /**
+     * Thread allocation counter, or null if the JVM has none.
+     */
+    private static final com.sun.management.ThreadMXBean ALLOCATION;
+
+    static {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean allocation = null;
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            allocation = (com.sun.management.ThreadMXBean) threads;
+            if (!allocation.isThreadAllocatedMemorySupported()) {
+                allocation = null;
+            } else if (!allocation.isThreadAllocatedMemoryEnabled()) {
+                allocation.setThreadAllocatedMemoryEnabled(true);
+            }
+        }
+        ALLOCATION = allocation;
+    }
+
+    /**
+     * Counted worker threads that are running.
+     */
+    private static final Set<Thread> WORKERS = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Bytes allocated by counted worker threads that have ended.
+     */
+    private static final LongAdder RETIRED = new LongAdder();
+
+    /**
+     * Fork/join worker whose allocations count towards the running phase.
+     */
+    private static final class CountedWorker extends ForkJoinWorkerThread {
+
+        /**
+         * Creates a worker of {@code pool}.
+         *
+         * @param pool
+         *            the pool
+         */
+        CountedWorker(ForkJoinPool pool) {
+            super(pool);
+        }
+
+        @Override
+        protected void onStart() {
+            super.onStart();
+            WORKERS.add(this);
+        }
+
+        @Override
+        protected void onTermination(Throwable exception) {
+            retire();
+            super.onTermination(exception);
+        }
+    }
+
+    /**
+     * JFR event for one phase of a run.
+     */
+    @Name(EVENT_NAME)
+    @Label("Glossary Phase")
+    @Category("Glossary")
+    @Description("One phase of a glossary generator run")
+    static final class PhaseEvent extends Event {
+
+        /**
+         * Name of the phase.
+         */
+        @Label("Phase")
+        String phase;
+
+        /**
+         * Number of items handled.
+         */
+        @Label("Items")
+        long items;
+
+        /**
+         * Bytes written.
+         */
+        @Label("Bytes Written")
+        @DataAmount
+        long bytesWritten;
+
+        /**
+         * Bytes allocated by the thread running the phase and its workers.
+         */
+        @Label("Allocated")
+        @DataAmount
+        long allocated;
+    }
+
+    /**
+     * One finished or running phase.
+     */
+    public final class Phase {
+
+        /**
+         * Name of the phase.
+         */
+        private final String name;
+
+        /**
+         * The JFR event, begun with the phase.
+         */
+        private final PhaseEvent event = new PhaseEvent();
+
+        /**
+         * Time the phase started, from {@link System#nanoTime()}.
+         */
+        private final long startNanos;
+
+        /**
+         * Bytes written through the page templates when the phase started.
+         */
+        private final long startWritten;
+
+        /**
+         * Bytes allocated by this thread and the workers when the phase
+         * started, or -1.
+         */
+        private final long startAllocated;
+
+        /**
+         * Wall time of the phase, or -1 while running.
+         */
+        private long nanos = -1;
+
+        /**
+         * Number of items handled.
+         */
+        private long items;
+
+        /**
+         * Bytes written.
+         */
+        private long bytesWritten;
+
+        /**
+         * Bytes allocated, or -1 if unknown.
+         */
+        private long allocated;
+
+        /**
+         * Peak heap use during the phase, or -1 if not tracked.
+         */
+        private long peakHeap = -1;
+
+        /**
+         * Starts phase {@code name}.
+         *
+         * @param name
+         *            name of the phase
+         */
+        private Phase(String name) {
+            this.name = name;
+            if (RunStats.this.trackHeap) {
+                resetHeapPeaks();
+            }
+            this.event.begin();
+            this.startWritten = PageTemplates.bytesWritten();
+            this.startAllocated = allocatedByThisThreadAndWorkers();
+            this.startNanos = System.nanoTime();
+        }
+
+        /**
+         * Ends the phase, recording it and emitting its JFR event.
+         *
+         * @param itemCount
+         *            number of items the phase handled
+         * @requires the phase is running, on the thread that began it
+         */
+        public void end(long itemCount) {
+            assert this.nanos < 0 : "Violation of: the phase is running";
+
+            this.nanos = System.nanoTime() - this.startNanos;
+            this.items = itemCount;
+            this.bytesWritten = PageTemplates.bytesWritten()
+                    - this.startWritten;
+            long nowAllocated = allocatedByThisThreadAndWorkers();
+            this.allocated = this.startAllocated < 0 ? -1
+                    : nowAllocated - this.startAllocated;
+            if (RunStats.this.trackHeap) {
+                this.peakHeap = heapPeak();
+            }
+
+            this.event.end();
+            if (this.event.shouldCommit()) {
+                this.event.phase = this.name;
+                this.event.items = this.items;
+                this.event.bytesWritten = this.bytesWritten;
+                this.event.allocated = this.allocated;
+                this.event.commit();
+            }
+        }
+
+        /**
+         * Returns the name of the phase.
+         *
+         * @return the name
+         */
+        public String name() {
+            return this.name;
+        }
+
+        /**
+         * Returns the wall time of the phase.
+         *
+         * @return the wall time in milliseconds
+         * @requires the phase has ended
+         */
+        public double millis() {
+            return this.nanos / NANOS_PER_MILLI;
+        }
+
+        /**
+         * Returns the bytes allocated by the thread that ran the phase and by
+         * the workers of counted pools while it ran. A worker ending during
+         * the phase may be counted twice, so this is an approximation.
+         *
+         * @return the allocated bytes, or -1 if the JVM does not track them
+         * @requires the phase has ended
+         */
+        public long allocatedBytes() {
+            return this.allocated;
+        }
+
+        /**
+         * Returns the most heap in use at any time during the phase, as the
+         * sum of the peaks of each heap pool, so an upper bound.
+         *
+         * @return the peak heap use in bytes, or -1 if the run does not track
+         *         it
+         * @requires the phase has ended
+         */
+        public long peakHeapBytes() {
+            return this.peakHeap;
+        }
+
+        /**
+         * Returns how many items per second the phase handled.
+         *
+         * @return the throughput
+         * @requires the phase has ended
+         */
+        public double itemsPerSecond() {
+            return this.nanos == 0 ? 0 : this.items * 1e9 / this.nanos;
+        }
+    }
+
+    /**
+     * Time the run started, from {@link System#nanoTime()}.
+     */
+    private final long startNanos = System.nanoTime();
+
+    /**
+     * The phases, in the order they began.
+     */
+    private final List<Phase> phases = new ArrayList<>();
+
+    /**
+     * Whether phases record their peak heap use.
+     */
+    private final boolean trackHeap;
+
+    /**
+     * Creates the statistics of a run that does not track heap use.
+     */
+    public RunStats() {
+        this(false);
+    }
+
+    /**
+     * Creates the statistics of a run. Tracking the peak heap use of each
+     * phase collects garbage when a phase begins and resets JVM-wide
+     * counters, so it is only meaningful when no other run is timing phases
+     * at the same time.
+     *
+     * @param trackHeap
+     *            whether phases record their peak heap use
+     */
+    public RunStats(boolean trackHeap) {
+        this.trackHeap = trackHeap;
+    }
+
+    /**
+     * Collects garbage and restarts the peak of every heap pool from its
+     * current use.
+     */
+    private static void resetHeapPeaks() {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /**
+     * Returns the sum of the peaks of every heap pool.
+     *
+     * @return the peak heap use in bytes
+     */
+    private static long heapPeak() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * Returns the bytes allocated so far by the calling thread and by every
+     * counted worker thread, running or ended.
+     *
+     * @return the allocated bytes, or -1 if the JVM does not track them
+     */
+    private static long allocatedByThisThreadAndWorkers() {
+        if (ALLOCATION == null) {
+            return -1;
+        }
+        Thread current = Thread.currentThread();
+        long allocated = ALLOCATION.getThreadAllocatedBytes(current.getId())
+                + RETIRED.sum();
+        for (Thread worker : WORKERS) {
+            if (worker != current) {
+                // -1 if the worker ended since; it is then in RETIRED
+                allocated += Math.max(0,
+                        ALLOCATION.getThreadAllocatedBytes(worker.getId()));
+            }
+        }
+        return allocated;
+    }
+
+    /**
+     * Moves the allocations of the calling worker thread, which is ending,
+     * into {@link #RETIRED}.
+     */
+    private static void retire() {
+        Thread current = Thread.currentThread();
+        if (ALLOCATION != null) {
+            RETIRED.add(ALLOCATION.getThreadAllocatedBytes(current.getId()));
+        }
+        WORKERS.remove(current);
+    }
+
+    /**
+     * Returns a fork/join pool of {@code parallelism} threads whose
+     * allocations count towards the running phase.
+     *
+     * @param parallelism
+     *            number of threads
+     * @return the pool
+     * @requires parallelism >= 1
+     */
+    public static ForkJoinPool newPool(int parallelism) {
+        return new ForkJoinPool(parallelism, CountedWorker::new, null, false);
+    }
+
+    /**
+     * Returns a factory of threads whose allocations count towards the
+     * running phase.
+     *
+     * @return the thread factory
+     */
+    public static ThreadFactory threadFactory() {
+        return task -> new Thread(() -> {
+            WORKERS.add(Thread.currentThread());
+            try {
+                task.run();
+            } finally {
+                retire();
+            }
+        });
+    }
+
+    /**
+     * Begins phase {@code name}. End it with {@link Phase#end(long)} on the
+     * same thread.
+     *
+     * @param name
+     *            name of the phase
+     * @return the running phase
+     */
+    public Phase begin(String name) {
+        Phase phase = new Phase(name);
+        this.phases.add(phase);
+        return phase;
+    }
+
+    /**
+     * Returns the phases, in the order they began.
+     *
+     * @return the phases
+     */
+    public List<Phase> phases() {
+        return this.phases;
+    }
+
+    /**
+     * Writes a JSON report of the run so far to {@code file}.
+     *
+     * @param file
+     *            the report file
+     * @param terms
+     *            number of terms in the glossary
+     * @param parallelism
+     *            number of threads the run used
+     * @requires every phase has ended
+     */
+    public void writeJson(String file, long terms, int parallelism) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"version\": ").append(REPORT_VERSION).append(",\n");
+        json.append("  \"terms\": ").append(terms).append(",\n");
+        json.append("  \"parallelism\": ").append(parallelism).append(",\n");
+        json.append("  \"totalMillis\": ")
+                .append(number((System.nanoTime() - this.startNanos)
+                        / NANOS_PER_MILLI))
+                .append(",\n");
+        json.append("  \"phases\": [");
+        for (int i = 0; i < this.phases.size(); i++) {
+            Phase phase = this.phases.get(i);
+            json.append(i == 0 ? "\n" : ",\n");
+            json.append("    {\"name\": \"").append(phase.name)
+                    .append("\", \"millis\": ").append(number(phase.millis()))
+                    .append(", \"items\": ").append(phase.items)
+                    .append(", \"itemsPerSecond\": ")
+                    .append(number(phase.itemsPerSecond()))
+                    .append(", \"bytesWritten\": ").append(phase.bytesWritten)
+                    .append(", \"allocatedBytes\": ").append(phase.allocated)
+                    .append(", \"peakHeapBytes\": ").append(phase.peakHeap)
+                    .append("}");
+        }
+        json.append("\n  ]\n}\n");
+
+        try {
+            Files.write(Paths.get(file),
+                    json.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write " + file, e);
+        }
+    }
+
+    /**
+     * Formats {@code value} as a JSON number with three decimals.
+     *
+     * @param value
+     *            the value
+     * @return the formatted value
+     */
+    private static String number(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+}
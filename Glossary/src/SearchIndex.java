@@ -0,0 +1,336 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes a static prefix search index next to the generated site, so a browser
+ * can find terms without downloading the whole index page.
+ *
+ * <p>
+ * The sorted terms are cut into blocks of consecutive terms. Each block is
+ * written to {@code search/<n>.txt}, and the first term of every block to
+ * {@code search/blocks.txt}. All of these files are UTF-8 and front-coded: each
+ * line is the number of leading characters (UTF-16 code units) shared with the
+ * previous line's term, a tab, then the rest of the term. The lookup script
+ * {@value #SCRIPT_FILE} binary-searches {@code blocks.txt}, then fetches only
+ * the blocks holding matches; {@value #PAGE_FILE} is a small search page using
+ * it.
+ * </p>
+ *
+ * @author Elijah Paulman
+ *
+ */
+public final class SearchIndex {
+
+    /**
+     * Folder of the index files, inside the output folder.
+     */
+    public static final String FOLDER = "search";
+
+    /**
+     * File listing the first term of each block.
+     */
+    public static final String BLOCKS_FILE = "blocks.txt";
+
+    /**
+     * The lookup script.
+     */
+    public static final String SCRIPT_FILE = "search.js";
+
+    /**
+     * The search page.
+     */
+    public static final String PAGE_FILE = "search.html";
+
+    /**
+     * Default number of terms per block: for a million terms, blocks.txt
+     * lists about a thousand terms and each lookup fetches a block or two.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1024;
+
+    /**
+     * Lookup script. {@code GlossarySearch.find(prefix, limit)} resolves to
+     * the first limit terms starting with prefix, in index order. Comparisons
+     * use UTF-16 code units, the same order as {@code String.compareTo}.
+     */
+    private static final String SCRIPT = String.join("\n",
+            "var GlossarySearch = (function () {",
+            "  var blocks = {};",
+            "  var firsts = null;",
+            "",
+            "  function decode(text) {",
+            "    var lines = text.split('\\n');",
+            "    var terms = [];",
+            "    var previous = '';",
+            "    for (var i = 0; i < lines.length; i++) {",
+            "      var tab = lines[i].indexOf('\\t');",
+            "      if (tab >= 0) {",
+            "        previous = previous.substring(0,",
+            "            parseInt(lines[i].substring(0, tab), 10))",
+            "            + lines[i].substring(tab + 1);",
+            "        terms.push(previous);",
+            "      }",
+            "    }",
+            "    return terms;",
+            "  }",
+            "",
+            "  function load(name) {",
+            "    return fetch('" + FOLDER + "/' + name).then(function (r) {",
+            "      if (!r.ok) {",
+            "        throw new Error('Could not load ' + name);",
+            "      }",
+            "      return r.text();",
+            "    }).then(decode);",
+            "  }",
+            "",
+            "  function block(n) {",
+            "    if (!blocks[n]) {",
+            "      blocks[n] = load(n + '.txt');",
+            "    }",
+            "    return blocks[n];",
+            "  }",
+            "",
+            "  function lowerBound(terms, prefix) {",
+            "    var low = 0;",
+            "    var high = terms.length;",
+            "    while (low < high) {",
+            "      var middle = (low + high) >>> 1;",
+            "      if (terms[middle] < prefix) {",
+            "        low = middle + 1;",
+            "      } else {",
+            "        high = middle;",
+            "      }",
+            "    }",
+            "    return low;",
+            "  }",
+            "",
+            "  function find(prefix, limit) {",
+            "    limit = limit || 20;",
+            "    if (!firsts) {",
+            "      firsts = load('" + BLOCKS_FILE + "');",
+            "    }",
+            "    return firsts.then(function (starts) {",
+            "      var found = [];",
+            "      function scan(n) {",
+            "        if (n >= starts.length || found.length >= limit) {",
+            "          return found;",
+            "        }",
+            "        return block(n).then(function (terms) {",
+            "          for (var i = lowerBound(terms, prefix);",
+            "              i < terms.length; i++) {",
+            "            if (terms[i].lastIndexOf(prefix, 0) !== 0",
+            "                || found.length >= limit) {",
+            "              return found;",
+            "            }",
+            "            found.push(terms[i]);",
+            "          }",
+            "          return scan(n + 1);",
+            "        });",
+            "      }",
+            "      // Matches start in the last block beginning before prefix",
+            "      return scan(Math.max(0, lowerBound(starts, prefix) - 1));",
+            "    });",
+            "  }",
+            "",
+            "  return { find: find };",
+            "})();", "");
+
+    /**
+     * Search page using the lookup script.
+     */
+    private static final String PAGE = String.join("\n", "<html>", "<head>",
+            "<meta charset=\"utf-8\">", "<title>Search</title>",
+            "<script src=\"" + SCRIPT_FILE + "\"></script>", "</head>",
+            "<body>", "<h2>Search</h2>", "<hr />",
+            "<input id=\"prefix\" type=\"text\" autofocus>",
+            "<ul id=\"results\"></ul>",
+            "<p>Return to <a href=\"index.html\">index</a></p>", "<script>",
+            "document.getElementById('prefix').oninput = function () {",
+            "  var prefix = this.value;",
+            "  GlossarySearch.find(prefix, 50).then(function (terms) {",
+            "    if (document.getElementById('prefix').value !== prefix) {",
+            "      return;",
+            "    }",
+            "    var list = document.getElementById('results');",
+            "    list.innerHTML = '';",
+            "    terms.forEach(function (term) {",
+            "      var link = document.createElement('a');",
+            "      // Page names escape what file names cannot hold",
+            "      var name = term.replace(",
+            "          /[\\x00-\\x1f\\x7f%\\/\\\\:*?\"<>|]/g, function (c) {",
+            "            var hex = c.charCodeAt(0).toString(16).toUpperCase();",
+            "            return (hex.length < 2 ? '%0' : '%') + hex;",
+            "          });",
+            "      link.href = encodeURIComponent(name) + '.html';",
+            "      link.textContent = term;",
+            "      var item = document.createElement('li');",
+            "      item.appendChild(link);",
+            "      list.appendChild(item);",
+            "    });",
+            "  });", "};", "</script>", "</body>", "</html>", "");
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private SearchIndex() {
+
+    }
+
+    /**
+     * Writes the search index of {@code sortedTerms} to {@code out}, with the
+     * default block size.
+     *
+     * @param out
+     *            output directory
+     * @param sortedTerms
+     *            the terms, sorted by {@code String.compareTo}
+     * @return the number of blocks written
+     * @requires out is a valid directory
+     */
+    public static int write(String out, Iterable<String> sortedTerms) {
+        return write(out, sortedTerms, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Writes the search index of {@code sortedTerms} to {@code out}, in blocks
+     * of at most {@code blockSize} terms. Duplicate terms are listed once.
+     *
+     * @param out
+     *            output directory
+     * @param sortedTerms
+     *            the terms, sorted by {@code String.compareTo}
+     * @param blockSize
+     *            largest number of terms in a block
+     * @return the number of blocks written
+     * @requires out is a valid directory, blockSize >= 1
+     * @ensures out/search holds blocks.txt and one file per block, and
+     *          out/search.js and out/search.html exist
+     */
+    public static int write(String out, Iterable<String> sortedTerms,
+            int blockSize) {
+        assert blockSize >= 1 : "Violation of: blockSize >= 1";
+
+        Path folder = Paths.get(out, FOLDER);
+        try {
+            Files.createDirectories(folder);
+            removeBlocks(folder);
+
+            List<String> firsts = new ArrayList<>();
+            BufferedWriter block = null;
+            String previous = null;
+            int count = 0;
+            try {
+                for (String term : sortedTerms) {
+                    if (term.equals(previous)) {
+                        continue;
+                    }
+                    // Starts a new block when the current one is full
+                    if (block == null || count == blockSize) {
+                        if (block != null) {
+                            block.close();
+                        }
+                        block = Files.newBufferedWriter(
+                                folder.resolve(firsts.size() + ".txt"),
+                                StandardCharsets.UTF_8);
+                        firsts.add(term);
+                        previous = null;
+                        count = 0;
+                    }
+                    writeLine(block, previous, term);
+                    previous = term;
+                    count++;
+                }
+            } finally {
+                if (block != null) {
+                    block.close();
+                }
+            }
+
+            try (BufferedWriter blocks = Files.newBufferedWriter(
+                    folder.resolve(BLOCKS_FILE), StandardCharsets.UTF_8)) {
+                String first = null;
+                for (String term : firsts) {
+                    writeLine(blocks, first, term);
+                    first = term;
+                }
+            }
+            Files.write(Paths.get(out, SCRIPT_FILE),
+                    SCRIPT.getBytes(StandardCharsets.UTF_8));
+            Files.write(Paths.get(out, PAGE_FILE),
+                    PAGE.getBytes(StandardCharsets.UTF_8));
+            return firsts.size();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write search index", e);
+        }
+    }
+
+    /**
+     * Deletes the block files of an earlier build, which may have had more
+     * blocks.
+     *
+     * @param folder
+     *            the search index folder
+     * @throws IOException
+     *             if the folder cannot be read or a file cannot be deleted
+     */
+    private static void removeBlocks(Path folder) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(folder,
+                "[0-9]*.txt")) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * Writes {@code term} front-coded against {@code previous}.
+     *
+     * @param writer
+     *            where to write
+     * @param previous
+     *            the term on the line before, or null on the first line
+     * @param term
+     *            the term
+     * @throws IOException
+     *             if writing fails
+     */
+    private static void writeLine(Writer writer, String previous, String term)
+            throws IOException {
+        int shared = previous == null ? 0 : sharedPrefix(previous, term);
+        writer.write(Integer.toString(shared));
+        writer.write('\t');
+        writer.write(term, shared, term.length() - shared);
+        writer.write('\n');
+    }
+
+    /**
+     * Returns the length of the longest common prefix of {@code a} and
+     * {@code b} that does not end inside a surrogate pair (so the rest of the
+     * term still encodes to valid UTF-8).
+     *
+     * @param a
+     *            the first string
+     * @param b
+     *            the second string
+     * @return the shared prefix length
+     */
+    static int sharedPrefix(String a, String b) {
+        int limit = Math.min(a.length(), b.length());
+        int shared = 0;
+        while (shared < limit && a.charAt(shared) == b.charAt(shared)) {
+            shared++;
+        }
+        if (shared > 0 && Character.isHighSurrogate(a.charAt(shared - 1))) {
+            shared--;
+        }
+        return shared;
+    }
+}
@@ -0,0 +1,238 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Index split into shard pages for very large glossaries. Terms are grouped by
+ * their first character, and each group is cut into consecutive shards of at
+ * most a given number of terms. A small root {@code index.html} links to every
+ * shard, and each term page links back to the shard that lists it.
+ *
+ * @author Elijah Paulman
+ *
+ */
+public final class ShardedIndex {
+
+    /**
+     * Default largest number of terms on a shard page.
+     */
+    public static final int DEFAULT_SHARD_SIZE = 5000;
+
+    /**
+     * The distinct terms, in index order.
+     */
+    private final String[] terms;
+
+    /**
+     * Order of the terms.
+     */
+    private final Comparator<String> order;
+
+    /**
+     * Position of the first term of each shard, plus the number of terms.
+     */
+    private final int[] shardStart;
+
+    /**
+     * File name of each shard page.
+     */
+    private final List<String> pages = new ArrayList<>();
+
+    /**
+     * Text of the root page entry of each shard.
+     */
+    private final List<String> labels = new ArrayList<>();
+
+    /**
+     * Shard number of each shard page, by file name.
+     */
+    private final HashMap<String, Integer> shardOfPage = new HashMap<>();
+
+    /**
+     * Splits {@code sortedTerms} into shards.
+     *
+     * @param sortedTerms
+     *            the terms, sorted by order
+     * @param order
+     *            the order the terms are sorted in
+     * @param maxShardSize
+     *            largest number of terms on a shard page
+     * @requires sortedTerms is sorted by order, maxShardSize >= 1
+     * @ensures every term is on exactly one shard, and all terms on a shard
+     *          start with the same character
+     */
+    public ShardedIndex(Iterable<String> sortedTerms, Comparator<String> order,
+            int maxShardSize) {
+        assert maxShardSize >= 1 : "Violation of: maxShardSize >= 1";
+
+        // Keeps one copy of each term (duplicates are adjacent once sorted)
+        List<String> distinct = new ArrayList<>();
+        for (String term : sortedTerms) {
+            if (distinct.isEmpty()
+                    || !distinct.get(distinct.size() - 1).equals(term)) {
+                distinct.add(term);
+            }
+        }
+        this.terms = distinct.toArray(new String[distinct.size()]);
+        this.order = order;
+
+        // Cuts a new shard when the first character changes or it is full
+        List<Integer> starts = new ArrayList<>();
+        HashMap<String, Integer> shardsPerKey = new HashMap<>();
+        String key = null;
+        int count = 0;
+        for (int i = 0; i < this.terms.length; i++) {
+            String termKey = key(this.terms[i]);
+            if (!termKey.equals(key) || count == maxShardSize) {
+                key = termKey;
+                count = 0;
+                starts.add(i);
+                // A key may come back if the order interleaves characters
+                int number = shardsPerKey.merge(key, 1, Integer::sum);
+                String page = "index-" + key + "-" + number + ".html";
+                this.shardOfPage.put(page, this.pages.size());
+                this.pages.add(page);
+            }
+            count++;
+        }
+        starts.add(this.terms.length);
+        this.shardStart = new int[starts.size()];
+        for (int i = 0; i < this.shardStart.length; i++) {
+            this.shardStart[i] = starts.get(i);
+        }
+
+        for (int s = 0; s < this.pages.size(); s++) {
+            String first = this.terms[this.shardStart[s]];
+            String last = this.terms[this.shardStart[s + 1] - 1];
+            this.labels.add(first.equals(last) ? first : first + " - " + last);
+        }
+    }
+
+    /**
+     * Returns the part of a shard file name for the first character of
+     * {@code term}: the character itself for lowercase letters and digits,
+     * otherwise its hexadecimal code (so names never clash on file systems
+     * that ignore case).
+     *
+     * @param term
+     *            the term
+     * @return the shard key of term
+     */
+    private static String key(String term) {
+        if (term.isEmpty()) {
+            return "empty";
+        }
+        char c = term.charAt(0);
+        if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')) {
+            return String.valueOf(c);
+        }
+        return "x" + Integer.toHexString(c);
+    }
+
+    /**
+     * Returns the number of shards.
+     *
+     * @return the number of shards
+     */
+    public int shardCount() {
+        return this.pages.size();
+    }
+
+    /**
+     * Returns the file names of the shard pages, in index order.
+     *
+     * @return the shard page names
+     */
+    public List<String> pageNames() {
+        return Collections.unmodifiableList(this.pages);
+    }
+
+    /**
+     * Returns the file name of the shard page listing {@code term}.
+     *
+     * @param term
+     *            the term
+     * @return the shard page of term
+     * @requires term is one of the indexed terms
+     */
+    public String pageOf(String term) {
+        // Finds the last shard whose first term is not after term
+        int low = 0;
+        int high = this.pages.size() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (this.order.compare(this.terms[this.shardStart[middle]],
+                    term) <= 0) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return this.pages.get(low);
+    }
+
+    /**
+     * Writes the root {@code index.html} and every shard page to {@code out},
+     * with the shards written in parallel.
+     *
+     * @param out
+     *            output directory
+     * @param parallelism
+     *            number of threads writing shard pages
+     * @param templates
+     *            the page layouts
+     * @requires out is a valid directory, parallelism >= 1
+     */
+    public void write(String out, int parallelism, PageTemplates templates) {
+        assert parallelism >= 1 : "Violation of: parallelism >= 1";
+
+        templates.writeShardRoot(out, this.pages, this.labels);
+        ForkJoinPool pool = RunStats.newPool(parallelism);
+        try {
+            pool.submit(() -> IntStream.range(0, this.pages.size()).parallel()
+                    .forEach(s -> templates.writeIndexPage(out,
+                            this.pages.get(s), this.shardTerms(s))))
+                    .join();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Renders page {@code fileName} of this index in memory: the root page for
+     * {@code index.html}, otherwise the shard page with that name.
+     *
+     * @param fileName
+     *            file name of the page
+     * @param templates
+     *            the page layouts
+     * @return the encoded page, or null if this index has no such page
+     */
+    public byte[] render(String fileName, PageTemplates templates) {
+        if (fileName.equals(PageTemplates.INDEX_PAGE)) {
+            return templates.renderShardRoot(this.pages, this.labels);
+        }
+        Integer shard = this.shardOfPage.get(fileName);
+        if (shard == null) {
+            return null;
+        }
+        return templates.renderIndexPage(this.shardTerms(shard));
+    }
+
+    /**
+     * Returns the terms of shard {@code s}.
+     *
+     * @param s
+     *            the shard
+     * @return the terms listed on shard s, in index order
+     */
+    private List<String> shardTerms(int s) {
+        return Arrays.asList(this.terms).subList(this.shardStart[s],
+                this.shardStart[s + 1]);
+    }
+}
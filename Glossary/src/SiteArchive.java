@@ -0,0 +1,189 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import components.map.Map;
+import components.queue.Queue;
+
+/**
+ * Writes a whole glossary site into a single ZIP archive instead of one file
+ * per page, so a site of millions of terms costs one file on disk. Entries
+ * have the names the pages would have in the output folder. Pages are
+ * rendered in memory, a batch at a time on several threads, and streamed into
+ * the archive in order.
+ *
+ * @author Elijah Paulman
+ *
+ */
+public final class SiteArchive {
+
+    /**
+     * Number of pages rendered before they are written to the archive.
+     */
+    private static final int BATCH_SIZE = 1024;
+
+    /**
+     * Modification time of every entry (1980-01-01, the earliest a ZIP can
+     * hold), so the same site always makes the same archive.
+     */
+    private static final long ENTRY_TIME = 315532800000L;
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private SiteArchive() {
+
+    }
+
+    /**
+     * Writes the term pages of every term, and the index, to the archive
+     * {@code file}. The archive replaces any old one only once it is
+     * complete.
+     *
+     * @param file
+     *            the archive to write
+     * @param definitionMap
+     *            map of <term, linked definition> as strings
+     * @param terms
+     *            queue of all terms, in index order
+     * @param index
+     *            the sharded index to include, or null for a single
+     *            index.html
+     * @param parallelism
+     *            number of threads rendering pages
+     * @param templates
+     *            the page layouts
+     * @return the number of term pages written
+     * @requires every term is a key of definitionMap, index (if not null)
+     *           lists every term, parallelism >= 1
+     */
+    public static int write(String file, Map<String, String> definitionMap,
+            Queue<String> terms, ShardedIndex index, int parallelism,
+            PageTemplates templates) {
+        assert parallelism >= 1 : "Violation of: parallelism >= 1";
+
+        // Snapshots each distinct term so worker threads never touch the map
+        HashSet<String> seen = new HashSet<>();
+        List<String> pageTerms = new ArrayList<>();
+        List<String> pageDefinitions = new ArrayList<>();
+        for (String term : terms) {
+            if (seen.add(term)) {
+                pageTerms.add(term);
+                pageDefinitions.add(definitionMap.value(term));
+            }
+        }
+
+        Path target = Paths.get(file);
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        ForkJoinPool pool = parallelism > 1 ? RunStats.newPool(parallelism)
+                : null;
+        try (OutputStream stream = new BufferedOutputStream(
+                Files.newOutputStream(temp));
+                ZipOutputStream zip = new ZipOutputStream(stream)) {
+            // Small html pages gain little from harder compression
+            zip.setLevel(Deflater.BEST_SPEED);
+
+            byte[][] batch = new byte[Math.min(BATCH_SIZE,
+                    Math.max(pageTerms.size(), 1))][];
+            for (int from = 0; from < pageTerms.size(); from += BATCH_SIZE) {
+                final int start = from;
+                final int end = Math.min(from + BATCH_SIZE, pageTerms.size());
+                IntStream pages = IntStream.range(start, end);
+                if (pool != null) {
+                    pool.submit(() -> pages.parallel()
+                            .forEach(i -> batch[i - start] = render(templates,
+                                    pageTerms.get(i), pageDefinitions.get(i),
+                                    index)))
+                            .join();
+                } else {
+                    pages.forEach(i -> batch[i - start] = render(templates,
+                            pageTerms.get(i), pageDefinitions.get(i), index));
+                }
+                // Writes the batch in order on this thread
+                for (int i = start; i < end; i++) {
+                    putEntry(zip, HtmlEscaper.pageFile(pageTerms.get(i)),
+                            batch[i - start]);
+                    batch[i - start] = null;
+                }
+            }
+
+            if (index == null) {
+                putEntry(zip, PageTemplates.INDEX_PAGE,
+                        templates.renderIndexPage(pageTerms));
+            } else {
+                putEntry(zip, PageTemplates.INDEX_PAGE,
+                        index.render(PageTemplates.INDEX_PAGE, templates));
+                for (String page : index.pageNames()) {
+                    putEntry(zip, page, index.render(page, templates));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write " + temp, e);
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not replace " + target, e);
+        }
+        return pageTerms.size();
+    }
+
+    /**
+     * Renders the page of {@code term}.
+     *
+     * @param templates
+     *            the page layouts
+     * @param term
+     *            the term
+     * @param definition
+     *            its linked definition
+     * @param index
+     *            the sharded index, or null
+     * @return the encoded page
+     */
+    private static byte[] render(PageTemplates templates, String term,
+            String definition, ShardedIndex index) {
+        return templates.renderTermPage(term, definition,
+                index == null ? PageTemplates.INDEX_PAGE : index.pageOf(term));
+    }
+
+    /**
+     * Adds an entry holding {@code content} to {@code zip}.
+     *
+     * @param zip
+     *            the archive
+     * @param name
+     *            name of the entry
+     * @param content
+     *            content of the entry
+     * @throws IOException
+     *             if writing fails
+     */
+    private static void putEntry(ZipOutputStream zip, String name,
+            byte[] content) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setTime(ENTRY_TIME);
+        zip.putNextEntry(entry);
+        zip.write(content);
+        zip.closeEntry();
+    }
+}
@@ -0,0 +1,195 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Random;
+
+import components.map.Map;
+import components.queue.Queue;
+
+/**
+ * Generates a random but reproducible glossary, for benchmarks and large
+ * tests. The same seed and parameters always give the same glossary.
+ *
+ * @author Elijah Paulman
+ *
+ */
+public final class SyntheticGlossary {
+
+    /**
+     * Syllables that terms and filler words are made of.
+     */
+    private static final String[] SYLLABLES = { "ba", "co", "de", "fi", "gu",
+            "ha", "jo", "ki", "lu", "ma", "ne", "po", "qui", "ra", "si", "tu",
+            "va", "we", "xo", "yu", "za", "bri", "cla", "dro", "fle", "gri",
+            "pla", "sto", "tri", "vlo" };
+
+    /**
+     * Number of distinct filler words definitions are made of.
+     */
+    private static final int FILLER_WORDS = 2048;
+
+    /**
+     * Terms, in generation (unsorted) order.
+     */
+    private final String[] terms;
+
+    /**
+     * Definition of each term, by position.
+     */
+    private final String[] definitions;
+
+    /**
+     * Generates a glossary.
+     *
+     * @param seed
+     *            the random seed
+     * @param termCount
+     *            number of terms
+     * @param definitionWords
+     *            number of words in each definition
+     * @param linkDensity
+     *            probability that a word of a definition is another term
+     * @requires termCount >= 0, definitionWords >= 1, 0 <= linkDensity <= 1
+     * @ensures the glossary has termCount distinct terms, none of which is a
+     *          filler word
+     */
+    public SyntheticGlossary(long seed, int termCount, int definitionWords,
+            double linkDensity) {
+        assert termCount >= 0 : "Violation of: termCount >= 0";
+        assert definitionWords >= 1 : "Violation of: definitionWords >= 1";
+        assert 0 <= linkDensity
+                && linkDensity <= 1 : "Violation of: 0 <= linkDensity <= 1";
+
+        Random random = new Random(seed);
+
+        // Filler words are short and terms are long, and a term is never
+        // the same as a filler word or another term
+        String[] filler = new String[FILLER_WORDS];
+        HashSet<String> seen = new HashSet<>();
+        for (int i = 0; i < FILLER_WORDS; i++) {
+            filler[i] = word(random, 1 + random.nextInt(2));
+            seen.add(filler[i]);
+        }
+        this.terms = new String[termCount];
+        int syllables = 3;
+        for (int i = 0; i < termCount; i++) {
+            String term = word(random, syllables + random.nextInt(2));
+            // Grows the term length once the shorter space is crowded
+            while (!seen.add(term)) {
+                syllables++;
+                term = word(random, syllables);
+            }
+            this.terms[i] = term;
+        }
+
+        this.definitions = new String[termCount];
+        StringBuilder definition = new StringBuilder();
+        for (int i = 0; i < termCount; i++) {
+            definition.setLength(0);
+            for (int w = 0; w < definitionWords; w++) {
+                if (w > 0) {
+                    definition.append(random.nextInt(10) == 0 ? ", " : " ");
+                }
+                if (random.nextDouble() < linkDensity) {
+                    definition.append(this.terms[random.nextInt(termCount)]);
+                } else {
+                    definition.append(filler[random.nextInt(FILLER_WORDS)]);
+                }
+            }
+            this.definitions[i] = definition.toString();
+        }
+    }
+
+    /**
+     * Returns a random word of {@code syllables} syllables.
+     *
+     * @param random
+     *            the source of randomness
+     * @param syllables
+     *            number of syllables
+     * @return the word
+     */
+    private static String word(Random random, int syllables) {
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < syllables; i++) {
+            word.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+        }
+        return word.toString();
+    }
+
+    /**
+     * Returns the number of terms.
+     *
+     * @return the number of terms
+     */
+    public int size() {
+        return this.terms.length;
+    }
+
+    /**
+     * Returns the term at position {@code i}, in generation order.
+     *
+     * @param i
+     *            the position
+     * @return the term
+     */
+    public String term(int i) {
+        return this.terms[i];
+    }
+
+    /**
+     * Returns the definition of the term at position {@code i}.
+     *
+     * @param i
+     *            the position
+     * @return the definition
+     */
+    public String definition(int i) {
+        return this.definitions[i];
+    }
+
+    /**
+     * Adds every term and definition to {@code definitionMap} and every term
+     * to {@code terms}, as {@code Glossary.getTermsAndDefs} would.
+     *
+     * @param definitionMap
+     *            map of <term, definition> as strings
+     * @param terms
+     *            queue of terms
+     * @updates definitionMap, terms
+     * @requires definitionMap has none of the generated terms
+     */
+    public void fill(Map<String, String> definitionMap, Queue<String> terms) {
+        for (int i = 0; i < this.terms.length; i++) {
+            definitionMap.add(this.terms[i], this.definitions[i]);
+            terms.enqueue(this.terms[i]);
+        }
+    }
+
+    /**
+     * Writes the glossary to {@code file} in the terms.txt input format.
+     *
+     * @param file
+     *            the file to write
+     */
+    public void writeTo(Path file) {
+        try (BufferedWriter writer = Files.newBufferedWriter(file,
+                StandardCharsets.UTF_8)) {
+            for (int i = 0; i < this.terms.length; i++) {
+                if (i > 0) {
+                    writer.write('\n');
+                }
+                writer.write(this.terms[i]);
+                writer.write('\n');
+                writer.write(this.definitions[i]);
+                writer.write('\n');
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write " + file, e);
+        }
+    }
+}
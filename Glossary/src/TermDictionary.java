@@ -0,0 +1,417 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Read-only dictionary of the terms of a glossary, answering which term (if
+ * any) a range of characters spells. It is a perfect hash built once with
+ * the hash-and-displace method: every term hashes to a bucket, and each bucket
+ * stores a small displacement that sends its terms to distinct slots. A few
+ * spare slots (see {@link #LOAD_FACTOR}) keep the last buckets from searching
+ * for one of the very few free slots, which would not end in reasonable time
+ * for millions of terms. The terms themselves are packed into a single
+ * {@code char} array so a lookup can check its candidate without a
+ * {@code String} ever being created for the text looked up.
+ *
+ * <p>
+ * The id of a term is its position in the sequence the dictionary was built
+ * from; a term listed more than once gets the id of its first occurrence.
+ * </p>
+ *
+ * @author Elijah Paulman
+ *
+ */
+public final class TermDictionary {
+
+    /**
+     * Average number of terms per bucket.
+     */
+    private static final int BUCKET_LOAD = 4;
+
+    /**
+     * Largest share of the slots holding a term.
+     */
+    private static final double LOAD_FACTOR = 0.95;
+
+    /**
+     * Largest displacement tried for one bucket before starting over with
+     * another seed.
+     */
+    private static final int MAX_DISPLACEMENT = 1 << 20;
+
+    /**
+     * Number of seeds tried before giving up.
+     */
+    private static final int MAX_SEEDS = 8;
+
+    /**
+     * Multiplier spreading displacements over the hash space.
+     */
+    private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+
+    /**
+     * Seed of the term hash.
+     */
+    private final long seed;
+
+    /**
+     * Displacement of each bucket.
+     */
+    private final int[] displacements;
+
+    /**
+     * Id of the term in each slot, or -1 for a spare slot.
+     */
+    private final int[] ids;
+
+    /**
+     * Start of the characters of the term in each slot, plus one final
+     * entry.
+     */
+    private final int[] starts;
+
+    /**
+     * Characters of all terms, by slot.
+     */
+    private final char[] chars;
+
+    /**
+     * Number of distinct terms.
+     */
+    private final int size;
+
+    /**
+     * Builds the dictionary of {@code terms}.
+     *
+     * @param terms
+     *            the terms, in id order
+     * @requires terms is not null
+     * @ensures id(t) is the position of the first occurrence of t in terms
+     */
+    public TermDictionary(Iterable<String> terms) {
+        this(terms, MAX_DISPLACEMENT);
+    }
+
+    /**
+     * Builds the dictionary of {@code terms}, trying at most
+     * {@code maxDisplacement} displacements per bucket for each seed.
+     *
+     * @param terms
+     *            the terms, in id order
+     * @param maxDisplacement
+     *            displacements tried per bucket
+     * @throws IllegalStateException
+     *             if no seed places every term
+     * @requires terms is not null, maxDisplacement >= 1
+     * @ensures id(t) is the position of the first occurrence of t in terms
+     */
+    TermDictionary(Iterable<String> terms, int maxDisplacement) {
+        assert terms != null : "Violation of: terms is not null";
+        assert maxDisplacement >= 1 : "Violation of: maxDisplacement >= 1";
+
+        // Collects the distinct terms and their ids
+        List<String> keys = new ArrayList<>();
+        List<Integer> keyIds = new ArrayList<>();
+        HashSet<String> seen = new HashSet<>();
+        int position = 0;
+        for (String term : terms) {
+            if (seen.add(term)) {
+                keys.add(term);
+                keyIds.add(position);
+            }
+            position++;
+        }
+        int n = keys.size();
+
+        // Retries with another seed in the unlikely case a bucket is stuck
+        long trySeed = GOLDEN;
+        int buckets = n / BUCKET_LOAD + 1;
+        int m = (int) (n / LOAD_FACTOR) + 1;
+        int[] slotOf = new int[n];
+        int[] pilots = new int[buckets];
+        int tries = 1;
+        while (!place(keys, trySeed, m, maxDisplacement, pilots, slotOf)) {
+            if (tries == MAX_SEEDS) {
+                throw new IllegalStateException("Could not place " + n
+                        + " terms in " + m + " slots with " + MAX_SEEDS
+                        + " seeds");
+            }
+            tries++;
+            trySeed += GOLDEN;
+        }
+        this.seed = trySeed;
+        this.displacements = pilots;
+
+        // Lays the terms out by slot
+        this.ids = new int[m];
+        Arrays.fill(this.ids, -1);
+        this.starts = new int[m + 1];
+        String[] bySlot = new String[m];
+        for (int k = 0; k < n; k++) {
+            bySlot[slotOf[k]] = keys.get(k);
+            this.ids[slotOf[k]] = keyIds.get(k);
+        }
+        int total = 0;
+        for (int slot = 0; slot < m; slot++) {
+            this.starts[slot] = total;
+            if (bySlot[slot] != null) {
+                total += bySlot[slot].length();
+            }
+        }
+        this.starts[m] = total;
+        this.chars = new char[total];
+        for (int slot = 0; slot < m; slot++) {
+            if (bySlot[slot] != null) {
+                bySlot[slot].getChars(0, bySlot[slot].length(), this.chars,
+                        this.starts[slot]);
+            }
+        }
+        this.size = n;
+    }
+
+    /**
+     * Finds a displacement for every bucket so that all keys land in
+     * distinct slots, handling the biggest buckets first.
+     *
+     * @param keys
+     *            the distinct keys
+     * @param seed
+     *            seed of the key hash
+     * @param m
+     *            number of slots
+     * @param maxDisplacement
+     *            displacements tried per bucket
+     * @param pilots
+     *            receives the displacement of each bucket
+     * @param slotOf
+     *            receives the slot of each key
+     * @return whether every bucket was placed
+     */
+    private static boolean place(List<String> keys, long seed, int m,
+            int maxDisplacement, int[] pilots, int[] slotOf) {
+        int n = keys.size();
+        int buckets = pilots.length;
+        long[] hashes = new long[n];
+        int[] bucketStart = new int[buckets + 1];
+        for (int k = 0; k < n; k++) {
+            hashes[k] = hash(keys.get(k), 0, keys.get(k).length(), seed);
+            bucketStart[reduce(hashes[k], buckets) + 1]++;
+        }
+        // Groups the keys by bucket
+        int largest = 0;
+        for (int b = 0; b < buckets; b++) {
+            largest = Math.max(largest, bucketStart[b + 1]);
+            bucketStart[b + 1] += bucketStart[b];
+        }
+        int[] members = new int[n];
+        int[] fill = Arrays.copyOf(bucketStart, buckets);
+        for (int k = 0; k < n; k++) {
+            int b = reduce(hashes[k], buckets);
+            members[fill[b]] = k;
+            fill[b]++;
+        }
+        // Orders the buckets by decreasing size
+        int[] sizeStart = new int[largest + 2];
+        for (int b = 0; b < buckets; b++) {
+            sizeStart[largest - (bucketStart[b + 1] - bucketStart[b]) + 1]++;
+        }
+        for (int s = 0; s <= largest; s++) {
+            sizeStart[s + 1] += sizeStart[s];
+        }
+        int[] order = new int[buckets];
+        for (int b = 0; b < buckets; b++) {
+            int size = bucketStart[b + 1] - bucketStart[b];
+            order[sizeStart[largest - size]] = b;
+            sizeStart[largest - size]++;
+        }
+
+        boolean[] taken = new boolean[m];
+        int[] slots = new int[largest];
+        for (int b : order) {
+            int from = bucketStart[b];
+            int size = bucketStart[b + 1] - from;
+            if (size == 0) {
+                break;
+            }
+            int d = 0;
+            while (!fits(members, from, size, hashes, d, taken, slots)) {
+                d++;
+                if (d == maxDisplacement) {
+                    return false;
+                }
+            }
+            pilots[b] = d;
+            for (int i = 0; i < size; i++) {
+                taken[slots[i]] = true;
+                slotOf[members[from + i]] = slots[i];
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether displacement {@code d} sends the keys of a bucket to
+     * free and distinct slots, which are left in {@code slots}.
+     *
+     * @param members
+     *            keys grouped by bucket
+     * @param from
+     *            position of the bucket's first key in members
+     * @param size
+     *            number of keys in the bucket
+     * @param hashes
+     *            hash of each key
+     * @param d
+     *            the displacement to try
+     * @param taken
+     *            which slots are used
+     * @param slots
+     *            receives the slot of each key of the bucket
+     * @return true iff d places the whole bucket
+     */
+    private static boolean fits(int[] members, int from, int size,
+            long[] hashes, int d, boolean[] taken, int[] slots) {
+        int n = taken.length;
+        for (int i = 0; i < size; i++) {
+            int slot = slot(hashes[members[from + i]], d, n);
+            if (taken[slot]) {
+                return false;
+            }
+            for (int j = 0; j < i; j++) {
+                if (slots[j] == slot) {
+                    return false;
+                }
+            }
+            slots[i] = slot;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of distinct terms.
+     *
+     * @return the number of terms
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns the id of the term {@code text} spells.
+     *
+     * @param text
+     *            the text
+     * @return the id of the term, or -1 if text is not a term
+     */
+    public int id(CharSequence text) {
+        return this.id(text, 0, text.length());
+    }
+
+    /**
+     * Returns the id of the term spelled by {@code text[from, to)}.
+     *
+     * @param text
+     *            the text
+     * @param from
+     *            start of the range
+     * @param to
+     *            end of the range
+     * @return the id of the term, or -1 if the range is not a term
+     * @requires 0 <= from <= to <= |text|
+     */
+    public int id(CharSequence text, int from, int to) {
+        if (this.size == 0) {
+            return -1;
+        }
+        long h = hash(text, from, to, this.seed);
+        int slot = slot(h, this.displacements[reduce(h,
+                this.displacements.length)], this.ids.length);
+        int start = this.starts[slot];
+        if (this.ids[slot] < 0 || this.starts[slot + 1] - start != to - from) {
+            return -1;
+        }
+        for (int i = from; i < to; i++) {
+            if (this.chars[start + i - from] != text.charAt(i)) {
+                return -1;
+            }
+        }
+        return this.ids[slot];
+    }
+
+    /**
+     * Returns whether {@code text} is a term.
+     *
+     * @param text
+     *            the text
+     * @return true iff text is a term
+     */
+    public boolean contains(CharSequence text) {
+        return this.id(text, 0, text.length()) >= 0;
+    }
+
+    /**
+     * Returns the 64-bit hash of {@code text[from, to)}.
+     *
+     * @param text
+     *            the text
+     * @param from
+     *            start of the range
+     * @param to
+     *            end of the range
+     * @param seed
+     *            the seed
+     * @return the hash
+     */
+    private static long hash(CharSequence text, int from, int to,
+            long seed) {
+        long h = seed ^ (to - from);
+        for (int i = from; i < to; i++) {
+            h = (h ^ text.charAt(i)) * 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    /**
+     * Finalizes a hash so every input bit affects every output bit.
+     *
+     * @param h
+     *            the hash
+     * @return the mixed hash
+     */
+    private static long mix(long h) {
+        long x = h;
+        x = (x ^ (x >>> 33)) * 0xff51afd7ed558ccdL;
+        x = (x ^ (x >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return x ^ (x >>> 33);
+    }
+
+    /**
+     * Maps the high half of {@code h} onto {@code [0, n)}.
+     *
+     * @param h
+     *            the hash
+     * @param n
+     *            the range
+     * @return a value in [0, n)
+     */
+    private static int reduce(long h, int n) {
+        return (int) (((h >>> 32) * n) >>> 32);
+    }
+
+    /**
+     * Returns the slot of a key with hash {@code h} under displacement
+     * {@code d}.
+     *
+     * @param h
+     *            the key hash
+     * @param d
+     *            the displacement
+     * @param n
+     *            the number of slots
+     * @return the slot
+     */
+    private static int slot(long h, int d, int n) {
+        return reduce(mix(h + (d + 1) * GOLDEN), n);
+    }
+}
@@ -0,0 +1,456 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+
+/**
+ * Aho-Corasick automaton built once over every term of a glossary. Links all
+ * occurrences of terms (including multi-word terms such as "doubly linked
+ * list") in a definition in a single left-to-right scan, so the cost of
+ * linking grows with the length of the definitions and not with the number of
+ * terms.
+ *
+ * <p>
+ * A term only matches when it starts and ends on a word boundary, where a
+ * boundary is a change between separator and non-separator characters (see
+ * {@link WordTokenizer#isBoundary(CharSequence, int)}). When
+ * several matches overlap, the leftmost one wins, and among those starting at
+ * the same position the longest one wins.
+ * </p>
+ *
+ * @author Elijah Paulman
+ *
+ */
+public final class TermLinker {
+
+    /**
+     * Marks an empty slot in the transition table.
+     */
+    private static final long EMPTY = -1L;
+
+    /**
+     * Number of term ids.
+     */
+    private final int termCount;
+
+    /**
+     * Gives the term of each id.
+     */
+    private final IntFunction<? extends CharSequence> terms;
+
+    /**
+     * Id of the term spelled by each state, or -1 if the state is not the end
+     * of a term.
+     */
+    private final int[] termOfState;
+
+    /**
+     * Length of the path from the root to each state.
+     */
+    private final int[] depth;
+
+    /**
+     * Failure link of each state.
+     */
+    private final int[] fail;
+
+    /**
+     * Nearest state on the failure chain of each state (excluding the state
+     * itself) that is the end of a term, or 0 if there is none.
+     */
+    private final int[] output;
+
+    /**
+     * Keys of the open-addressing transition table, {@code state << 16 | ch}.
+     */
+    private final long[] edgeKeys;
+
+    /**
+     * Target states of the transition table.
+     */
+    private final int[] edgeTargets;
+
+    /**
+     * Tokenizer deciding where words start and end.
+     */
+    private final WordTokenizer tokenizer;
+
+    /**
+     * Builds the automaton over the given terms.
+     *
+     * @param allTerms
+     *            the terms that can be linked to
+     * @param tokenizer
+     *            the tokenizer deciding where words start and end
+     * @requires allTerms and tokenizer are not null
+     * @ensures every non-empty term in allTerms can be found by link
+     */
+    public TermLinker(Iterable<String> allTerms, WordTokenizer tokenizer) {
+        this(nonEmpty(allTerms), tokenizer);
+    }
+
+    /**
+     * Builds the automaton over the given terms.
+     *
+     * @param terms
+     *            the terms that can be linked to, by id
+     * @param tokenizer
+     *            the tokenizer deciding where words start and end
+     * @requires every term is non-empty
+     */
+    private TermLinker(String[] terms, WordTokenizer tokenizer) {
+        this(terms.length, id -> terms[id], tokenizer);
+    }
+
+    /**
+     * Builds the automaton over terms {@code 0} to {@code count - 1}, read
+     * through {@code terms}. The terms are not kept: each one is read twice
+     * while building, and {@link #term(int)} reads it again. This lets a store
+     * that holds its terms more compactly than as strings hand out a view of
+     * each term in turn, which need only stay valid until the next call.
+     *
+     * @param count
+     *            number of term ids
+     * @param terms
+     *            gives the term of each id
+     * @param tokenizer
+     *            the tokenizer deciding where words start and end
+     * @requires count >= 0, terms and tokenizer are not null
+     * @ensures every non-empty term can be found by link
+     */
+    public TermLinker(int count, IntFunction<? extends CharSequence> terms,
+            WordTokenizer tokenizer) {
+        assert count >= 0 : "Violation of: count >= 0";
+        assert terms != null : "Violation of: terms is not null";
+        assert tokenizer != null : "Violation of: tokenizer is not null";
+
+        this.tokenizer = tokenizer;
+        this.termCount = count;
+        this.terms = terms;
+
+        // Upper bound on the number of states
+        int maxStates = 1;
+        for (int id = 0; id < count; id++) {
+            maxStates += terms.apply(id).length();
+        }
+
+        this.termOfState = new int[maxStates];
+        this.depth = new int[maxStates];
+        this.fail = new int[maxStates];
+        this.output = new int[maxStates];
+        // Sibling lists are only needed while computing failure links
+        int[] firstChild = new int[maxStates];
+        int[] nextSibling = new int[maxStates];
+        char[] edgeChar = new char[maxStates];
+
+        // Transition table is kept at most half full
+        int capacity = Integer.highestOneBit(Math.max(maxStates, 2) * 2);
+        if (capacity < maxStates * 2) {
+            capacity <<= 1;
+        }
+        this.edgeKeys = new long[capacity];
+        this.edgeTargets = new int[capacity];
+        Arrays.fill(this.edgeKeys, EMPTY);
+        Arrays.fill(this.termOfState, -1);
+
+        // Builds the trie
+        int states = 1;
+        for (int id = 0; id < count; id++) {
+            CharSequence term = terms.apply(id);
+            if (term.length() == 0) {
+                continue;
+            }
+            int state = 0;
+            for (int i = 0; i < term.length(); i++) {
+                char c = term.charAt(i);
+                int next = this.transition(state, c);
+                if (next < 0) {
+                    next = states;
+                    states++;
+                    this.depth[next] = this.depth[state] + 1;
+                    edgeChar[next] = c;
+                    nextSibling[next] = firstChild[state];
+                    firstChild[state] = next;
+                    this.putTransition(state, c, next);
+                }
+                state = next;
+            }
+            this.termOfState[state] = id;
+        }
+
+        // Computes failure and output links breadth first
+        int[] bfs = new int[states];
+        int head = 0;
+        int tail = 0;
+        for (int child = firstChild[0]; child != 0;
+                child = nextSibling[child]) {
+            bfs[tail] = child;
+            tail++;
+        }
+        while (head < tail) {
+            int state = bfs[head];
+            head++;
+            int f = this.fail[state];
+            this.output[state] = this.termOfState[f] >= 0 ? f : this.output[f];
+            for (int child = firstChild[state]; child != 0;
+                    child = nextSibling[child]) {
+                this.fail[child] = this.step(f, edgeChar[child]);
+                bfs[tail] = child;
+                tail++;
+            }
+        }
+    }
+
+    /**
+     * Returns the non-empty terms of {@code allTerms}, in order.
+     *
+     * @param allTerms
+     *            the terms
+     * @return the non-empty terms
+     * @requires allTerms is not null
+     */
+    private static String[] nonEmpty(Iterable<String> allTerms) {
+        assert allTerms != null : "Violation of: allTerms is not null";
+
+        List<String> list = new ArrayList<>();
+        for (String term : allTerms) {
+            if (term.length() > 0) {
+                list.add(term);
+            }
+        }
+        return list.toArray(new String[list.size()]);
+    }
+
+    /**
+     * Returns the number of terms known to this linker.
+     *
+     * @return the number of terms
+     */
+    public int termCount() {
+        return this.termCount;
+    }
+
+    /**
+     * Returns the term with the given id.
+     *
+     * @param id
+     *            the term id
+     * @return the term
+     * @requires 0 <= id < termCount()
+     */
+    public String term(int id) {
+        return this.terms.apply(id).toString();
+    }
+
+    /**
+     * Returns {@code text} with every occurrence of a term replaced by a link
+     * to the term's page.
+     *
+     * @param text
+     *            the definition to link
+     * @return the linked definition
+     */
+    public String link(String text) {
+        StringBuilder linked = new StringBuilder(text.length() + 16);
+        this.link(text, linked, null);
+        return linked.toString();
+    }
+
+    /**
+     * Appends {@code text} to {@code linked} with every occurrence of a term
+     * replaced by a link to the term's page, reporting the id of every linked
+     * term to {@code targets}. The text is plain, like the terms it is matched
+     * against, so it is escaped as html text as it is copied, and the URL of
+     * each page is encoded.
+     *
+     * @param text
+     *            the definition to link
+     * @param linked
+     *            the builder the linked definition is appended to
+     * @param targets
+     *            receives the id of each link created, in text order (may be
+     *            null)
+     * @updates linked
+     */
+    public void link(CharSequence text, StringBuilder linked,
+            IntConsumer targets) {
+        this.link(text, linked, targets, null);
+    }
+
+    /**
+     * Same as {@link #link(CharSequence, StringBuilder, IntConsumer)}, but the
+     * link to each term points into the folder {@code folders} returns for
+     * its id, so terms can link to pages of another site.
+     *
+     * @param text
+     *            the definition to link
+     * @param linked
+     *            the builder the linked definition is appended to
+     * @param targets
+     *            receives the id of each link created, in text order (may be
+     *            null)
+     * @param folders
+     *            gives the folder of the page of each term id, relative to
+     *            the linked page and ending in "/", or "" for the same folder
+     *            (null for the same folder for all)
+     * @updates linked
+     */
+    public void link(CharSequence text, StringBuilder linked,
+            IntConsumer targets, IntFunction<String> folders) {
+        int[] best = this.scan(text);
+
+        // Nothing to link, so the text is only escaped
+        if (best == null) {
+            HtmlEscaper.appendText(linked, text, 0, text.length());
+            return;
+        }
+
+        // Emits the text, taking the leftmost-longest match at each position
+        int length = text.length();
+        int copied = 0;
+        int i = 0;
+        while (i < length) {
+            int hit = best[i];
+            if (hit != 0) {
+                int matchLength = this.depth[hit];
+                HtmlEscaper.appendText(linked, text, copied, i);
+                int id = this.termOfState[hit];
+                linked.append("<a href=\"");
+                if (folders != null) {
+                    linked.append(folders.apply(id));
+                }
+                HtmlEscaper.appendPageUrl(linked, text, i, i + matchLength);
+                linked.append(".html\">");
+                HtmlEscaper.appendText(linked, text, i, i + matchLength);
+                linked.append("</a>");
+                if (targets != null) {
+                    targets.accept(id);
+                }
+                i += matchLength;
+                copied = i;
+            } else {
+                i++;
+            }
+        }
+        HtmlEscaper.appendText(linked, text, copied, length);
+    }
+
+    /**
+     * Returns whether any term occurs in {@code text} on word boundaries.
+     *
+     * @param text
+     *            the text to search
+     * @return true iff linking text would create at least one link
+     */
+    public boolean occursIn(CharSequence text) {
+        return this.scan(text) != null;
+    }
+
+    /**
+     * Scans {@code text} once and records, for each position, the state of
+     * the longest term match starting there that sits on word boundaries.
+     *
+     * @param text
+     *            the text to scan
+     * @return the best match state by start position (0 if none), or null if
+     *         there is no match at all
+     */
+    private int[] scan(CharSequence text) {
+        int length = text.length();
+        int[] best = null;
+
+        int state = 0;
+        for (int i = 0; i < length; i++) {
+            state = this.step(state, text.charAt(i));
+            int end = i + 1;
+            if (this.tokenizer.isBoundary(text, end)) {
+                int hit = this.termOfState[state] >= 0 ? state
+                        : this.output[state];
+                while (hit != 0) {
+                    int start = end - this.depth[hit];
+                    if (this.tokenizer.isBoundary(text, start)) {
+                        if (best == null) {
+                            best = new int[length];
+                        }
+                        if (this.depth[hit] > this.depth[best[start]]) {
+                            best[start] = hit;
+                        }
+                    }
+                    hit = this.output[hit];
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Follows the automaton from {@code state} on character {@code c},
+     * falling back along failure links as needed.
+     *
+     * @param state
+     *            the current state
+     * @param c
+     *            the next character
+     * @return the next state
+     */
+    private int step(int state, char c) {
+        int s = state;
+        int next = this.transition(s, c);
+        while (next < 0 && s != 0) {
+            s = this.fail[s];
+            next = this.transition(s, c);
+        }
+        return next < 0 ? 0 : next;
+    }
+
+    /**
+     * Returns the slot of the transition table where {@code key} is or
+     * belongs.
+     *
+     * @param key
+     *            the transition key
+     * @return the slot index
+     */
+    private int slot(long key) {
+        int mask = this.edgeKeys.length - 1;
+        long h = key * 0x9E3779B97F4A7C15L;
+        int index = (int) (h >>> 32) & mask;
+        while (this.edgeKeys[index] != EMPTY && this.edgeKeys[index] != key) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    /**
+     * Returns the trie child of {@code state} on {@code c}, or -1 if none.
+     *
+     * @param state
+     *            the parent state
+     * @param c
+     *            the edge character
+     * @return the child state or -1
+     */
+    private int transition(int state, char c) {
+        long key = ((long) state << 16) | c;
+        int index = this.slot(key);
+        return this.edgeKeys[index] == EMPTY ? -1 : this.edgeTargets[index];
+    }
+
+    /**
+     * Records the trie edge {@code state --c--> target}.
+     *
+     * @param state
+     *            the parent state
+     * @param c
+     *            the edge character
+     * @param target
+     *            the child state
+     */
+    private void putTransition(int state, char c, int target) {
+        long key = ((long) state << 16) | c;
+        int index = this.slot(key);
+        this.edgeKeys[index] = key;
+        this.edgeTargets[index] = target;
+    }
+}
@@ -0,0 +1,192 @@
+import components.set.Set;
+
+/**
+ * Splits text into words and separator strings the same way
+ * {@code Glossary.nextWordOrSeparator} does, but reports each token as a pair
+ * of offsets into the text instead of building a new {@code String}. Separator
+ * characters are kept in a bitmap, so no character is boxed and nothing is
+ * allocated per token.
+ *
+ * @author Elijah Paulman
+ *
+ */
+public final class WordTokenizer {
+
+    /**
+     * Separator characters used when linking glossary definitions.
+     */
+    public static final String GLOSSARY_SEPARATORS = " !'.,/:;?";
+
+    /**
+     * Tokenizer over {@link #GLOSSARY_SEPARATORS}.
+     */
+    public static final WordTokenizer GLOSSARY = new WordTokenizer(
+            GLOSSARY_SEPARATORS);
+
+    /**
+     * Tokenizer last returned by {@link #of(Set)}.
+     */
+    private static volatile WordTokenizer last = GLOSSARY;
+
+    /**
+     * The separator characters.
+     */
+    private final String chars;
+
+    /**
+     * Bitmap of separator characters, one bit per char up to the largest
+     * separator.
+     */
+    private final long[] bits;
+
+    /**
+     * Creates a tokenizer for the separator characters in
+     * {@code separatorChars}.
+     *
+     * @param separatorChars
+     *            the separator characters
+     * @requires separatorChars is not null
+     */
+    public WordTokenizer(CharSequence separatorChars) {
+        assert separatorChars != null : "Violation of: separatorChars is not null";
+
+        this.chars = separatorChars.toString();
+        char max = 0;
+        for (int i = 0; i < separatorChars.length(); i++) {
+            max = (char) Math.max(max, separatorChars.charAt(i));
+        }
+        this.bits = new long[(max >>> 6) + 1];
+        for (int i = 0; i < separatorChars.length(); i++) {
+            char c = separatorChars.charAt(i);
+            this.bits[c >>> 6] |= 1L << c;
+        }
+    }
+
+    /**
+     * Creates a tokenizer for the separator characters in {@code separators}.
+     *
+     * @param separators
+     *            the {@code Set} of separator characters
+     * @requires separators is not null
+     */
+    public WordTokenizer(Set<Character> separators) {
+        this(toChars(separators));
+    }
+
+    /**
+     * Returns a tokenizer for the separator characters in {@code separators},
+     * which is the one this method last returned (at first
+     * {@link #GLOSSARY}) if it has the same characters, so that callers
+     * given the same set on every call share one tokenizer.
+     *
+     * @param separators
+     *            the {@code Set} of separator characters
+     * @return the tokenizer
+     * @requires separators is not null
+     */
+    public static WordTokenizer of(Set<Character> separators) {
+        assert separators != null : "Violation of: separators is not null";
+
+        WordTokenizer tokenizer = last;
+        if (!tokenizer.hasSeparators(separators)) {
+            tokenizer = new WordTokenizer(separators);
+            last = tokenizer;
+        }
+        return tokenizer;
+    }
+
+    /**
+     * Returns whether the separator characters of this tokenizer are exactly
+     * those in {@code separators}.
+     *
+     * @param separators
+     *            the {@code Set} of separator characters
+     * @return true iff the separators are the same
+     */
+    private boolean hasSeparators(Set<Character> separators) {
+        if (separators.size() != this.chars.length()) {
+            return false;
+        }
+        for (int i = 0; i < this.chars.length(); i++) {
+            if (!separators.contains(this.chars.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the characters of {@code separators} as a string.
+     *
+     * @param separators
+     *            the {@code Set} of separator characters
+     * @return the separator characters
+     */
+    private static String toChars(Set<Character> separators) {
+        assert separators != null : "Violation of: separators is not null";
+
+        StringBuilder chars = new StringBuilder(separators.size());
+        for (char c : separators) {
+            chars.append(c);
+        }
+        return chars.toString();
+    }
+
+    /**
+     * Returns whether {@code c} is a separator character.
+     *
+     * @param c
+     *            the character to check
+     * @return true iff c is a separator
+     */
+    public boolean isSeparator(char c) {
+        int word = c >>> 6;
+        return word < this.bits.length && (this.bits[word] & (1L << c)) != 0;
+    }
+
+    /**
+     * Returns the end offset (exclusive) of the word or separator string that
+     * starts at {@code position} in {@code text}.
+     *
+     * @param text
+     *            the text being split
+     * @param position
+     *            the starting index
+     * @return the index just past the token starting at position
+     * @requires 0 <= position < |text|
+     * @ensures <pre>
+     * text[position, tokenEnd) = nextWordOrSeparator(text, position, separators)
+     * </pre>
+     */
+    public int tokenEnd(CharSequence text, int position) {
+        assert text != null : "Violation of: text is not null";
+        assert 0 <= position : "Violation of: 0 <= position";
+        assert position < text.length() : "Violation of: position < |text|";
+
+        boolean separator = this.isSeparator(text.charAt(position));
+        int end = position + 1;
+        while (end < text.length()
+                && this.isSeparator(text.charAt(end)) == separator) {
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * Returns whether a token boundary lies before index {@code position} of
+     * {@code text}, i.e., whether a word or separator string starts or ends
+     * there.
+     *
+     * @param text
+     *            the text being split
+     * @param position
+     *            the index to check
+     * @return true iff position is a token boundary
+     * @requires 0 <= position <= |text|
+     */
+    public boolean isBoundary(CharSequence text, int position) {
+        return position == 0 || position == text.length()
+                || this.isSeparator(text.charAt(position - 1)) != this
+                        .isSeparator(text.charAt(position));
+    }
+}
@@ -1,7 +1,21 @@
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+import java.util.zip.ZipFile;
 
 import org.junit.Test;
 
@@ -94,6 +108,41 @@ public class GlossaryTest {
         assertEquals(expected, actual);
     }
 
+    /**
+     * Tests that token boundaries are reported as offsets.
+     */
+    @Test
+    public void testWordTokenizerTokenEnd() {
+        String text = "a word, then more";
+        WordTokenizer tokenizer = new WordTokenizer(
+                WordTokenizer.GLOSSARY_SEPARATORS);
+        final int wordEnd = 6;
+        final int separatorEnd = 8;
+        assertEquals(1, tokenizer.tokenEnd(text, 0));
+        assertEquals(wordEnd, tokenizer.tokenEnd(text, 2));
+        assertEquals(separatorEnd, tokenizer.tokenEnd(text, wordEnd));
+        assertEquals(text.length(), tokenizer.tokenEnd(text, text.length() - 1));
+    }
+
+    /**
+     * Tests that tokenizers are shared between calls with the same separator
+     * characters.
+     */
+    @Test
+    public void testWordTokenizerOfReusesTokenizer() {
+        Set<Character> separators = new Set1L<>();
+        for (char c : WordTokenizer.GLOSSARY_SEPARATORS.toCharArray()) {
+            separators.add(c);
+        }
+        assertTrue(WordTokenizer.of(separators) == WordTokenizer.GLOSSARY);
+
+        separators.remove('?');
+        WordTokenizer tokenizer = WordTokenizer.of(separators);
+        assertTrue(tokenizer != WordTokenizer.GLOSSARY);
+        assertTrue(!tokenizer.isSeparator('?'));
+        assertTrue(WordTokenizer.of(separators) == tokenizer);
+    }
+
     // Tests of getTermsAndDefs
 
     /**
@@ -140,6 +189,55 @@ public class GlossaryTest {
                 definitionMap.value("term"));
     }
 
+    /**
+     * Tests that the memory-mapped parser reads the same terms and
+     * definitions as getTermsAndDefs.
+     */
+    @Test
+    public void testMappedParserMatchesGetTermsAndDefs() {
+        Map<String, String> expectedMap = new Map1L<>();
+        SimpleReader in = new SimpleReader1L("data/terms.txt");
+        Queue<String> expected = Glossary.getTermsAndDefs(expectedMap, in);
+        in.close();
+
+        Map<String, String> actualMap = new Map1L<>();
+        final int threads = 4;
+        Queue<String> actual = MappedGlossaryParser
+                .getTermsAndDefs(actualMap, "data/terms.txt", threads);
+        assertEquals(expected.length(), actual.length());
+        while (expected.length() > 0) {
+            String term = expected.dequeue();
+            assertEquals(term, actual.dequeue());
+            assertEquals(expectedMap.value(term), actualMap.value(term));
+        }
+    }
+
+    /**
+     * Tests that the memory-mapped parser keeps input order across chunks.
+     *
+     * @throws IOException
+     *             if the temporary file cannot be written
+     */
+    @Test
+    public void testMappedParserManyChunks() throws IOException {
+        final int count = 30000;
+        SyntheticGlossary glossary = new SyntheticGlossary(1L, count, 12, 0.1);
+        File file = File.createTempFile("terms", ".txt");
+        glossary.writeTo(file.toPath());
+
+        Map<String, String> definitionMap = new Map1L<>();
+        final int threads = 4;
+        Queue<String> terms = MappedGlossaryParser
+                .getTermsAndDefs(definitionMap, file.getPath(), threads);
+        assertEquals(count, terms.length());
+        for (int i = 0; i < count; i++) {
+            String term = terms.dequeue();
+            assertEquals(glossary.term(i), term);
+            assertEquals(glossary.definition(i), definitionMap.value(term));
+        }
+        file.delete();
+    }
+
     // Tests of updateDefinitions
 
     /**
@@ -187,10 +285,87 @@ public class GlossaryTest {
         Glossary.updateDefinitions(definitionMap, terms, "out.txt");
         assertEquals("a fruit", definitionMap.value("apple"));
         assertEquals(
-                "a yellow fruit that is related to <a href=\"apple.html\">apples</a>",
+                "a yellow fruit that is related to &lt;a href=\"apple.html\"&gt;apples&lt;/a&gt;",
                 definitionMap.value("banana"));
     }
 
+    /**
+     * Tests that a term made of several words is linked as a whole.
+     */
+    @Test
+    public void testUpdateDefinitionsMultiWordTerm() {
+        Map<String, String> definitionMap = new Map1L<>();
+        Queue<String> terms = new Queue1L<>();
+        terms.enqueue("linked list");
+        terms.enqueue("deque");
+        definitionMap.add("linked list", "a chain of nodes");
+        definitionMap.add("deque", "often a doubly linked list, or an array");
+        Glossary.updateDefinitions(definitionMap, terms, "out.txt");
+        assertEquals("often a doubly <a href=\"linked list.html\">"
+                + "linked list</a>, or an array", definitionMap.value("deque"));
+    }
+
+    /**
+     * Tests that the longest overlapping term wins and that terms only match
+     * whole words.
+     */
+    @Test
+    public void testUpdateDefinitionsLongestMatch() {
+        Map<String, String> definitionMap = new Map1L<>();
+        Queue<String> terms = new Queue1L<>();
+        terms.enqueue("list");
+        terms.enqueue("linked list");
+        terms.enqueue("node");
+        definitionMap.add("list", "a sequence");
+        definitionMap.add("linked list", "a list of nodes");
+        definitionMap.add("node", "one element of a linked list");
+        Glossary.updateDefinitions(definitionMap, terms, "out.txt");
+        assertEquals("a <a href=\"list.html\">list</a> of nodes",
+                definitionMap.value("linked list"));
+        assertEquals("one element of a <a href=\"linked list.html\">"
+                + "linked list</a>", definitionMap.value("node"));
+    }
+
+    /**
+     * Tests that the links created while linking are indexed by target and
+     * listed on the target's page.
+     *
+     * @throws IOException
+     *             if the temporary directory cannot be used
+     */
+    @Test
+    public void testUpdateDefinitionsRecordsBacklinks() throws IOException {
+        Map<String, String> definitionMap = new Map1L<>();
+        Queue<String> terms = new Queue1L<>();
+        terms.enqueue("apple");
+        terms.enqueue("banana");
+        terms.enqueue("fruit");
+        definitionMap.add("apple", "a fruit, not a banana");
+        definitionMap.add("banana", "a yellow fruit and a fruit again");
+        definitionMap.add("fruit", "what a fruit tree bears");
+        BacklinkIndex backlinks = new BacklinkIndex();
+        Glossary.updateDefinitions(definitionMap, terms, "out.txt",
+                backlinks);
+        assertEquals(Arrays.asList("apple", "banana"),
+                backlinks.referrers("fruit"));
+        assertEquals(Arrays.asList("apple"), backlinks.referrers("banana"));
+        assertTrue(backlinks.referrers("apple").isEmpty());
+        final int three = 3;
+        assertEquals(three, backlinks.linkCount());
+
+        String out = Files.createTempDirectory("backlinks").toString();
+        Glossary.addLinks(definitionMap, terms, out, 1, PageTemplates.DEFAULT,
+                null, backlinks);
+        String page = HtmlToStringForTests
+                .htmlConvert(new File(out, "fruit.html"));
+        assertTrue(page.contains("<h3>Referenced by</h3>"));
+        assertTrue(page
+                .contains("<li><a href=\"banana.html\">banana</a></li>"));
+        assertTrue(!HtmlToStringForTests
+                .htmlConvert(new File(out, "apple.html"))
+                .contains("Referenced by"));
+    }
+
     // Tests of addLinks
 
     /**
@@ -250,6 +425,208 @@ public class GlossaryTest {
         assertTrue(new File(out + "/apple.html").isFile());
     }
 
+    /**
+     * Tests that the parallel render mode writes the same bytes as the
+     * sequential one.
+     *
+     * @throws IOException
+     *             if the temporary directories cannot be used
+     */
+    @Test
+    public void testAddLinksParallelMatchesSequential() throws IOException {
+        Map<String, String> definitionMap = new Map1L<>();
+        Queue<String> terms = new Queue1L<>();
+        final int count = 200;
+        for (int i = 0; i < count; i++) {
+            definitionMap.add("term" + i, "definition number " + i);
+            terms.enqueue("term" + i);
+        }
+        File sequential = Files.createTempDirectory("sequential").toFile();
+        File parallel = Files.createTempDirectory("parallel").toFile();
+        Glossary.addLinks(definitionMap, terms, sequential.getPath());
+        final int threads = 4;
+        Glossary.addLinks(definitionMap, terms, parallel.getPath(), threads);
+        assertEquals(count, terms.length());
+        assertEquals(count, parallel.list().length);
+        for (String name : sequential.list()) {
+            assertArrayEquals(Files.readAllBytes(new File(sequential, name).toPath()),
+                    Files.readAllBytes(new File(parallel, name).toPath()));
+        }
+    }
+
+    /**
+     * Tests that an incremental rebuild only rewrites the pages whose
+     * definition or links changed.
+     *
+     * @throws IOException
+     *             if the temporary directory cannot be created
+     */
+    @Test
+    public void testIncrementalBuildRewritesOnlyChangedPages()
+            throws IOException {
+        Map<String, String> definitionMap = new Map1L<>();
+        Queue<String> terms = new Queue1L<>();
+        definitionMap.add("apple", "a fruit");
+        definitionMap.add("banana", "a yellow fruit");
+        definitionMap.add("cherry", "a red fruit");
+        terms.enqueue("apple");
+        terms.enqueue("banana");
+        terms.enqueue("cherry");
+        String out = Files.createTempDirectory("incremental").toString();
+        final int three = 3;
+        assertEquals(three,
+                IncrementalBuild.build(definitionMap, terms, out, 1,
+                        PageTemplates.DEFAULT));
+        assertEquals(0, IncrementalBuild.build(definitionMap, terms, out, 1,
+                PageTemplates.DEFAULT));
+
+        // Adding "fruit" changes every page that mentions it
+        definitionMap.add("fruit", "a seed-bearing structure");
+        terms.enqueue("fruit");
+        final int four = 4;
+        assertEquals(four,
+                IncrementalBuild.build(definitionMap, terms, out, 1,
+                        PageTemplates.DEFAULT));
+
+        // Changing one definition rewrites only its own page
+        definitionMap.replaceValue("cherry", "a small red fruit");
+        assertEquals(1, IncrementalBuild.build(definitionMap, terms, out, 1,
+                PageTemplates.DEFAULT));
+        assertTrue(HtmlToStringForTests.htmlConvert(new File(out, "cherry.html"))
+                .contains("a small red <a href=\"fruit.html\">fruit</a>"));
+    }
+
+    /**
+     * Tests that an incremental build rewrites every page when the layouts or
+     * the order of the index changed.
+     *
+     * @throws IOException
+     *             if the temporary directories cannot be used
+     */
+    @Test
+    public void testIncrementalBuildRewritesAllPagesOnLayoutOrOrderChange()
+            throws IOException {
+        Map<String, String> definitionMap = new Map1L<>();
+        Queue<String> terms = new Queue1L<>();
+        definitionMap.add("apple", "a fruit");
+        definitionMap.add("banana", "a yellow fruit");
+        terms.enqueue("apple");
+        terms.enqueue("banana");
+        String out = Files.createTempDirectory("incremental").toString();
+        assertEquals(2, IncrementalBuild.build(definitionMap, terms, out, 1,
+                PageTemplates.DEFAULT));
+
+        // A new term page layout rewrites both pages
+        File dir = Files.createTempDirectory("templates").toFile();
+        Files.write(new File(dir, PageTemplates.TERM_FILE).toPath(),
+                "<h1>{{term}}</h1><p>{{definition}}</p>\n".getBytes("UTF-8"));
+        PageTemplates templates = PageTemplates.load(dir.getPath());
+        assertEquals(2, IncrementalBuild.build(definitionMap, terms, out, 1,
+                templates));
+        assertEquals("<h1>apple</h1><p>a fruit</p>\n", HtmlToStringForTests
+                .htmlConvert(new File(out, "apple.html")));
+        assertEquals(0, IncrementalBuild.build(definitionMap, terms, out, 1,
+                templates));
+
+        // Another order rewrites both pages and the index
+        File index = new File(out, "index.html");
+        Files.write(index.toPath(), new byte[0]);
+        assertEquals(2, IncrementalBuild.build(definitionMap, terms, out, 1,
+                templates, "root"));
+        assertTrue(index.length() > 0);
+    }
+
+    /**
+     * Tests that a linker reading its terms through one reused view links as
+     * a linker built from strings.
+     */
+    @Test
+    public void testTermLinkerBuildsFromReusedView() {
+        List<String> terms = Arrays.asList("linked list", "list", "", "node");
+        StringBuilder view = new StringBuilder();
+        TermLinker linker = new TermLinker(terms.size(), id -> {
+            view.setLength(0);
+            return view.append(terms.get(id));
+        }, WordTokenizer.GLOSSARY);
+        String text = "a linked list of node values, or a list";
+        assertEquals(new TermLinker(terms, WordTokenizer.GLOSSARY).link(text),
+                linker.link(text));
+        assertEquals("node", linker.term(3));
+    }
+
+    /**
+     * Tests that the arena store keeps the first definition of a repeated
+     * term, as the other modes do, and writes its page once.
+     *
+     * @throws IOException
+     *             if the temporary directory cannot be used
+     */
+    @Test
+    public void testGlossaryArenaKeepsFirstDefinitionOfRepeatedTerm()
+            throws IOException {
+        File dir = Files.createTempDirectory("arena").toFile();
+        File input = new File(dir, "terms.txt");
+        Files.write(input.toPath(), ("apple\nthe first\n\nbanana\na fruit\n\n"
+                + "apple\nthe second\n").getBytes("UTF-8"));
+        GlossaryArena arena = GlossaryArena.read(input.getPath(), false);
+        assertEquals(2, arena.size());
+        arena.sort();
+        arena.link();
+        File out = new File(dir, "site");
+        out.mkdir();
+        final int parallelism = 4;
+        arena.writePages(out.getPath(), parallelism, PageTemplates.DEFAULT);
+        arena.writeIndex(out.getPath(), PageTemplates.DEFAULT);
+        assertTrue(HtmlToStringForTests.htmlConvert(new File(out, "apple.html"))
+                .contains("the first"));
+        String index = HtmlToStringForTests
+                .htmlConvert(new File(out, "index.html"));
+        assertEquals(index.indexOf("apple.html"),
+                index.lastIndexOf("apple.html"));
+
+        // Enough terms to grow the table of terms several times
+        final int count = 5000;
+        GlossaryArena many = new GlossaryArena(false);
+        for (int i = 0; i < 2 * count; i++) {
+            assertEquals(i < count, many.add("term " + (i % count), "d"));
+        }
+        assertEquals(count, many.size());
+    }
+
+    /**
+     * Tests that the arena store produces the same site as the map and queue.
+     *
+     * @throws IOException
+     *             if the temporary directories cannot be used
+     */
+    @Test
+    public void testGlossaryArenaMatchesMapAndQueue() throws IOException {
+        Map<String, String> definitionMap = new Map1L<>();
+        SimpleReader in = new SimpleReader1L("data/terms.txt");
+        Queue<String> terms = Glossary.getTermsAndDefs(definitionMap, in);
+        in.close();
+        terms.sort(new Glossary.AlphabeticalSort());
+        Glossary.updateDefinitions(definitionMap, terms, "");
+        File expected = Files.createTempDirectory("expected").toFile();
+        Glossary.addLinks(definitionMap, terms, expected.getPath());
+        SimpleWriter index = new SimpleWriter1L(expected + "/index.html");
+        Glossary.createIndex(terms, expected.getPath(), index);
+        index.close();
+
+        GlossaryArena arena = GlossaryArena.read("data/terms.txt", true);
+        arena.sort();
+        arena.link();
+        File actual = Files.createTempDirectory("actual").toFile();
+        arena.writePages(actual.getPath(), 2, PageTemplates.DEFAULT);
+        arena.writeIndex(actual.getPath(), PageTemplates.DEFAULT);
+
+        assertEquals(expected.list().length, actual.list().length);
+        for (String name : expected.list()) {
+            assertArrayEquals(Files.readAllBytes(new File(expected, name).toPath()),
+                    Files.readAllBytes(new File(actual, name).toPath()));
+        }
+    }
+
     // Tests of createIndex
 
     /**
@@ -321,4 +698,778 @@ public class GlossaryTest {
         String actual = HtmlToStringForTests.htmlConvert(outputFile);
         assertEquals(expected, actual);
     }
+
+    // Tests of PageTemplates
+
+    /**
+     * Tests that the default index layout matches createIndex.
+     *
+     * @throws IOException
+     *             if the temporary directory cannot be used
+     */
+    @Test
+    public void testPageTemplatesDefaultIndexMatchesCreateIndex()
+            throws IOException {
+        Queue<String> terms = new Queue1L<>();
+        terms.enqueue("term1");
+        terms.enqueue("term2");
+        File dir = Files.createTempDirectory("templates").toFile();
+        SimpleWriter out = new SimpleWriter1L(dir + "/expected.html");
+        Glossary.createIndex(terms, dir.getPath(), out);
+        out.close();
+        PageTemplates.DEFAULT.writeIndex(dir.getPath(), terms);
+        assertArrayEquals(
+                Files.readAllBytes(new File(dir, "expected.html").toPath()),
+                Files.readAllBytes(new File(dir, "index.html").toPath()));
+    }
+
+    /**
+     * Tests that a custom term page layout is used.
+     *
+     * @throws IOException
+     *             if the temporary directory cannot be used
+     */
+    @Test
+    public void testPageTemplatesCustomTermPage() throws IOException {
+        File dir = Files.createTempDirectory("templates").toFile();
+        Files.write(new File(dir, PageTemplates.TERM_FILE).toPath(),
+                "<h1>{{term}}</h1><p>{{ definition }}</p>\n".getBytes("UTF-8"));
+        PageTemplates templates = PageTemplates.load(dir.getPath());
+        templates.writeTermPage(dir.getPath(), "apple", "a fruit");
+        assertEquals("<h1>apple</h1><p>a fruit</p>\n", HtmlToStringForTests
+                .htmlConvert(new File(dir, "apple.html")));
+    }
+
+    /**
+     * Tests that an index layout without its {{entries}} slot is rejected
+     * instead of dropping every term.
+     *
+     * @throws IOException
+     *             if the temporary directory cannot be used
+     */
+    @Test
+    public void testPageTemplatesRejectsIndexWithoutEntries()
+            throws IOException {
+        File dir = Files.createTempDirectory("templates").toFile();
+        Files.write(new File(dir, PageTemplates.INDEX_FILE).toPath(),
+                "<h1>Glossary</h1>\n".getBytes("UTF-8"));
+        boolean rejected = false;
+        try {
+            PageTemplates.load(dir.getPath());
+        } catch (IllegalArgumentException e) {
+            rejected = true;
+        }
+        assertTrue(rejected);
+    }
+
+    /**
+     * Tests that the sharded index splits terms by first character, then into
+     * pages of at most the shard size.
+     */
+    @Test
+    public void testShardedIndexSplitsByFirstCharacterAndSize() {
+        List<String> terms = Arrays.asList("apple", "apricot", "avocado",
+                "banana", "cherry");
+        ShardedIndex index = new ShardedIndex(terms,
+                new Glossary.AlphabeticalSort(), 2);
+        assertEquals(4, index.shardCount());
+        assertEquals("index-a-1.html", index.pageOf("apricot"));
+        assertEquals("index-a-2.html", index.pageOf("avocado"));
+        assertEquals("index-b-1.html", index.pageOf("banana"));
+        assertEquals("index-c-1.html", index.pageOf("cherry"));
+    }
+
+    /**
+     * Tests that the search index front-codes each block against the previous
+     * term and lists the first term of every block.
+     *
+     * @throws IOException
+     *             if the temporary directory cannot be used
+     */
+    @Test
+    public void testSearchIndexFrontCodesBlocks() throws IOException {
+        File dir = Files.createTempDirectory("search").toFile();
+        int blocks = SearchIndex.write(dir.getPath(),
+                Arrays.asList("apple", "applet", "applet", "apply", "banana"),
+                2);
+        assertEquals(2, blocks);
+        File folder = new File(dir, SearchIndex.FOLDER);
+        assertEquals(Arrays.asList("0\tapple", "5\tt"),
+                Files.readAllLines(new File(folder, "0.txt").toPath()));
+        assertEquals(Arrays.asList("0\tapply", "0\tbanana"),
+                Files.readAllLines(new File(folder, "1.txt").toPath()));
+        assertEquals(Arrays.asList("0\tapple", "4\ty"), Files.readAllLines(
+                new File(folder, SearchIndex.BLOCKS_FILE).toPath()));
+        assertTrue(new File(dir, SearchIndex.SCRIPT_FILE).exists());
+    }
+
+    /**
+     * Tests that the server answers with the rendered term and index pages,
+     * and with 404 for an unknown term.
+     *
+     * @throws IOException
+     *             if the server cannot be reached
+     */
+    @Test
+    public void testGlossaryServerServesTermAndIndexPages()
+            throws IOException {
+        Map<String, String> definitionMap = new Map1L<>();
+        definitionMap.add("apple", "a fruit");
+        definitionMap.add("banana", "a yellow fruit");
+        Queue<String> terms = new Queue1L<>();
+        terms.enqueue("apple");
+        terms.enqueue("banana");
+        GlossaryServer server = new GlossaryServer(definitionMap, terms, null,
+                PageTemplates.DEFAULT, GlossaryServer.DEFAULT_CACHE_BYTES);
+        int port = server.start(0, 2);
+        try {
+            HttpURLConnection apple = (HttpURLConnection) new URL(
+                    "http://localhost:" + port + "/apple.html")
+                            .openConnection();
+            assertEquals(200, apple.getResponseCode());
+            assertArrayEquals(
+                    PageTemplates.DEFAULT.renderTermPage("apple", "a fruit",
+                            PageTemplates.INDEX_PAGE),
+                    apple.getInputStream().readAllBytes());
+            assertArrayEquals(
+                    PageTemplates.DEFAULT.renderIndexPage(
+                            Arrays.asList("apple", "banana")),
+                    server.page("index.html"));
+            HttpURLConnection missing = (HttpURLConnection) new URL(
+                    "http://localhost:" + port + "/cherry.html")
+                            .openConnection();
+            assertEquals(404, missing.getResponseCode());
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * Tests that each update of the watcher rewrites only the pages an edit of
+     * the input affects.
+     *
+     * @throws IOException
+     *             if the temporary directory cannot be used
+     */
+    @Test
+    public void testGlossaryWatcherRewritesAffectedPages() throws IOException {
+        File dir = Files.createTempDirectory("watch").toFile();
+        File input = new File(dir, "terms.txt");
+        Files.write(input.toPath(), ("apple\na fruit\n\nbanana\na snack\n\n"
+                + "cherry\na red fruit\n\n").getBytes("UTF-8"));
+        GlossaryWatcher watcher = new GlossaryWatcher(input.getPath(),
+                dir.getPath(), 1, PageTemplates.DEFAULT);
+        assertEquals(3, watcher.update());
+        assertEquals(0, watcher.update());
+
+        // Adding "fruit" rewrites it and the two pages that mention it
+        Files.write(input.toPath(), ("apple\na fruit\n\nbanana\na snack\n\n"
+                + "cherry\na red fruit\n\nfruit\nfood\n\n")
+                        .getBytes("UTF-8"));
+        assertEquals(3, watcher.update());
+        assertTrue(HtmlToStringForTests
+                .htmlConvert(new File(dir, "apple.html"))
+                .contains("<a href=\"fruit.html\">fruit</a>"));
+
+        // Changing a definition in the middle rewrites only that page
+        Files.write(input.toPath(), ("apple\na fruit\n\nbanana\na snack\n"
+                + "often\n\ncherry\na red fruit\n\nfruit\nfood\n\n")
+                        .getBytes("UTF-8"));
+        assertEquals(1, watcher.update());
+
+        // Removing "fruit" rewrites the pages that linked to it
+        Files.write(input.toPath(), ("apple\na fruit\n\nbanana\na snack\n"
+                + "often\n\ncherry\na red fruit\n\n").getBytes("UTF-8"));
+        assertEquals(2, watcher.update());
+        assertTrue(!new File(dir, "fruit.html").exists());
+        assertEquals(-1, HtmlToStringForTests
+                .htmlConvert(new File(dir, "index.html")).indexOf("fruit"));
+    }
+
+    /**
+     * Tests that terms are sorted by the collator of the locale, sequentially
+     * and in parallel.
+     */
+    @Test
+    public void testCollatedOrderSortsByLocale() {
+        String[] terms = { "Zebra", "\u00e9clair", "banana", "apple", "Apple",
+                "eclair" };
+        CollatedOrder order = new CollatedOrder(Locale.ENGLISH,
+                Collator.TERTIARY);
+        String[] expected = { "apple", "Apple", "banana", "eclair",
+                "\u00e9clair", "Zebra" };
+        assertArrayEquals(expected, order.sort(terms, 1));
+        assertArrayEquals(expected, order.sort(terms, 3));
+
+        Queue<String> queue = new Queue1L<>();
+        for (String term : terms) {
+            queue.enqueue(term);
+        }
+        order.sort(queue, 2);
+        for (String term : expected) {
+            assertEquals(term, queue.dequeue());
+        }
+        assertTrue(order.compare("apple", "Zebra") < 0);
+    }
+
+    /**
+     * Tests that the JSON report lists each phase with its items and bytes
+     * written.
+     *
+     * @throws IOException
+     *             if the temporary directory cannot be used
+     */
+    @Test
+    public void testRunStatsReportsPhases() throws IOException {
+        File dir = Files.createTempDirectory("stats").toFile();
+        RunStats stats = new RunStats();
+        RunStats.Phase phase = stats.begin("index");
+        PageTemplates.DEFAULT.writeIndex(dir.getPath(),
+                Arrays.asList("apple", "banana"));
+        phase.end(2);
+
+        File report = new File(dir, "stats.json");
+        stats.writeJson(report.getPath(), 2, 1);
+        String json = new String(Files.readAllBytes(report.toPath()), "UTF-8");
+        assertTrue(json.contains("\"name\": \"index\""));
+        assertTrue(json.contains("\"items\": 2"));
+        assertTrue(json.contains("\"bytesWritten\": "
+                + new File(dir, "index.html").length()));
+        assertTrue(json.contains("\"peakHeapBytes\": -1"));
+    }
+
+    /**
+     * Tests that a phase counts the allocations of the pool threads doing its
+     * work.
+     */
+    @Test
+    public void testRunStatsCountsPoolAllocations() {
+        RunStats stats = new RunStats();
+        RunStats.Phase phase = stats.begin("pool");
+        final int size = 1 << 20;
+        final int tasks = 8;
+        byte[][] blocks = new byte[tasks][];
+        ForkJoinPool pool = RunStats.newPool(2);
+        try {
+            pool.submit(() -> IntStream.range(0, tasks).parallel()
+                    .forEach(i -> blocks[i] = new byte[size])).join();
+        } finally {
+            pool.shutdown();
+        }
+        phase.end(tasks);
+        // -1 if the JVM does not count allocations
+        assertTrue(phase.allocatedBytes() < 0
+                || phase.allocatedBytes() >= (long) size * tasks);
+    }
+
+    /**
+     * Tests that --stats is rejected with the modes that never finish a run.
+     */
+    @Test
+    public void testGlossaryOptionsRejectsStatsWhenWatchingOrServing() {
+        String[][] argsList = { { "--stats=s.json", "--watch" },
+                { "--stats=s.json", "--serve=8080" } };
+        for (String[] args : argsList) {
+            boolean rejected = false;
+            try {
+                GlossaryOptions.parse(args);
+            } catch (IllegalArgumentException e) {
+                rejected = true;
+            }
+            assertTrue(rejected);
+        }
+    }
+
+    /**
+     * Tests that the archive holds every term page and the index, as they
+     * would be rendered to files.
+     *
+     * @throws IOException
+     *             if the temporary directory cannot be used
+     */
+    @Test
+    public void testSiteArchiveHoldsEveryPage() throws IOException {
+        Map<String, String> definitionMap = new Map1L<>();
+        definitionMap.add("apple", "a fruit");
+        definitionMap.add("banana", "a yellow fruit");
+        Queue<String> terms = new Queue1L<>();
+        terms.enqueue("apple");
+        terms.enqueue("banana");
+        File zip = new File(Files.createTempDirectory("archive").toFile(),
+                "site.zip");
+
+        assertEquals(2, SiteArchive.write(zip.getPath(), definitionMap, terms,
+                null, 2, PageTemplates.DEFAULT));
+        try (ZipFile archive = new ZipFile(zip)) {
+            assertEquals(3, archive.size());
+            assertArrayEquals(
+                    PageTemplates.DEFAULT.renderTermPage("banana",
+                            "a yellow fruit", PageTemplates.INDEX_PAGE),
+                    archive.getInputStream(archive.getEntry("banana.html"))
+                            .readAllBytes());
+            assertArrayEquals(
+                    PageTemplates.DEFAULT.renderIndexPage(
+                            Arrays.asList("apple", "banana")),
+                    archive.getInputStream(archive.getEntry("index.html"))
+                            .readAllBytes());
+        }
+    }
+
+    /**
+     * Tests that a batch builds every glossary of its manifest and that one
+     * failing glossary does not stop the others.
+     *
+     * @throws IOException
+     *             if the temporary files cannot be used
+     */
+    @Test
+    public void testGlossaryBatchBuildsEveryGlossary() throws IOException {
+        File dir = Files.createTempDirectory("batch").toFile();
+        File blocked = new File(dir, "blocked");
+        Files.write(blocked.toPath(), new byte[0]);
+        File manifest = new File(dir, "batch.txt");
+        String lines = "# input\toutput\n" + "data/terms.txt\t" + dir
+                + "/one\n\n" + "data/terms.txt\t" + blocked + "\n"
+                + "data/terms.txt\t" + dir + "/two\n";
+        Files.write(manifest.toPath(), lines.getBytes("UTF-8"));
+
+        List<GlossaryBatch.Job> jobs = GlossaryBatch
+                .readManifest(manifest.getPath());
+        final int three = 3;
+        assertEquals(three, jobs.size());
+        SimpleWriter out = new SimpleWriter1L(
+                new File(dir, "report.txt").getPath());
+        assertEquals(1, GlossaryBatch.run(jobs, 2,
+                GlossaryOptions.parse(new String[0]), out));
+        out.close();
+        assertTrue(jobs.get(0).succeeded());
+        assertTrue(!jobs.get(1).succeeded());
+        assertTrue(jobs.get(2).succeeded());
+        final int seven = 7;
+        assertEquals(seven, jobs.get(2).terms());
+        assertTrue(new File(dir, "one/index.html").isFile());
+        assertTrue(new File(dir, "two/word.html").isFile());
+    }
+
+    /**
+     * Tests that the pipelined build writes the same site as the phased one,
+     * even with queues small enough to block every stage.
+     *
+     * @throws IOException
+     *             if the temporary files cannot be used
+     */
+    @Test
+    public void testGlossaryPipelineMatchesPhasedBuild() throws IOException {
+        final int count = 2000;
+        SyntheticGlossary glossary = new SyntheticGlossary(2L, count, 12, 0.1);
+        File input = File.createTempFile("terms", ".txt");
+        glossary.writeTo(input.toPath());
+
+        File phased = Files.createTempDirectory("phased").toFile();
+        Map<String, String> definitionMap = new Map1L<>();
+        SimpleReader in = new SimpleReader1L(input.getPath());
+        Queue<String> terms = Glossary.getTermsAndDefs(definitionMap, in);
+        in.close();
+        terms.sort(new Glossary.AlphabeticalSort());
+        Glossary.updateDefinitions(definitionMap, terms, phased.getPath());
+        Glossary.addLinks(definitionMap, terms, phased.getPath());
+        PageTemplates.DEFAULT.writeIndex(phased.getPath(), terms);
+
+        File pipelined = Files.createTempDirectory("pipelined").toFile();
+        final int threads = 3;
+        assertEquals(count, GlossaryPipeline.build(input.getPath(),
+                pipelined.getPath(), new Glossary.AlphabeticalSort(), threads,
+                2, PageTemplates.DEFAULT, 0, false, new RunStats()));
+        assertEquals(phased.list().length, pipelined.list().length);
+        for (String name : phased.list()) {
+            assertArrayEquals(
+                    Files.readAllBytes(new File(phased, name).toPath()),
+                    Files.readAllBytes(new File(pipelined, name).toPath()));
+        }
+        input.delete();
+    }
+
+    /**
+     * Tests that the external sort merges more runs than it opens at once in
+     * several passes, still in order and keeping equal terms in the order
+     * added.
+     */
+    @Test
+    public void testExternalTermSortMergesManyRunsInPasses() {
+        final int count = 3000;
+        // Every entry is over budget, so each one is a run of its own
+        ExternalTermSort sort = new ExternalTermSort(
+                new Glossary.AlphabeticalSort(), 1);
+        sort.add("t5", "first");
+        for (int i = 0; i < count; i++) {
+            final int step = 389;
+            sort.add("t" + (i * step % count), "entry " + i);
+        }
+        sort.add("t5", "last");
+        assertEquals(count + 2, sort.runCount());
+        ExternalTermSort.Merge merge = sort.merge();
+        List<String> fives = new ArrayList<>();
+        String previous = "";
+        int seen = 0;
+        while (merge.next()) {
+            assertTrue(previous.compareTo(merge.term()) <= 0);
+            if (merge.term().equals("t5")) {
+                fives.add(merge.definition());
+            }
+            previous = merge.term();
+            seen++;
+        }
+        assertEquals(count + 2, seen);
+        assertEquals("first", fives.get(0));
+        assertEquals("last", fives.get(fives.size() - 1));
+        merge.close();
+        sort.close();
+    }
+
+    /**
+     * Tests that the external sort spills runs, merges them in order keeping
+     * equal terms in the order added, and drives the same site as the
+     * in-memory sort.
+     *
+     * @throws IOException
+     *             if the temporary files cannot be used
+     */
+    @Test
+    public void testExternalTermSortMergesSpilledRuns() throws IOException {
+        final int count = 1000;
+        final int budget = 4096;
+        ExternalTermSort sort = new ExternalTermSort(
+                new Glossary.AlphabeticalSort(), budget);
+        for (int i = 0; i < count; i++) {
+            // Visits every residue once, so the terms arrive out of order
+            final int step = 389;
+            sort.add("t" + (i * step % count), "first " + i);
+        }
+        sort.add("t5", "second");
+        assertTrue(sort.runCount() > 1);
+        ExternalTermSort.Merge merge = sort.merge();
+        String previous = "";
+        int seen = 0;
+        while (merge.next()) {
+            assertTrue(previous.compareTo(merge.term()) <= 0);
+            if (merge.term().equals(previous)) {
+                assertEquals("second", merge.definition());
+            }
+            previous = merge.term();
+            seen++;
+        }
+        assertEquals(count + 1, seen);
+        merge.close();
+        sort.close();
+
+        SyntheticGlossary glossary = new SyntheticGlossary(3L, count, 12, 0.1);
+        File input = File.createTempFile("terms", ".txt");
+        glossary.writeTo(input.toPath());
+        File inMemory = Files.createTempDirectory("memory").toFile();
+        File onDisk = Files.createTempDirectory("disk").toFile();
+        GlossaryPipeline.build(input.getPath(), inMemory.getPath(),
+                new Glossary.AlphabeticalSort(), 2, 2, PageTemplates.DEFAULT,
+                0, true, new RunStats());
+        assertEquals(count, GlossaryPipeline.build(input.getPath(),
+                onDisk.getPath(), new Glossary.AlphabeticalSort(), 2, 2,
+                PageTemplates.DEFAULT, 0, true, budget, new RunStats()));
+        for (String name : inMemory.list()) {
+            if (name.endsWith(".html")) {
+                assertArrayEquals(
+                        Files.readAllBytes(new File(inMemory, name).toPath()),
+                        Files.readAllBytes(new File(onDisk, name).toPath()));
+            }
+        }
+        assertArrayEquals(
+                Files.readAllBytes(
+                        new File(inMemory, "search/blocks.txt").toPath()),
+                Files.readAllBytes(
+                        new File(onDisk, "search/blocks.txt").toPath()));
+        input.delete();
+    }
+
+    /**
+     * Tests that the dictionary gives every term its first position as id,
+     * rejects everything else, and looks up ranges of a longer text.
+     */
+    @Test
+    public void testTermDictionaryFindsEveryTerm() {
+        final int count = 5000;
+        SyntheticGlossary glossary = new SyntheticGlossary(5L, count, 4, 0.1);
+        List<String> terms = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            terms.add(glossary.term(i));
+        }
+        terms.add(glossary.term(7));
+        TermDictionary dictionary = new TermDictionary(terms);
+        assertEquals(count, dictionary.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, dictionary.id(glossary.term(i)));
+            assertEquals(-1, dictionary.id(glossary.term(i) + "x"));
+        }
+
+        // Ranges are looked up in place
+        assertEquals(3, dictionary.id("<" + glossary.term(3) + ".html", 1,
+                1 + glossary.term(3).length()));
+        assertEquals(-1, dictionary.id("", 0, 0));
+        assertEquals(-1, new TermDictionary(Arrays.asList()).id("apple"));
+        assertTrue(new TermDictionary(Arrays.asList("apple", "banana"))
+                .contains("banana"));
+    }
+
+    /**
+     * Tests that the term dictionary fails, instead of retrying seeds
+     * forever, when its buckets cannot be placed.
+     */
+    @Test
+    public void testTermDictionaryGivesUpOnStuckBuckets() {
+        final int count = 5000;
+        SyntheticGlossary glossary = new SyntheticGlossary(5L, count, 4, 0.1);
+        List<String> terms = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            terms.add(glossary.term(i));
+        }
+        // A single displacement per bucket cannot place thousands of terms
+        boolean failed = false;
+        try {
+            new TermDictionary(terms, 1);
+        } catch (IllegalStateException e) {
+            failed = true;
+        }
+        assertTrue(failed);
+    }
+
+    /**
+     * Tests that the output manifest ignores line separators, round trips
+     * through its file and reports missing, unexpected and changed files.
+     *
+     * @throws IOException
+     *             if the temporary files cannot be used
+     */
+    @Test
+    public void testOutputManifestFindsChangedFiles() throws IOException {
+        File unix = Files.createTempDirectory("unix").toFile();
+        File windows = Files.createTempDirectory("windows").toFile();
+        new File(unix, "search").mkdir();
+        new File(windows, "search").mkdir();
+        Files.write(new File(unix, "a.html").toPath(),
+                "<p>\nfruit\n</p>\n".getBytes("UTF-8"));
+        Files.write(new File(windows, "a.html").toPath(),
+                "<p>\r\nfruit\r\n</p>\r\n".getBytes("UTF-8"));
+        Files.write(new File(unix, "search/blocks.txt").toPath(),
+                "a\n".getBytes("UTF-8"));
+        Files.write(new File(windows, "search/blocks.txt").toPath(),
+                "a\n".getBytes("UTF-8"));
+        OutputManifest expected = OutputManifest.of(unix.getPath());
+        assertEquals(2, expected.size());
+        assertEquals(expected.fingerprint(),
+                OutputManifest.of(windows.getPath()).fingerprint());
+
+        File saved = new File(unix, "manifest.sha256");
+        expected.write(saved.getPath());
+        OutputManifest read = OutputManifest.read(saved.getPath());
+        assertEquals(expected.fingerprint(), read.fingerprint());
+        assertEquals(expected.digest("search/blocks.txt"),
+                read.digest("search/blocks.txt"));
+
+        Files.write(new File(windows, "a.html").toPath(),
+                "<p>fruits</p>".getBytes("UTF-8"));
+        new File(windows, "search/blocks.txt").delete();
+        Files.write(new File(windows, "b.html").toPath(),
+                "<p>nut</p>".getBytes("UTF-8"));
+        assertEquals(
+                Arrays.asList("changed a.html", "unexpected b.html",
+                        "missing search/blocks.txt"),
+                OutputManifest.of(windows.getPath()).differences(expected));
+    }
+
+    /**
+     * Tests that federated glossaries link to each other's pages by relative
+     * path, and to their own page for a term they share.
+     *
+     * @throws IOException
+     *             if the temporary files cannot be used
+     */
+    @Test
+    public void testGlossaryFederationLinksAcrossGlossaries()
+            throws IOException {
+        File dir = Files.createTempDirectory("federation").toFile();
+        File fruits = new File(dir, "fruits.txt");
+        Files.write(fruits.toPath(),
+                ("apple\na red fruit\n\norange\na round fruit\n")
+                        .getBytes("UTF-8"));
+        File colors = new File(dir, "colors.txt");
+        Files.write(colors.toPath(),
+                ("red\nthe color of an apple\n\norange\nred and yellow\n")
+                        .getBytes("UTF-8"));
+        List<GlossaryBatch.Job> jobs = Arrays.asList(
+                new GlossaryBatch.Job(fruits.getPath(),
+                        new File(dir, "site/fruits").getPath()),
+                new GlossaryBatch.Job(colors.getPath(),
+                        new File(dir, "site/colors").getPath()));
+
+        GlossaryFederation federation = GlossaryFederation.load(jobs, 2);
+        final int three = 3;
+        assertEquals(three, federation.termCount());
+        assertEquals(0, federation.owner("orange"));
+        assertEquals(1, federation.owner("red"));
+        assertEquals(-1, federation.owner("yellow"));
+
+        Map<String, String> definitionMap = new Map1L<>();
+        SimpleReader in = new SimpleReader1L(colors.getPath());
+        Queue<String> terms = Glossary.getTermsAndDefs(definitionMap, in);
+        in.close();
+        federation.link(definitionMap, terms, jobs.get(1).output());
+        assertEquals("the color of an <a href=\"../fruits/apple.html\">apple"
+                + "</a>", definitionMap.value("red"));
+        assertEquals("<a href=\"red.html\">red</a> and yellow",
+                definitionMap.value("orange"));
+
+        SimpleWriter out = new SimpleWriter1L(
+                new File(dir, "report.txt").getPath());
+        assertEquals(0, GlossaryBatch.run(jobs, 2,
+                GlossaryOptions.parse(new String[] { "--batch=x",
+                        "--federate" }),
+                out, federation));
+        out.close();
+        String page = new String(Files.readAllBytes(
+                new File(dir, "site/fruits/apple.html").toPath()), "UTF-8");
+        assertTrue(page.contains("<a href=\"../colors/red.html\">red</a>"));
+    }
+
+    /**
+     * Tests that a snapshot loads back what was saved, and is not loaded once
+     * the order, the input or the snapshot itself changed.
+     *
+     * @throws IOException
+     *             if the temporary directory cannot be used
+     */
+    @Test
+    public void testGlossarySnapshotRoundTripsAndDetectsChanges()
+            throws IOException {
+        File dir = Files.createTempDirectory("snapshot").toFile();
+        File input = new File(dir, "terms.txt");
+        Files.write(input.toPath(),
+                "pear\na fruit\n\nfig\na sweet fruit\n".getBytes("UTF-8"));
+        Map<String, String> definitionMap = new Map1L<>();
+        definitionMap.add("fig", "a <a href=\"pear.html\">pear</a> cousin");
+        definitionMap.add("pear", "a fruit");
+        Queue<String> terms = new Queue1L<>();
+        terms.enqueue("fig");
+        terms.enqueue("pear");
+        File file = new File(dir, "glossary.snapshot");
+        GlossarySnapshot.Key key = GlossarySnapshot.Key.of(input.getPath(),
+                "code-unit");
+        GlossarySnapshot.save(file.getPath(), key, definitionMap, terms);
+
+        GlossarySnapshot snapshot = GlossarySnapshot.load(file.getPath(), key);
+        assertEquals(2, snapshot.size());
+        assertEquals("fig", snapshot.term(0));
+        assertEquals("a <a href=\"pear.html\">pear</a> cousin",
+                snapshot.definition(0));
+        assertEquals("a fruit", snapshot.definition(1));
+
+        // Another order or a changed input makes the snapshot stale
+        assertEquals(null, GlossarySnapshot.load(file.getPath(),
+                GlossarySnapshot.Key.of(input.getPath(), "en/2")));
+        Files.write(input.toPath(), "pear\na fruit\n".getBytes("UTF-8"));
+        assertEquals(null, GlossarySnapshot.load(file.getPath(),
+                GlossarySnapshot.Key.of(input.getPath(), "code-unit")));
+
+        // So does a damaged snapshot
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(file.toPath(), bytes);
+        assertEquals(null, GlossarySnapshot.load(file.getPath(), key));
+    }
+
+    /**
+     * Tests that terms and definitions are escaped for the context they are
+     * written in, and that page names round trip.
+     *
+     * @throws IOException
+     *             if the temporary directory cannot be used
+     */
+    @Test
+    public void testHtmlEscaperEscapesByContext() throws IOException {
+        String term = "a<b & \"c\"";
+        assertEquals("a&lt;b &amp; \"c\"", HtmlEscaper.text(term));
+        assertEquals("a&lt;b &amp; &quot;c&quot;", HtmlEscaper.attribute(term));
+        assertEquals("a%3Cb & %22c%22.html", HtmlEscaper.pageFile(term));
+        assertEquals("a%253Cb %26 %2522c%2522", HtmlEscaper.pageUrl(term));
+        String name = HtmlEscaper.pageName(term);
+        assertEquals(term, HtmlEscaper.termOfPage(name, 0, name.length()));
+        assertEquals(null, HtmlEscaper.termOfPage("a/b", 0, "a/b".length()));
+        // Text that needs no escape is not copied
+        String plain = "apple";
+        assertTrue(HtmlEscaper.text(plain) == plain);
+        assertTrue(HtmlEscaper.pageUrl(plain) == plain);
+
+        // Definitions are plain text, escaped around and inside each link
+        TermLinker linker = new TermLinker(Arrays.asList("r&d", "a<b"),
+                WordTokenizer.GLOSSARY);
+        assertEquals("1 &lt; 2 <a href=\"r%26d.html\">r&amp;d</a>, too",
+                linker.link("1 < 2 r&d, too"));
+        assertEquals("see <a href=\"a%253Cb.html\">a&lt;b</a> &amp; more",
+                linker.link("see a<b & more"));
+        String nothing = "no terms here";
+        assertEquals(nothing, linker.link(nothing));
+
+        File dir = Files.createTempDirectory("escape").toFile();
+        Files.write(new File(dir, PageTemplates.ENTRY_FILE).toPath(),
+                "<a href=\"{{term}}.html\" title='{{term}}'>{{term}}</a>\n"
+                        .getBytes("UTF-8"));
+        PageTemplates templates = PageTemplates.load(dir.getPath());
+        String index = new String(
+                templates.renderIndexPage(Arrays.asList(term)),
+                templates.charset());
+        assertTrue(index.contains("<a href=\"a%253Cb %26 %2522c%2522"
+                + ".html\" title='a&lt;b &amp; &quot;c&quot;'>"
+                + "a&lt;b &amp; \"c\"</a>"));
+    }
+
+    /**
+     * Tests that a glossary model gives positional access without changing
+     * its sources, splits evenly, and links the same on any number of
+     * threads.
+     */
+    @Test
+    public void testGlossaryModelSplitsAndLinks() {
+        final int count = 1000;
+        Map<String, String> definitionMap = new Map1L<>();
+        Queue<String> terms = new Queue1L<>();
+        for (int i = 0; i < count; i++) {
+            String term = "term" + i;
+            definitionMap.add(term, "see term" + (i + 1) % count);
+            terms.enqueue(term);
+        }
+        terms.enqueue("term0");
+        GlossaryModel model = GlossaryModel.of(definitionMap, terms);
+        assertEquals(count + 1, model.size());
+        assertEquals(count + 1, terms.length());
+        assertEquals("term0", terms.front());
+        assertEquals("term7", model.term(7));
+        assertEquals("see term8", model.definition(7));
+        assertEquals(0, model.indexOf("term0"));
+        assertEquals(-1, model.indexOf("term"));
+
+        GlossaryModel pages = model.distinct();
+        assertEquals(count, pages.size());
+        Spliterator<String> all = pages.spliterator();
+        Spliterator<String> half = all.trySplit();
+        assertEquals(count / 2, half.estimateSize());
+        assertEquals(count / 2, all.estimateSize());
+
+        TermLinker linker = new TermLinker(pages, WordTokenizer.GLOSSARY);
+        final int threads = 4;
+        GlossaryModel sequential = pages.link(linker, 1);
+        GlossaryModel parallel = pages.link(linker, threads);
+        assertEquals("see <a href=\"term8.html\">term8</a>",
+                parallel.definition(7));
+        for (int i = 0; i < count; i++) {
+            assertEquals(sequential.definition(i), parallel.definition(i));
+        }
+        // The model it was linked from is unchanged
+        assertEquals("see term8", pages.definition(7));
+    }
 }